@@ -23,6 +23,8 @@ package com.github.bhuemer.gbt;
 
 import groovy.util.Node;
 import org.gradle.api.Project;
+import org.gradle.api.file.SourceDirectorySet;
+import org.gradle.api.provider.Provider;
 import org.gradle.plugins.ide.idea.model.IdeaModel;
 
 import java.io.File;
@@ -42,20 +44,28 @@ public final class IdeaConfigurer {
 
     /**
      * Changes IDEA module generation for this project such that the given source directories will be included as such.
+     * This configures the IDEA model itself rather than the `ideaModule` task, so that IntelliJ IDEA picks up the
+     * directories when it imports the project as well (which reads the model, but never runs or configures the task).
+     *
      * @param project The Gradle project for which we want to adjust IDEA module generation
      * @param srcDirs The source directories that you want to have included in IDEA modules
      * @param isTest Whether or not to include these as production code (`false`) or test code (`true`)
      */
-    public static void includeSourceDirs(Project project, Set<File> srcDirs, boolean isTest) {
+    public static void includeSourceDirs(Project project, SourceDirectorySet srcDirs, boolean isTest) {
         IdeaModel model = project.getExtensions().findByType(IdeaModel.class);
         if (model == null) {
             return;
         }
 
         if (isTest) {
-            model.getModule().setTestSourceDirs(union(model.getModule().getTestSourceDirs(), srcDirs));
+            model.getModule().getTestSources().from(project.provider(srcDirs::getSrcDirs));
+        } else if (project.getState().getExecuted()) {
+            model.getModule().setSourceDirs(union(model.getModule().getSourceDirs(), srcDirs.getSrcDirs()));
         } else {
-            model.getModule().setSourceDirs(union(model.getModule().getSourceDirs(), srcDirs));
+            // Production sources are a plain set rather than a lazy property, so wait until the build script
+            // had the chance to add its own source directories
+            project.afterEvaluate(ignored ->
+                model.getModule().setSourceDirs(union(model.getModule().getSourceDirs(), srcDirs.getSrcDirs())));
         }
     }
 
@@ -68,9 +78,9 @@ public final class IdeaConfigurer {
      * don't have to implement that at the moment.
      *
      * @param project The Gradle project for which we want to adjust IDEA module generation
-     * @param scalaSdkName The name of the Scala SDK to use
+     * @param scalaSdkName The name of the Scala SDK to use, only queried once the .iml file is generated
      */
-    public static void includeScalaSdkDependency(Project project, String scalaSdkName) {
+    public static void includeScalaSdkDependency(Project project, Provider<String> scalaSdkName) {
         IdeaModel model = project.getExtensions().findByType(IdeaModel.class);
         if (model == null) {
             return;
@@ -85,7 +95,7 @@ public final class IdeaConfigurer {
                     if ("NewModuleRootManager".equals(child.attribute("name"))) {
                         Map<String, String> attributes = new LinkedHashMap<>();
                         attributes.put("type", "library");
-                        attributes.put("name", scalaSdkName);
+                        attributes.put("name", scalaSdkName.get());
                         attributes.put("level", "application");
                         child.appendNode("orderEntry", attributes);
                     }
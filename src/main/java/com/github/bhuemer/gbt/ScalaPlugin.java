@@ -22,9 +22,31 @@
 package com.github.bhuemer.gbt;
 
 import com.github.bhuemer.gbt.tasks.ScalaCompile;
+import com.github.bhuemer.gbt.tasks.ScalaDiagnosticsService;
+import com.github.bhuemer.gbt.tasks.ScalaProfileService;
+import com.github.bhuemer.gbt.tasks.ScalaSourceFingerprint;
+import com.github.bhuemer.gbt.tasks.ScalaTaskDurationService;
+import com.github.bhuemer.gbt.tasks.ScalaWarmUp;
+import com.github.bhuemer.gbt.tasks.ScalaWarmUpService;
+import com.github.bhuemer.gbt.tasks.ScalaTestImpact;
+import com.github.bhuemer.gbt.tasks.Scalafmt;
+import com.github.bhuemer.gbt.tasks.support.TaskDurations;
+import com.github.bhuemer.gbt.tasks.support.TestSelection;
+import org.gradle.api.Action;
+import org.gradle.api.GradleException;
+import org.gradle.api.NamedDomainObjectProvider;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.Task;
+import org.gradle.api.execution.TaskExecutionGraph;
+import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.Dependency;
+import org.gradle.api.artifacts.DependencyResolveDetails;
+import org.gradle.api.artifacts.ModuleVersionSelector;
+import org.gradle.api.attributes.Attribute;
+import org.gradle.api.attributes.AttributeContainer;
+import org.gradle.api.file.Directory;
+import org.gradle.api.file.RegularFile;
 import org.gradle.api.file.SourceDirectorySet;
 import org.gradle.api.internal.tasks.DefaultSourceSetOutput;
 import org.gradle.api.logging.Logger;
@@ -32,12 +54,36 @@ import org.gradle.api.logging.Logging;
 import org.gradle.api.plugins.JavaBasePlugin;
 import org.gradle.api.plugins.JavaPlugin;
 import org.gradle.api.plugins.JavaPluginExtension;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildServiceRegistry;
+import org.gradle.api.specs.Spec;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.SourceSet;
 import org.gradle.api.tasks.SourceSetContainer;
+import org.gradle.api.tasks.TaskCollection;
+import org.gradle.api.tasks.TaskProvider;
+import org.gradle.api.tasks.testing.Test;
+import org.gradle.api.tasks.testing.TestFilter;
+import org.gradle.build.event.BuildEventsListenerRegistry;
 import org.gradle.internal.Cast;
+import org.gradle.language.base.plugins.LifecycleBasePlugin;
 
 import javax.annotation.Nonnull;
+import javax.inject.Inject;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * A plugin which compiles Scala source files.
@@ -56,9 +102,56 @@ public class ScalaPlugin implements Plugin<Project> {
      */
     private static final String CONFIGURATION_NAME = ScalaPluginExtension.EXTENSION_NAME;
 
+    /** The name to use to configure the scalafmt dependencies, i.e. `scalafmt-core` by default. */
+    private static final String SCALAFMT_CONFIGURATION_NAME = "scalafmt";
+
+    /** The name of the task that compiles all source sets for all of the `crossScalaVersions`. */
+    private static final String CROSS_COMPILE_TASK_NAME = "crossCompileScala";
+
+    /** The name of the task that warms up the compiler for the compile tasks that run in the Gradle daemon. */
+    private static final String WARM_UP_TASK_NAME = "warmUpScala";
+
+    /** The group of the Scala library and compiler modules. */
+    private static final String SCALA_GROUP = "org.scala-lang";
+
+    /** Matches module names with a Scala binary version suffix, e.g. `cats-core_2.13` or `circe-core_3`. */
+    private static final Pattern BINARY_VERSION_SUFFIX = Pattern.compile("(.+)_(2\\.1[0-3]|3)");
+
+    /** Where earlier compilations are stored for seeding, relative to the Gradle user home. */
+    private static final String SEED_STORE_PATH = "caches/gbt/seeds";
+
+    /** Where the CDS archives of forked compilers are stored, relative to the Gradle user home. */
+    private static final String CLASS_DATA_SHARING_PATH = "caches/gbt/cds";
+
+    /** Where the durations of compile tasks are kept between builds, relative to the project cache directory. */
+    private static final String TASK_DURATIONS_PATH = "gbt/scala-task-durations.txt";
+
+    /** Where the planned order of the compile tasks is kept, relative to the project cache directory. */
+    private static final String TASK_ORDER_PATH = "gbt/scala-task-order.txt";
+
+    /** The file that the incremental compiler keeps its analysis in, relative to a task's state directory. */
+    private static final String ANALYSIS_FILE_NAME = "analysis.bin";
+
+    /** The name of the task that selects the tests affected by a change. */
+    public static final String TEST_IMPACT_TASK_NAME = "scalaTestImpact";
+
+    /** The Gradle property that sets the revision to select affected tests for, e.g. `-PtestImpactSince=origin/main`. */
+    private static final String TEST_IMPACT_SINCE_PROPERTY = "testImpactSince";
+
+    /** The Gradle property that enables invalidation reports for all compile tasks, e.g. `-PexplainInvalidation`. */
+    private static final String EXPLAIN_INVALIDATION_PROPERTY = "explainInvalidation";
+
     /** The logger instance for this class. */
     private static final Logger logger = Logging.getLogger(ScalaPlugin.class);
 
+    /** Lets us know about the tasks that finished, e.g. to replay diagnostics for up-to-date compile tasks */
+    private final BuildEventsListenerRegistry eventsListenerRegistry;
+
+    @Inject
+    public ScalaPlugin(BuildEventsListenerRegistry eventsListenerRegistry) {
+        this.eventsListenerRegistry = eventsListenerRegistry;
+    }
+
     /**
      * Entry point that applies this plugin to the given project.
      */
@@ -68,9 +161,150 @@ public class ScalaPlugin implements Plugin<Project> {
         configureConfigurations(project);
         configureExtensions(project);
         configureSourceSets(project);
+        configureCrossBuilding(project);
+        configureProfiling(project);
+        configureDiagnostics(project);
+        configureTaskOrdering(project);
+        configureWarmUp(project);
+        configureTestImpact(project);
         configureIdeModules(project);
     }
 
+    /**
+     * Lets the compile tasks on the critical path of the build (i.e. the longest chain of dependent compile tasks,
+     * based on how long they took in earlier builds) start first, so that they don't end up running on their own
+     * at the end of a parallel build. Other compile tasks should run after them, which Gradle treats as a hint:
+     * A task still runs as soon as its dependencies are done if there is nothing else to do for a worker.
+     *
+     * The planned order is an input of the configuration cache, which is reused until the plan changes. The task
+     * graph of each build is handed to the service that records the durations as a parameter, so that it's
+     * restored along with the task graph whenever the configuration cache is reused.
+     */
+    private void configureTaskOrdering(final Project project) {
+        File projectCacheDir = project.getGradle().getStartParameter().getProjectCacheDir();
+        File cacheDir = projectCacheDir != null ? projectCacheDir : new File(project.getRootDir(), ".gradle");
+        File planFile = new File(cacheDir, TASK_ORDER_PATH);
+
+        BuildServiceRegistry sharedServices = project.getGradle().getSharedServices();
+        boolean registered = sharedServices.getRegistrations().findByName(ScalaTaskDurationService.SERVICE_NAME) != null;
+        TaskExecutionGraph taskGraph = project.getGradle().getTaskGraph();
+        Provider<ScalaTaskDurationService> durationService = sharedServices.registerIfAbsent(
+            ScalaTaskDurationService.SERVICE_NAME, ScalaTaskDurationService.class, spec -> {
+                spec.getParameters().getDurationsFile().fileValue(new File(cacheDir, TASK_DURATIONS_PATH));
+                spec.getParameters().getPlanFile().fileValue(planFile);
+                spec.getParameters().getTaskGraph().set(project.provider(() -> scalaTaskGraph(taskGraph)));
+            });
+        if (!registered) {
+            // Only once per build, even though each project that applies this plugin gets here
+            eventsListenerRegistry.onTaskCompletion(durationService);
+        }
+
+        ScalaPluginExtension extension = project.getExtensions().getByType(ScalaPluginExtension.class);
+        Provider<Map<String, Set<String>>> plan = project.getProviders()
+            .fileContents(project.getObjects().fileProperty().fileValue(planFile))
+            .getAsText()
+            .map(TaskDurations::parsePlan);
+        project.getTasks()
+            .withType(ScalaCompile.class)
+            .configureEach(scalaCompile -> scalaCompile.shouldRunAfter((Callable<List<Object>>) () -> {
+                List<Object> tasks = new ArrayList<>();
+                if (extension.getCriticalPathOrdering().get()) {
+                    Set<String> taskPaths = plan.getOrElse(Collections.emptyMap())
+                        .getOrDefault(scalaCompile.getPath(), Collections.emptySet());
+                    for (String taskPath : taskPaths) {
+                        // Tasks from earlier builds might not exist anymore
+                        TaskProvider<ScalaCompile> task = findCompileTask(project, taskPath);
+                        if (task != null) {
+                            tasks.add(task);
+                        }
+                    }
+                }
+                return tasks;
+            }));
+    }
+
+    /**
+     * Warms up the compiler in the background (if enabled) as soon as the build starts running tasks, while Gradle
+     * is still busy with the tasks that the compile tasks depend on, e.g. compiling Java sources or packaging the
+     * JARs of other projects. The warm-up task only runs if a compile task that runs in the Gradle daemon depends
+     * on it, and the compilers that no compile task took are dropped once the build has finished.
+     */
+    private void configureWarmUp(final Project project) {
+        Provider<ScalaWarmUpService> warmUpService = project.getGradle().getSharedServices().registerIfAbsent(
+            ScalaWarmUpService.SERVICE_NAME, ScalaWarmUpService.class, spec -> { });
+
+        ScalaPluginExtension extension = project.getExtensions().getByType(ScalaPluginExtension.class);
+        TaskProvider<ScalaWarmUp> warmUpTask = project.getTasks().register(
+            WARM_UP_TASK_NAME,
+            ScalaWarmUp.class,
+            warmUp -> {
+                warmUp.setDescription("Warms up the Scala compiler in the background.");
+                warmUp.usesService(warmUpService);
+                warmUp.getWarmUpService().set(warmUpService);
+                warmUp.getScalaVersion().set(extension.getScalaVersion());
+                warmUp.getScalacClasspath().from(project.getConfigurations().named(CONFIGURATION_NAME));
+                warmUp.getWorkDirectory().set(project.getLayout().getBuildDirectory().dir("tmp/scala/warmUp"));
+            }
+        );
+
+        project.getTasks()
+            .withType(ScalaCompile.class)
+            .configureEach(scalaCompile -> scalaCompile.dependsOn((Callable<List<Object>>) () ->
+                extension.getWarmUp().get() && !scalaCompile.getFork().get()
+                    ? Collections.singletonList(warmUpTask) : Collections.emptyList()));
+    }
+
+    /**
+     * Returns the compile tasks in the given task graph and the compile tasks that each of them depends on,
+     * directly or transitively (e.g. through the JAR of another project), keyed by task path.
+     */
+    private static Map<String, Set<String>> scalaTaskGraph(TaskExecutionGraph graph) {
+        Map<Task, Set<String>> dependencies = new HashMap<>();
+        Map<String, Set<String>> result = new LinkedHashMap<>();
+        for (Task task : graph.getAllTasks()) {
+            if (task instanceof ScalaCompile) {
+                result.put(task.getPath(), scalaDependencies(task, graph, dependencies));
+            }
+        }
+        return result;
+    }
+
+    private static Set<String> scalaDependencies(Task task, TaskExecutionGraph graph, Map<Task, Set<String>> known) {
+        Set<String> result = known.get(task);
+        if (result != null) {
+            return result;
+        }
+
+        result = new HashSet<>();
+        known.put(task, result);
+        for (Task dependency : graph.getDependencies(task)) {
+            if (dependency instanceof ScalaCompile) {
+                result.add(dependency.getPath());
+            }
+            result.addAll(scalaDependencies(dependency, graph, known));
+        }
+        return result;
+    }
+
+    /**
+     * Looks up the compile task with the given path in whichever project of the build it belongs to, without
+     * creating it (or any other task) if it's only been registered so far.
+     *
+     * @return the compile task, or `null` if there is no such project or no such compile task in it
+     */
+    private static TaskProvider<ScalaCompile> findCompileTask(Project project, String taskPath) {
+        int separator = taskPath.lastIndexOf(Project.PATH_SEPARATOR);
+        Project owner = project.getRootProject().findProject(
+            separator > 0 ? taskPath.substring(0, separator) : Project.PATH_SEPARATOR);
+        if (owner == null) {
+            return null;
+        }
+
+        TaskCollection<ScalaCompile> compileTasks = owner.getTasks().withType(ScalaCompile.class);
+        String taskName = taskPath.substring(separator + 1);
+        return compileTasks.getNames().contains(taskName) ? compileTasks.named(taskName) : null;
+    }
+
     /**
      * Makes sure that all the required plugins are applied to the given project.
      */
@@ -80,21 +314,38 @@ public class ScalaPlugin implements Plugin<Project> {
     }
 
     private void configureConfigurations(Project project) {
-        project.getConfigurations().create(CONFIGURATION_NAME)
+        registerCompilerConfiguration(project, CONFIGURATION_NAME, project.provider(() ->
+            project.getExtensions().getByType(ScalaPluginExtension.class).getScalaVersion().get()));
+        project.getConfigurations().register(SCALAFMT_CONFIGURATION_NAME, configuration -> configuration
+            .setVisible(false)
+            .setDescription("Dependencies required for scalafmt")
+            .defaultDependencies(dependencies -> dependencies.add(project.getDependencies().create(
+                "org.scalameta:scalafmt-core_2.13:"
+                    + project.getExtensions().getByType(ScalaPluginExtension.class).getScalafmtVersion().get()))));
+    }
+
+    /**
+     * Registers a configuration for the compiler dependencies (i.e. the compiler itself and the bridge) that
+     * resolves to the compiler for the given Scala version, unless dependencies are declared explicitly.
+     */
+    private static NamedDomainObjectProvider<Configuration> registerCompilerConfiguration(
+            Project project, String name, Provider<String> scalaVersionProvider) {
+        return project.getConfigurations().register(name, configuration -> configuration
             .setVisible(false)
             .setDescription("Dependencies required for the Scala compiler")
             .defaultDependencies(dependencies -> {
-                ScalaPluginExtension runtime = project.getExtensions().getByType(ScalaPluginExtension.class);
+                String scalaVersion = scalaVersionProvider.get();
 
                 Dependency scalaCompiler;
                 Dependency bridgeCompiler;
 
-                if (runtime.isScala3()) {
-                    scalaCompiler = project.getDependencies().create("org.scala-lang:scala3-compiler_3:" + runtime.getScalaVersion());
-                    bridgeCompiler = project.getDependencies().create("org.scala-lang:scala3-sbt-bridge:" + runtime.getScalaVersion());
+                if (ScalaPluginExtension.isScala3(scalaVersion)) {
+                    scalaCompiler = project.getDependencies().create("org.scala-lang:scala3-compiler_3:" + scalaVersion);
+                    bridgeCompiler = project.getDependencies().create("org.scala-lang:scala3-sbt-bridge:" + scalaVersion);
                 } else {
-                    scalaCompiler = project.getDependencies().create("org.scala-lang:scala-compiler:" + runtime.getScalaVersion());
-                    bridgeCompiler = project.getDependencies().create("org.scala-sbt:compiler-bridge_" + runtime.getScalaMajorVersion() + ":1.6.1");
+                    scalaCompiler = project.getDependencies().create("org.scala-lang:scala-compiler:" + scalaVersion);
+                    bridgeCompiler = project.getDependencies().create("org.scala-sbt:compiler-bridge_"
+                        + ScalaPluginExtension.getScalaMajorVersion(scalaVersion) + ":1.6.1");
                 }
 
                 if (logger.isDebugEnabled()) {
@@ -104,18 +355,44 @@ public class ScalaPlugin implements Plugin<Project> {
                 }
                 dependencies.add(scalaCompiler);
                 dependencies.add(bridgeCompiler);
-            });
+            }));
     }
 
     private void configureExtensions(Project project) {
         ScalaPluginExtension configuration =
             project.getExtensions().create(ScalaPluginExtension.EXTENSION_NAME, ScalaPluginExtension.class);
+        configuration.getExplainInvalidation().convention(project.getProviders()
+            .gradleProperty(EXPLAIN_INVALIDATION_PROPERTY)
+            .map(value -> value.isEmpty() || Boolean.parseBoolean(value))
+            .orElse(false));
         project.getTasks()
             .withType(ScalaCompile.class)
             .configureEach(scalaCompile -> {
-                scalaCompile.setScalaVersion(configuration.getScalaVersion());
-                scalaCompile.setScalacClasspath(
-                    project.getConfigurations().getByName(CONFIGURATION_NAME)
+                scalaCompile.getScalaVersion().convention(configuration.getScalaVersion());
+                scalaCompile.getScalacOptions().convention(configuration.getScalacOptions());
+                scalaCompile.getFork().convention(configuration.getFork());
+                scalaCompile.getPruneClasspath().convention(configuration.getPruneClasspath());
+                scalaCompile.getUseSeedStore().convention(configuration.getSeedStore());
+                scalaCompile.getSeedStoreDirectory().convention(project.getLayout().dir(project.provider(() ->
+                    new File(project.getGradle().getGradleUserHomeDir(), SEED_STORE_PATH))));
+                scalaCompile.getClassDataSharing().convention(configuration.getClassDataSharing());
+                scalaCompile.getClassDataSharingDirectory().convention(project.getLayout().dir(project.provider(() ->
+                    new File(project.getGradle().getGradleUserHomeDir(), CLASS_DATA_SHARING_PATH))));
+                scalaCompile.getRootDirectory().convention(project.getRootProject().getLayout().getProjectDirectory());
+                scalaCompile.getBuildName().convention(project.getRootProject().getName());
+                scalaCompile.getClasspathReport().convention(project.getLayout().getBuildDirectory().file(
+                    String.format("reports/scala/unusedClasspath/%s.txt", scalaCompile.getName())
+                ));
+                scalaCompile.getTransitiveStep().convention(configuration.getTransitiveStep());
+                scalaCompile.getRecompileAllFraction().convention(configuration.getRecompileAllFraction());
+                scalaCompile.getAutoTuneInvalidation().convention(configuration.getAutoTuneInvalidation());
+                scalaCompile.getAggregate().convention(configuration.getAggregate());
+                scalaCompile.getExplainInvalidation().convention(configuration.getExplainInvalidation());
+                scalaCompile.getInvalidationReportFile().convention(project.getLayout().getBuildDirectory().file(
+                    String.format("reports/scala/invalidation/%s.json", scalaCompile.getName())
+                ));
+                scalaCompile.getScalacClasspath().from(
+                    project.getConfigurations().named(CONFIGURATION_NAME)
                 );
             });
     }
@@ -126,6 +403,7 @@ public class ScalaPlugin implements Plugin<Project> {
      */
     private void configureSourceSets(final Project project) {
         SourceSetContainer sourceSets = getSourceSets(project);
+        ScalaPluginExtension extension = project.getExtensions().getByType(ScalaPluginExtension.class);
 
         // Both should really exist, but we don't strictly insist on it here
         SourceSet mainSourceSet = sourceSets.findByName(SourceSet.MAIN_SOURCE_SET_NAME);
@@ -139,61 +417,478 @@ public class ScalaPlugin implements Plugin<Project> {
             final SourceDirectorySet scalaDirectorySet = project.getObjects().sourceDirectorySet(
                 sourceSet.getName(), String.format("%s Scala source", sourceSet.getName()));
             scalaDirectorySet.srcDir(project.file(String.format("src/%s/scala", sourceSet.getName())));
-            scalaDirectorySet.getDestinationDirectory().convention(
-                project.getLayout().getBuildDirectory().dir(String.format("classes/scala/%s", sourceSet.getName()))
-            );
             sourceSet.getExtensions().add("scala", scalaDirectorySet);
 
-            // Make sure that the class files generated by the Scala compiler are also picked up
-            // as part of the the output for this source set (e.g. when assembling JAR files, etc.).
-            DefaultSourceSetOutput sourceSetOutput = Cast.cast(DefaultSourceSetOutput.class, sourceSet.getOutput());
-            sourceSetOutput.addClassesDir(scalaDirectorySet.getDestinationDirectory());
-
             // TODO: Ideally we would adjust the various sourceSet classpaths as well to make it easier for
             // other people to build additional tasks without having to know too much about how to build these
             // classpaths themselves?
 
+            // Fingerprints the sources without comments and formatting, only run if `normalizeSource` is enabled
+            TaskProvider<ScalaSourceFingerprint> fingerprintTask = project.getTasks().register(
+                sourceSet.getTaskName("fingerprint", "scala"),
+                ScalaSourceFingerprint.class,
+                fingerprint -> {
+                    fingerprint.setDescription(String.format(
+                        "Fingerprints %s Scala source, ignoring comments and whitespace.", sourceSet.getName()));
+                    fingerprint.getSource().from(scalaDirectorySet);
+                    fingerprint.getFingerprintFile().convention(project.getLayout().getBuildDirectory().file(
+                        String.format("tmp/scala/fingerprints/%s.txt", sourceSet.getName())
+                    ));
+                }
+            );
+
             // Register the corresponding Scala compile task for this source set
-            project.getTasks().register(
+            TaskProvider<ScalaCompile> compileTask = project.getTasks().register(
                 sourceSet.getCompileTaskName("scala"),
                 ScalaCompile.class,
-                scalaCompile -> {
-                    if (SourceSet.TEST_SOURCE_SET_NAME.equals(sourceSet.getName()) && mainSourceSet != null) {
-                        scalaCompile.dependsOn(
-                            sourceSet.getCompileJavaTaskName(),             // :compileTestJava
-                            mainSourceSet.getCompileTaskName("scala")       // :compileScala
-                        );
-
-                        // For test compile tasks make sure that outputs from all the
-                        // other relevant tasks are available during compilation.
-                        scalaCompile.setClasspath(sourceSet.getCompileClasspath().plus(project.files(
-                            sourceSet.getJava().getClassesDirectory(),      // classes for src/test/java
-                            mainSourceSet.getJava().getClassesDirectory(),  // classes for src/main/java
-                            determineOutputDirFor(project, mainSourceSet)   // classes for src/main/scala
-                        )));
-                    } else {
-                        // By default just make it depend on the equivalent Java compile task.
-                        scalaCompile.dependsOn(sourceSet.getCompileJavaTaskName());
-                        scalaCompile.setClasspath(
-                            sourceSet.getCompileClasspath().plus(
-                                project.files(sourceSet.getJava().getClassesDirectory())
-                            )
-                        );
-                    }
+                scalaCompile -> configureCompileTask(project, extension, sourceSet, mainSourceSet,
+                    scalaDirectorySet, fingerprintTask, scalaCompile, false)
+            );
 
-                    scalaCompile.setDescription(String.format("Compiles %s Scala source.", sourceSet.getName()));
-                    scalaCompile.setDestinationDir(determineOutputDirFor(project, sourceSet));
-                    scalaCompile.setSource(scalaDirectorySet);
+            // A compile task that only type checks, e.g. `checkScala`, for quicker feedback than compiling
+            TaskProvider<ScalaCompile> checkTask = project.getTasks().register(
+                sourceSet.getTaskName("check", "scala"),
+                ScalaCompile.class,
+                scalaCheck -> {
+                    configureCompileTask(project, extension, sourceSet, mainSourceSet,
+                        scalaDirectorySet, fingerprintTask, scalaCheck, true);
+                    scalaCheck.setGroup(LifecycleBasePlugin.VERIFICATION_GROUP);
+                    scalaCheck.setDescription(String.format(
+                        "Type checks %s Scala source without generating class files.", sourceSet.getName()));
+                    scalaCheck.getTypecheckOnly().set(true);
+                    scalaCheck.getUseSeedStore().set(false);
+                    scalaCheck.getPruneClasspath().set(false);
+                    scalaCheck.getDestinationDirectory().convention(project.getLayout().getBuildDirectory().dir(
+                        String.format("tmp/scala/typecheck/%s", sourceSet.getName())
+                    ));
                 }
             );
+            scalaDirectorySet.compiledBy(compileTask, ScalaCompile::getDestinationDirectory);
+
+            // Format and check tasks, e.g. `scalafmt` and `scalafmtCheck`, sharing which sources are formatted
+            TaskProvider<Scalafmt> formatTask = project.getTasks().register(
+                sourceSet.getTaskName("scalafmt", null),
+                Scalafmt.class,
+                scalafmt -> {
+                    configureFormatTask(project, sourceSet, scalaDirectorySet, scalafmt);
+                    scalafmt.setDescription(String.format("Formats %s Scala source.", sourceSet.getName()));
+                }
+            );
+            project.getTasks().register(
+                sourceSet.getTaskName("scalafmtCheck", null),
+                Scalafmt.class,
+                scalafmtCheck -> {
+                    configureFormatTask(project, sourceSet, scalaDirectorySet, scalafmtCheck);
+                    scalafmtCheck.setGroup(LifecycleBasePlugin.VERIFICATION_GROUP);
+                    scalafmtCheck.setDescription(String.format(
+                        "Checks that %s Scala source is formatted.", sourceSet.getName()));
+                    scalafmtCheck.getCheckOnly().set(true);
+                    scalafmtCheck.mustRunAfter(formatTask);
+                }
+            );
+
+            // Compile the formatted sources if both run, rather than read them while they're being rewritten
+            compileTask.configure(scalaCompile -> scalaCompile.mustRunAfter(formatTask));
+            checkTask.configure(scalaCheck -> scalaCheck.mustRunAfter(formatTask));
+
+            // Make sure that the class files generated by the Scala compiler are also picked up
+            // as part of the the output for this source set (e.g. when assembling JAR files, etc.).
+            DefaultSourceSetOutput sourceSetOutput = Cast.cast(DefaultSourceSetOutput.class, sourceSet.getOutput());
+            sourceSetOutput.addClassesDir(scalaDirectorySet.getDestinationDirectory());
 
             // Make sure that `compileScala` gets called whenever a task depends on `classes`, etc.
             project.getTasks()
-                .getByName(sourceSet.getClassesTaskName())
-                .dependsOn(sourceSet.getCompileTaskName("scala"));
+                .named(sourceSet.getClassesTaskName())
+                .configure(classesTask -> classesTask.dependsOn(compileTask));
+        });
+    }
+
+    /**
+     * Configures the given format task (or check task) for the given source set. The cache of formatted sources
+     * is shared between both tasks of a source set, so that checking right after formatting is cheap.
+     */
+    private static void configureFormatTask(Project project, SourceSet sourceSet,
+            SourceDirectorySet scalaDirectorySet, Scalafmt scalafmt) {
+        RegularFile configFile = project.getRootProject().getLayout().getProjectDirectory().file(".scalafmt.conf");
+        if (configFile.getAsFile().isFile()) {
+            scalafmt.getConfigFile().convention(configFile);
+        }
+        scalafmt.getSource().from(scalaDirectorySet);
+        scalafmt.getFormatterClasspath().from(project.getConfigurations().named(SCALAFMT_CONFIGURATION_NAME));
+        scalafmt.getCacheFile().convention(project.getLayout().getBuildDirectory().file(
+            String.format("tmp/scalafmt/%s.txt", sourceSet.getName())
+        ));
+        scalafmt.getReportFile().convention(project.getLayout().getBuildDirectory().file(
+            String.format("reports/scalafmt/%s.txt", scalafmt.getName())
+        ));
+    }
+
+    /**
+     * Configures the given compile task (or type check task) for the given source set, i.e. its classpath, its
+     * sources and where it keeps its outputs and its incremental state.
+     *
+     * The type check task of the test source set, i.e. `checkTestScala`, doesn't wait for `compileScala`, but type
+     * checks the main Scala sources along with the test sources. Java sources are left to the Java compiler, so
+     * it still depends on the classes of the main Java sources, and on those of the test Java sources if there are
+     * any. Compiling those needs the main Scala classes though, so only then does it depend on `compileScala`.
+     */
+    private static void configureCompileTask(Project project, ScalaPluginExtension extension, SourceSet sourceSet,
+            SourceSet mainSourceSet, SourceDirectorySet scalaDirectorySet,
+            TaskProvider<ScalaSourceFingerprint> fingerprintTask, ScalaCompile scalaCompile, boolean typecheckOnly) {
+        boolean withMainSources =
+            SourceSet.TEST_SOURCE_SET_NAME.equals(sourceSet.getName()) && mainSourceSet != null && typecheckOnly;
+        if (withMainSources) {
+            SourceDirectorySet mainScalaDirectorySet = (SourceDirectorySet) mainSourceSet.getExtensions().getByName("scala");
+            scalaCompile.getSource().from(mainScalaDirectorySet);
+            scalaCompile.getClasspath().from(
+                project.getConfigurations().named(sourceSet.getCompileClasspathConfigurationName()),
+                mainSourceSet.getJava().getClassesDirectory(),  // classes for src/main/java
+                (Callable<Object>) () -> sourceSet.getJava().isEmpty()
+                    ? Collections.emptyList()
+                    : sourceSet.getJava().getClassesDirectory()  // classes for src/test/java
+            );
+        } else if (SourceSet.TEST_SOURCE_SET_NAME.equals(sourceSet.getName()) && mainSourceSet != null) {
+            scalaCompile.dependsOn(
+                sourceSet.getCompileJavaTaskName(),             // :compileTestJava
+                mainSourceSet.getCompileTaskName("scala")       // :compileScala
+            );
+
+            // For test compile tasks make sure that outputs from all the
+            // other relevant tasks are available during compilation.
+            scalaCompile.getClasspath().from(
+                sourceSet.getCompileClasspath(),
+                sourceSet.getJava().getClassesDirectory(),      // classes for src/test/java
+                mainSourceSet.getJava().getClassesDirectory(),  // classes for src/main/java
+                project.getTasks()                              // classes for src/main/scala
+                    .named(mainSourceSet.getCompileTaskName("scala"), ScalaCompile.class)
+                    .flatMap(ScalaCompile::getDestinationDirectory)
+            );
+        } else {
+            // By default just make it depend on the equivalent Java compile task.
+            scalaCompile.dependsOn(sourceSet.getCompileJavaTaskName());
+            scalaCompile.getClasspath().from(
+                sourceSet.getCompileClasspath(),
+                sourceSet.getJava().getClassesDirectory()
+            );
+        }
+
+        scalaCompile.setDescription(String.format("Compiles %s Scala source.", sourceSet.getName()));
+        scalaCompile.getDestinationDirectory().convention(
+            project.getLayout().getBuildDirectory().dir(String.format("classes/scala/%s", sourceSet.getName()))
+        );
+        scalaCompile.getSource().from(scalaDirectorySet);
+        // The fingerprint only covers the sources of this source set, so it can't stand in for the main sources
+        scalaCompile.getSourceFingerprint().convention(extension.getNormalizeSource().flatMap(normalize ->
+            normalize && !withMainSources
+                ? fingerprintTask.flatMap(ScalaSourceFingerprint::getFingerprintFile)
+                : project.getObjects().fileProperty()
+        ));
+        scalaCompile.getIncrementalStateDirectory().convention(
+            project.getLayout().getBuildDirectory().dir(String.format("tmp/scala/%s", scalaCompile.getName()))
+        );
+    }
+
+    /**
+     * Registers compile tasks for each of the `crossScalaVersions`, e.g. `compileScala_2.12` and
+     * `compileTestScala_2.12`. Each Scala version gets its own compiler (`scalac_2.12`), its own compile
+     * classpath (with Scala libraries like `cats-core_2.13` swapped for their `_2.12` equivalent) and its own
+     * output directory. As compilation runs in workers, the variants don't block each other.
+     */
+    private void configureCrossBuilding(final Project project) {
+        ScalaPluginExtension extension = project.getExtensions().getByType(ScalaPluginExtension.class);
+
+        // Task names depend on the list of versions, so we can't avoid looking at it after evaluation
+        project.afterEvaluate(ignored -> {
+            List<String> scalaVersions = extension.getCrossScalaVersions().get();
+            if (scalaVersions.isEmpty()) {
+                return;
+            }
+
+            TaskProvider<Task> crossCompileTask = project.getTasks().register(CROSS_COMPILE_TASK_NAME, task -> {
+                task.setGroup(LifecycleBasePlugin.BUILD_GROUP);
+                task.setDescription("Compiles all Scala source for all of " + scalaVersions + ".");
+            });
+
+            Set<String> binaryVersions = new HashSet<>();
+            for (String scalaVersion : scalaVersions) {
+                String binaryVersion = ScalaPluginExtension.getScalaBinaryVersion(scalaVersion);
+                if (!binaryVersions.add(binaryVersion)) {
+                    throw new GradleException("Cannot cross-build for " + scalaVersions + ": There is more than " +
+                        "one version for Scala " + binaryVersion + ".");
+                }
+
+                NamedDomainObjectProvider<Configuration> compilerConfiguration = registerCompilerConfiguration(
+                    project, CONFIGURATION_NAME + "_" + binaryVersion, project.provider(() -> scalaVersion));
+                getSourceSets(project).all(sourceSet -> {
+                    TaskProvider<ScalaCompile> compileTask =
+                        registerCrossCompileTask(project, sourceSet, scalaVersion, compilerConfiguration);
+                    crossCompileTask.configure(task -> task.dependsOn(compileTask));
+                });
+            }
         });
     }
 
+    private TaskProvider<ScalaCompile> registerCrossCompileTask(Project project, SourceSet sourceSet,
+            String scalaVersion, NamedDomainObjectProvider<Configuration> compilerConfiguration) {
+        String binaryVersion = ScalaPluginExtension.getScalaBinaryVersion(scalaVersion);
+        SourceSet mainSourceSet = getSourceSets(project).findByName(SourceSet.MAIN_SOURCE_SET_NAME);
+        SourceDirectorySet scalaDirectorySet = (SourceDirectorySet) sourceSet.getExtensions().getByName("scala");
+
+        // The same dependencies as the regular compile classpath, just for a different Scala version
+        NamedDomainObjectProvider<Configuration> classpathConfiguration = project.getConfigurations().register(
+            sourceSet.getCompileClasspathConfigurationName() + "_" + binaryVersion, configuration -> {
+                Configuration compileClasspath =
+                    project.getConfigurations().getByName(sourceSet.getCompileClasspathConfigurationName());
+                configuration.setVisible(false);
+                configuration.setCanBeConsumed(false);
+                configuration.setDescription(String.format("Compile classpath for %s with Scala %s.", sourceSet.getName(), scalaVersion));
+                configuration.extendsFrom(
+                    project.getConfigurations().getByName(sourceSet.getImplementationConfigurationName()),
+                    project.getConfigurations().getByName(sourceSet.getCompileOnlyConfigurationName())
+                );
+                copyAttributes(compileClasspath.getAttributes(), configuration.getAttributes());
+                configuration.getResolutionStrategy().eachDependency(details -> crossVersion(details, scalaVersion));
+            });
+
+        return project.getTasks().register(
+            sourceSet.getCompileTaskName("scala") + "_" + binaryVersion,
+            ScalaCompile.class,
+            scalaCompile -> {
+                scalaCompile.setDescription(String.format("Compiles %s Scala source for Scala %s.", sourceSet.getName(), scalaVersion));
+                scalaCompile.getScalaVersion().set(scalaVersion);
+
+                // The conventions of this plugin have already been applied to this task at this point, so
+                // this replaces the default compiler rather than adding to it.
+                scalaCompile.getScalacClasspath().setFrom(compilerConfiguration);
+
+                scalaCompile.dependsOn(sourceSet.getCompileJavaTaskName());
+                scalaCompile.getClasspath().from(
+                    classpathConfiguration,
+                    compilerConfiguration.map(configuration -> configuration.filter(file ->
+                        file.getName().startsWith("scala-library") || file.getName().startsWith("scala3-library"))),
+                    sourceSet.getJava().getClassesDirectory()
+                );
+                if (SourceSet.TEST_SOURCE_SET_NAME.equals(sourceSet.getName()) && mainSourceSet != null) {
+                    scalaCompile.getClasspath().from(
+                        mainSourceSet.getJava().getClassesDirectory(),
+                        project.getTasks()
+                            .named(mainSourceSet.getCompileTaskName("scala") + "_" + binaryVersion, ScalaCompile.class)
+                            .flatMap(ScalaCompile::getDestinationDirectory)
+                    );
+                }
+
+                scalaCompile.getDestinationDirectory().convention(project.getLayout().getBuildDirectory().dir(
+                    String.format("classes/scala_%s/%s", binaryVersion, sourceSet.getName())
+                ));
+                scalaCompile.getSource().from(scalaDirectorySet);
+                scalaCompile.getIncrementalStateDirectory().convention(
+                    project.getLayout().getBuildDirectory().dir(String.format("tmp/scala/%s", scalaCompile.getName()))
+                );
+            }
+        );
+    }
+
+    /**
+     * Adjusts a dependency for the given Scala version, i.e. the Scala library itself and any library with a
+     * Scala binary version suffix (e.g. `cats-core_2.13`) are replaced with the ones for the given version.
+     */
+    private static void crossVersion(DependencyResolveDetails details, String scalaVersion) {
+        ModuleVersionSelector requested = details.getRequested();
+        if (SCALA_GROUP.equals(requested.getGroup())) {
+            boolean scala2Module = requested.getName().equals("scala-library") || requested.getName().equals("scala-reflect");
+            if (scala2Module != ScalaPluginExtension.isScala3(scalaVersion)) {
+                details.useVersion(scalaVersion);
+            }
+            return;
+        }
+
+        Matcher matcher = BINARY_VERSION_SUFFIX.matcher(requested.getName());
+        if (matcher.matches()) {
+            String binaryVersion = ScalaPluginExtension.getScalaBinaryVersion(scalaVersion);
+            details.useTarget(requested.getGroup() + ":" + matcher.group(1) + "_" + binaryVersion + ":" + requested.getVersion());
+            details.because("Cross-building for Scala " + scalaVersion);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static void copyAttributes(AttributeContainer source, AttributeContainer target) {
+        for (Attribute<?> attribute : source.keySet()) {
+            target.attribute((Attribute) attribute, source.getAttribute(attribute));
+        }
+    }
+
+    /**
+     * Registers the build-wide service that merges the compiler traces of profiled compile tasks (e.g. with
+     * `profile = true`) into `build/reports/scala/profile` of the root project once the build has finished.
+     */
+    private void configureProfiling(final Project project) {
+        Provider<ScalaProfileService> profileService = project.getGradle().getSharedServices().registerIfAbsent(
+            ScalaProfileService.SERVICE_NAME,
+            ScalaProfileService.class,
+            spec -> spec.getParameters().getReportsDirectory().set(
+                project.getRootProject().getLayout().getBuildDirectory().dir("reports/scala/profile")
+            )
+        );
+
+        project.getTasks()
+            .withType(ScalaCompile.class)
+            .configureEach(scalaCompile -> {
+                scalaCompile.usesService(profileService);
+                scalaCompile.getProfileService().set(profileService);
+                scalaCompile.getProfileTraceFile().convention(project.getLayout().getBuildDirectory().file(
+                    String.format("reports/scala/profile/%s.trace.json", scalaCompile.getName())
+                ));
+            });
+    }
+
+    /**
+     * Registers the service that replays the problems reported by earlier compilations whenever a compile task
+     * is up-to-date or loaded from the build cache. Each compile task keeps these problems in
+     * `build/reports/scala/diagnostics/<task name>.json`, which is part of its outputs, and tells the service
+     * about that file. There's only one such service (and listener) for the whole build, no matter how many
+     * projects apply this plugin.
+     */
+    private void configureDiagnostics(final Project project) {
+        BuildServiceRegistry sharedServices = project.getGradle().getSharedServices();
+        boolean registered = sharedServices.getRegistrations().findByName(ScalaDiagnosticsService.SERVICE_NAME) != null;
+        Provider<ScalaDiagnosticsService> diagnosticsService = sharedServices.registerIfAbsent(
+            ScalaDiagnosticsService.SERVICE_NAME, ScalaDiagnosticsService.class, spec -> { });
+        if (!registered) {
+            // Only once per build, even though each project that applies this plugin gets here
+            eventsListenerRegistry.onTaskCompletion(diagnosticsService);
+        }
+
+        // The service was registered by whichever project got here first, so the others add to its parameters
+        ScalaDiagnosticsService.Parameters parameters = (ScalaDiagnosticsService.Parameters)
+            sharedServices.getRegistrations().getByName(ScalaDiagnosticsService.SERVICE_NAME).getParameters();
+        Provider<Directory> diagnosticsDirectory = project.getLayout().getBuildDirectory().dir("reports/scala/diagnostics");
+        project.getTasks()
+            .withType(ScalaCompile.class)
+            .configureEach(scalaCompile -> {
+                scalaCompile.getDiagnosticsFile().convention(
+                    diagnosticsDirectory.map(directory -> directory.file(scalaCompile.getName() + ".json")));
+                parameters.getDiagnosticsFiles().put(scalaCompile.getPath(), scalaCompile.getDiagnosticsFile());
+            });
+    }
+
+    /**
+     * Registers the task that selects the test classes affected by changes since a given revision, and makes
+     * the `test` task run only those if there is such a revision. The selection is an input of the `test` task
+     * then, so test results for one selection are never mistaken for the results of another one (or of the full
+     * test suite). Without a revision, `test` neither depends on the selection nor is affected by it.
+     */
+    private void configureTestImpact(final Project project) {
+        ScalaPluginExtension extension = project.getExtensions().getByType(ScalaPluginExtension.class);
+        extension.getTestImpactSince().convention(project.getProviders().gradleProperty(TEST_IMPACT_SINCE_PROPERTY));
+
+        SourceSetContainer sourceSets = getSourceSets(project);
+        SourceSet mainSourceSet = sourceSets.findByName(SourceSet.MAIN_SOURCE_SET_NAME);
+        SourceSet testSourceSet = sourceSets.findByName(SourceSet.TEST_SOURCE_SET_NAME);
+        if (mainSourceSet == null || testSourceSet == null) {
+            return;
+        }
+
+        TaskProvider<ScalaCompile> compileScala =
+            project.getTasks().named(mainSourceSet.getCompileTaskName("scala"), ScalaCompile.class);
+        TaskProvider<ScalaCompile> compileTestScala =
+            project.getTasks().named(testSourceSet.getCompileTaskName("scala"), ScalaCompile.class);
+        TaskProvider<ScalaTestImpact> testImpact = project.getTasks().register(
+            TEST_IMPACT_TASK_NAME, ScalaTestImpact.class, task -> {
+                task.setGroup(LifecycleBasePlugin.VERIFICATION_GROUP);
+                task.setDescription("Selects the tests affected by the changes since `scalac.testImpactSince`.");
+                task.dependsOn(compileTestScala);
+                task.getMainAnalysisFile().convention(compileScala.flatMap(scalaCompile ->
+                    scalaCompile.getIncrementalStateDirectory().file(ANALYSIS_FILE_NAME)));
+                task.getTestAnalysisFile().convention(compileTestScala.flatMap(scalaCompile ->
+                    scalaCompile.getIncrementalStateDirectory().file(ANALYSIS_FILE_NAME)));
+                task.getSourceDirectories().from(
+                    mainSourceSet.getAllSource().getSourceDirectories(),
+                    testSourceSet.getAllSource().getSourceDirectories());
+                task.getSinceRevision().convention(extension.getTestImpactSince());
+                task.getWorkingDirectory().convention(project.getRootProject().getLayout().getProjectDirectory());
+                task.getSelectionFile().convention(
+                    project.getLayout().getBuildDirectory().file("tmp/scala/testImpact/selection.txt"));
+            });
+
+        Provider<String> sinceRevision = extension.getTestImpactSince();
+        project.getTasks().named(JavaPlugin.TEST_TASK_NAME, Test.class).configure(test -> {
+            Provider<RegularFile> selectionFile = testImpact.flatMap(ScalaTestImpact::getSelectionFile);
+            test.getInputs().files((Callable<Object>) () ->
+                    sinceRevision.isPresent() ? selectionFile : Collections.emptyList())
+                .withPropertyName("scalaTestSelection")
+                .withPathSensitivity(PathSensitivity.NONE);
+            test.onlyIf(new HasSelectedTests(sinceRevision, selectionFile));
+            test.doFirst(new FilterSelectedTests(sinceRevision, selectionFile));
+        });
+    }
+
+    /**
+     * Skips the `test` task if none of the test classes are affected by a change.
+     */
+    private static final class HasSelectedTests implements Spec<Task> {
+
+        private final Provider<String> sinceRevision;
+
+        private final Provider<RegularFile> selectionFile;
+
+        private HasSelectedTests(Provider<String> sinceRevision, Provider<RegularFile> selectionFile) {
+            this.sinceRevision = sinceRevision;
+            this.selectionFile = selectionFile;
+        }
+
+        @Override
+        public boolean isSatisfiedBy(Task task) {
+            if (!sinceRevision.isPresent()) {
+                return true;
+            }
+
+            TestSelection selection = readSelection(selectionFile);
+            return selection.isAll() || !selection.getTestClasses().isEmpty();
+        }
+
+    }
+
+    /**
+     * Restricts the `test` task to the selected test classes, unless the build script picks the tests to run
+     * itself. Tests picked with `--tests` are run only if they are selected as well.
+     */
+    private static final class FilterSelectedTests implements Action<Task> {
+
+        private final Provider<String> sinceRevision;
+
+        private final Provider<RegularFile> selectionFile;
+
+        private FilterSelectedTests(Provider<String> sinceRevision, Provider<RegularFile> selectionFile) {
+            this.sinceRevision = sinceRevision;
+            this.selectionFile = selectionFile;
+        }
+
+        @Override
+        public void execute(Task task) {
+            if (!sinceRevision.isPresent()) {
+                return;
+            }
+
+            TestFilter filter = ((Test) task).getFilter();
+            TestSelection selection = readSelection(selectionFile);
+            if (selection.isAll() || !filter.getIncludePatterns().isEmpty()) {
+                return;
+            }
+
+            filter.setFailOnNoMatchingTests(false);
+            selection.getTestClasses().forEach(filter::includeTestsMatching);
+        }
+
+    }
+
+    private static TestSelection readSelection(Provider<RegularFile> selectionFile) {
+        try {
+            return TestSelection.read(selectionFile.get().getAsFile());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
     /**
      * Makes sure that if an IDE plugin is available in this project, it will be configured correctly.
      *
@@ -201,9 +896,12 @@ public class ScalaPlugin implements Plugin<Project> {
      *  1) Makes sure that the source folders are added to the modules correctly.
      *  2) Makes sure that a Scala SDK is declared. Ideally we'd also define what the Scala SDK is, but
      *     we'll leave that for later.
+     *
+     * This configures the IDEA model rather than the `ideaModule` task, which IntelliJ IDEA never configures when
+     * it imports the project. The Scala version is only queried once the .iml file is generated.
      */
     private void configureIdeModules(final Project project) {
-        project.afterEvaluate(ignored -> {
+        project.getPluginManager().withPlugin("idea", ignored -> {
             getSourceSets(project).all(sourceSet -> {
                 // If somebody adds custom source sets for integration tests, etc. we cannot automatically
                 // figure out whether we should add those scala sources as `srcDir` or `testSrcDir`, so we
@@ -224,34 +922,15 @@ public class ScalaPlugin implements Plugin<Project> {
                     return;
                 }
 
-                IdeaConfigurer.includeSourceDirs(project, sds.getSrcDirs(), isTest);
+                IdeaConfigurer.includeSourceDirs(project, sds, isTest);
             });
 
             ScalaPluginExtension extension = project.getExtensions().getByType(ScalaPluginExtension.class);
-            String scalaSdkName = extension.getScalaSdkName();
-            if (scalaSdkName == null || scalaSdkName.isEmpty()) {
-                scalaSdkName = String.format("scala-sdk-%s", extension.getScalaVersion());
-            }
-
-            IdeaConfigurer.includeScalaSdkDependency(project, scalaSdkName);
+            IdeaConfigurer.includeScalaSdkDependency(project, extension.getScalaSdkName()
+                .orElse(extension.getScalaVersion().map(scalaVersion -> String.format("scala-sdk-%s", scalaVersion))));
         });
     }
 
-    /**
-     * Determines the output directory for the Scala compile task that handles the given source set,
-     * e.g. `build/classes/scala/main` for the main source set, etc.
-     *
-     * @param project The project for which we are configuring the Scala plugin
-     * @param sourceSet The source set for which we want to determine the output directory
-     */
-    private static File determineOutputDirFor(Project project, SourceSet sourceSet) {
-        return project.getBuildDir().toPath()
-            .resolve("classes")
-            .resolve("scala")
-            .resolve(sourceSet.getName())
-            .toFile();
-    }
-
     private static SourceSetContainer getSourceSets(Project project) {
         return project.getExtensions().getByType(JavaPluginExtension.class).getSourceSets();
     }
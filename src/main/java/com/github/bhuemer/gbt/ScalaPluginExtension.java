@@ -21,11 +21,15 @@
  */
 package com.github.bhuemer.gbt;
 
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+
 /**
- *
+ * The `scalac { .. }` DSL block that allows you to configure the Scala plugin for a project. All the
+ * properties are lazy, i.e. they are only queried once tasks or configurations actually need them.
  */
 @SuppressWarnings("WeakerAccess")
-public class ScalaPluginExtension {
+public abstract class ScalaPluginExtension {
 
     /** The name of the DSL block to use to configure the Scala plugin. */
     public static final String EXTENSION_NAME = "scalac";
@@ -33,57 +37,171 @@ public class ScalaPluginExtension {
     /** By default, we'll assume Scala 2.13 is used for Scala projects. */
     private static final String DEFAULT_VERSION_SCALA = "2.13.8";
 
-    private String scalaVersion;
+    /** The version of scalafmt to format sources with, unless its dependencies are declared explicitly. */
+    private static final String DEFAULT_VERSION_SCALAFMT = "3.5.9";
 
-    private String scalaSdkName;
+    public ScalaPluginExtension() {
+        getScalaVersion().convention(DEFAULT_VERSION_SCALA);
+        getFork().convention(false);
+        getPruneClasspath().convention(false);
+        getSeedStore().convention(false);
+        getClassDataSharing().convention(true);
+        getNormalizeSource().convention(false);
+        getAutoTuneInvalidation().convention(false);
+        getAggregate().convention(false);
+        getCriticalPathOrdering().convention(true);
+        getWarmUp().convention(false);
+        getScalafmtVersion().convention(DEFAULT_VERSION_SCALAFMT);
+    }
 
     /**
      * Returns the Scala version that is configured for this project, or a default Scala version.
      */
-    public String getScalaVersion() {
-        return scalaVersion != null ? scalaVersion : DEFAULT_VERSION_SCALA;
-    }
+    public abstract Property<String> getScalaVersion();
 
     /**
-     * Allows you to configure the Scala version that you want to use.
+     * Returns the additional options to pass on to the compiler by default, e.g. `-deprecation`.
      */
-    @SuppressWarnings("unused")
-    public void setScalaVersion(String scalaVersion) {
-        this.scalaVersion = scalaVersion;
-    }
+    public abstract ListProperty<String> getScalacOptions();
+
+    /**
+     * Returns the additional Scala versions to compile each source set against, e.g. `['2.12.15', '3.1.2']`.
+     * Each of them gets its own compile tasks, e.g. `compileScala_2.12`, and `crossCompileScala` runs them all.
+     */
+    public abstract ListProperty<String> getCrossScalaVersions();
+
+    /**
+     * Returns whether to run the compiler in separate worker processes rather than in the Gradle daemon, which is
+     * the default. Forked compilers get a heap that's sized automatically for each compile task, unless
+     * `maxHeapSize` is set on the task.
+     */
+    public abstract Property<Boolean> getFork();
+
+    /**
+     * Returns whether forked compilers should load the compiler classes from a Class Data Sharing archive that's
+     * created on first use, which makes every new worker process start faster. It needs Java 13 or later.
+     */
+    public abstract Property<Boolean> getClassDataSharing();
+
+    /**
+     * Returns whether to warm up the compiler in the background while the tasks that compile tasks depend on are
+     * still running, so that the first compile task doesn't have to wait for it. This only applies to compilers
+     * that aren't forked.
+     */
+    public abstract Property<Boolean> getWarmUp();
+
+    /**
+     * Returns whether compile tasks should leave out classpath entries that their sources didn't use last time.
+     */
+    public abstract Property<Boolean> getPruneClasspath();
+
+    /**
+     * Returns whether compile tasks without any state of their own (e.g. in a fresh checkout or a new worktree)
+     * should start from the closest earlier compilation on this machine, rather than compile from scratch.
+     */
+    public abstract Property<Boolean> getSeedStore();
+
+    /**
+     * Returns how many steps compile tasks invalidate dependent sources transitively by name hashes, before they
+     * invalidate all transitive dependents at once. Zinc's default (3) applies if it's not set.
+     */
+    public abstract Property<Integer> getTransitiveStep();
+
+    /**
+     * Returns the fraction of invalidated sources (between 0 and 1) beyond which compile tasks recompile all their
+     * sources instead. Zinc's default (0.5) applies if it's not set.
+     */
+    public abstract Property<Double> getRecompileAllFraction();
+
+    /**
+     * Returns whether compile tasks should predict their recompile-all fraction from how long their earlier
+     * incremental and full compilations took, rather than use the same fixed fraction for tasks of any size.
+     */
+    public abstract Property<Boolean> getAutoTuneInvalidation();
+
+    /**
+     * Returns whether compile tasks should share compilers (and forked worker processes) with all the other compile
+     * tasks in the build that use the same Scala version, rather than each set up their own. This is meant for builds
+     * with lots of small projects, for which setting up the compiler takes longer than compiling.
+     */
+    public abstract Property<Boolean> getAggregate();
 
     /**
+     * Returns whether compile tasks should start in the order of the critical path of the build, i.e. the longest
+     * chain of dependent compile tasks (based on how long they took in earlier builds) goes first.
+     */
+    public abstract Property<Boolean> getCriticalPathOrdering();
+
+    /**
+     * Returns whether compile tasks should explain what each compilation invalidated and why, in a report in
+     * `build/reports/scala/invalidation`. Can also be enabled with `-PexplainInvalidation` for a single build.
+     */
+    public abstract Property<Boolean> getExplainInvalidation();
+
+    /**
+     * Returns whether compile tasks should ignore changes to comments and whitespace in Scala sources, so that they
+     * stay up-to-date (or come from the build cache) after such changes. This only takes effect for Scala 2 compile
+     * tasks that don't emit line numbers, i.e. with `-g:none` or `-g:source` in their compiler options.
+     */
+    public abstract Property<Boolean> getNormalizeSource();
+
+    /**
+     * Returns the revision (e.g. `origin/main`) to compare with to select the tests that `test` runs. Only the
+     * test classes that depend on Scala sources changed since then will run. If it's not set, all of them run.
+     */
+    public abstract Property<String> getTestImpactSince();
+
+    /**
+     * Returns the version of scalafmt that the `scalafmt` and `scalafmtCheck` tasks use, unless the `scalafmt`
+     * dependencies are declared explicitly.
+     */
+    public abstract Property<String> getScalafmtVersion();
+
+    /**
+     * Returns the name of the Scala SDK to use when generating IDEA modules, if available.
+     */
+    public abstract Property<String> getScalaSdkName();
+
+    /**
+     * Determines whether the Scala version configured for this project is a Scala 3 version.
      */
     public boolean isScala3() {
-        return getScalaVersion().startsWith("3");
+        return isScala3(getScalaVersion().get());
     }
 
     /**
      * Determines the major Scala version for whatever is configured for this Scala project.
      */
     public String getScalaMajorVersion() {
-        String[] parts = getScalaVersion().split("\\.");
-        if (parts.length == 2 || parts.length == 3) {
-            return parts[0] + "." + parts[1];
-        } else {
-            throw new IllegalStateException(
-                "Scala version '" + getScalaVersion() + "' is not supported. Cannot determine the major version.");
-        }
+        return getScalaMajorVersion(getScalaVersion().get());
     }
 
     /**
-     * Returns the name of the Scala SDK to use when generating IDEA modules, if available.
+     * Determines whether the given Scala version is a Scala 3 version.
      */
-    public String getScalaSdkName() {
-        return scalaSdkName;
+    public static boolean isScala3(String scalaVersion) {
+        return scalaVersion.startsWith("3");
     }
 
     /**
-     * Allows you to configure the name of the Scala SDK to use when generating IDEA modules.
+     * Determines the binary Scala version for the given full Scala version, i.e. the suffix that libraries are
+     * published with: `2.13` for `2.13.8`, but just `3` for any Scala 3 version.
      */
-    @SuppressWarnings("unused")
-    public void setScalaSdkName(String scalaSdkName) {
-        this.scalaSdkName = scalaSdkName;
+    public static String getScalaBinaryVersion(String scalaVersion) {
+        return isScala3(scalaVersion) ? "3" : getScalaMajorVersion(scalaVersion);
+    }
+
+    /**
+     * Determines the major Scala version for the given full Scala version, e.g. `2.13` for `2.13.8`.
+     */
+    public static String getScalaMajorVersion(String scalaVersion) {
+        String[] parts = scalaVersion.split("\\.");
+        if (parts.length == 2 || parts.length == 3) {
+            return parts[0] + "." + parts[1];
+        } else {
+            throw new IllegalStateException(
+                "Scala version '" + scalaVersion + "' is not supported. Cannot determine the major version.");
+        }
     }
 
 }
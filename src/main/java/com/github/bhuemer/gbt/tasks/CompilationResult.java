@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks;
+
+import com.github.bhuemer.gbt.tasks.support.Diagnostics;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * What we know about a compilation once it has finished, based on the analysis of the incremental compiler.
+ */
+public final class CompilationResult {
+
+    /** The library files (JAR files or class files in directories) that any of the sources depend on */
+    private final Set<Path> libraryDependencies;
+
+    /** The problems that the compiler reported for each source, including those of earlier compilations */
+    private final Diagnostics diagnostics;
+
+    /** The number of sources that this compilation recompiled, across all of its invalidation cycles */
+    private final int recompiledSourceCount;
+
+    public CompilationResult(Set<Path> libraryDependencies, Diagnostics diagnostics, int recompiledSourceCount) {
+        this.libraryDependencies = Collections.unmodifiableSet(
+            Objects.requireNonNull(libraryDependencies, "The given library dependencies must not be null."));
+        this.diagnostics = Objects.requireNonNull(diagnostics, "The given diagnostics must not be null.");
+        this.recompiledSourceCount = recompiledSourceCount;
+    }
+
+    /**
+     * Returns the library files that the compiled sources depend on, i.e. JAR files or class files in directories
+     * on the classpath. This covers all sources, not just the ones that were recompiled this time.
+     */
+    public Set<Path> getLibraryDependencies() {
+        return libraryDependencies;
+    }
+
+    /**
+     * Returns the problems (errors, warnings, etc.) that are currently reported for the sources, i.e. from this
+     * compilation for the sources that were recompiled, and from earlier compilations for all other sources.
+     */
+    public Diagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * Returns the number of sources that were recompiled, i.e. the size of the compilation. This is 0 if nothing
+     * needed to be recompiled, and the number of all sources for a full compilation.
+     */
+    public int getRecompiledSourceCount() {
+        return recompiledSourceCount;
+    }
+
+}
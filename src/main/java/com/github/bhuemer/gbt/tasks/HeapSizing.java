@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+/**
+ * Works out how much heap a forked Scala compiler needs. Before the first compilation of a task we can only
+ * guess based on the number of sources and the size of the classpath, afterwards we also go by the peak heap usage
+ * that the compiler actually recorded (see {@link #record(File, Peak, long, double)}). Peaks of small incremental
+ * compilations say little about the next full compilation, so we never go below the guess, and we keep the peak
+ * of the largest compilation even once it's no longer among the recent ones.
+ *
+ * Heap sizes are rounded up to whole buckets, so that tasks of similar size end up with the same settings and
+ * can share worker processes, and so that small fluctuations don't spawn new ones.
+ */
+final class HeapSizing {
+
+    private static final long MB = 1024 * 1024;
+
+    /** The smallest heap we'll ever start the compiler with */
+    private static final long MIN_HEAP = 256 * MB;
+
+    /** The largest heap we'll start the compiler with if we can't tell how much memory the machine has */
+    private static final long DEFAULT_LIMIT = 4096 * MB;
+
+    /** The granularity of heap sizes */
+    private static final long BUCKET = 256 * MB;
+
+    /** The heap that the compiler needs regardless of what it compiles */
+    private static final long BASE_HEAP = 256 * MB;
+
+    /** The additional heap per source file, a generous estimate for trees, symbols and types of a typical file */
+    private static final long HEAP_PER_SOURCE = 512 * 1024;
+
+    /** The heap of forked compilers shared by aggregate compile tasks, plenty for lots of small projects */
+    private static final long SHARED_HEAP = 1024 * MB;
+
+    /** The number of recent peaks that we keep, in addition to the peak of the largest compilation */
+    private static final int RECENT_PEAKS = 10;
+
+    /** The name of the file in the incremental state directory that keeps the heap statistics of recent runs */
+    private static final String HISTORY_FILE = "heap.properties";
+
+    private static final Logger logger = Logging.getLogger(HeapSizing.class);
+
+    // do not instantiate this class
+    private HeapSizing() { }
+
+    /**
+     * Estimates the maximum heap size (in bytes) for a compilation.
+     *
+     * @param sourceCount The number of source files of the task
+     * @param classpathBytes The total size of all the files on the classpath
+     * @param recordedPeaks The peak heap usage of recent compilations of the task, if any
+     * @param limit The maximum heap size we're willing to use at all
+     */
+    static long estimate(int sourceCount, long classpathBytes, List<Peak> recordedPeaks, long limit) {
+        // Symbol tables for the classpath need about half as much memory as the (compressed) JAR files
+        long estimate = BASE_HEAP + sourceCount * HEAP_PER_SOURCE + classpathBytes / 2;
+
+        // Leave some headroom, otherwise the compiler would spend most of its time collecting garbage
+        long maxPeak = recordedPeaks.stream().mapToLong(Peak::getHeap).max().orElse(0);
+        return clamp(Math.max(estimate, maxPeak + maxPeak / 2), limit);
+    }
+
+    /**
+     * Returns the maximum heap size (in bytes) for compilers that are shared between tasks. It doesn't depend on
+     * any one task, so that all of them end up in the same worker processes.
+     */
+    static long shared(long limit) {
+        return clamp(SHARED_HEAP, limit);
+    }
+
+    /**
+     * Returns the heap size to retry with after the compiler ran out of memory with the given heap size. If
+     * this is not any larger than the given heap size, we've already reached the limit and retrying is pointless.
+     */
+    static long retry(long heap, long limit) {
+        return clamp(heap * 2, limit);
+    }
+
+    private static long clamp(long heap, long limit) {
+        long rounded = (heap + BUCKET - 1) / BUCKET * BUCKET;
+        return Math.max(MIN_HEAP, Math.min(rounded, Math.max(MIN_HEAP, limit)));
+    }
+
+    /**
+     * Returns the maximum heap size we're willing to give the compiler, i.e. half of the physical memory.
+     */
+    static long limit() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            long physicalMemory = ((com.sun.management.OperatingSystemMXBean) os).getTotalPhysicalMemorySize();
+            if (physicalMemory > 0) {
+                return physicalMemory / 2 / BUCKET * BUCKET;
+            }
+        }
+        return DEFAULT_LIMIT;
+    }
+
+    /**
+     * Returns the total size of the given files, directories count as empty.
+     */
+    static long sizeOf(Collection<File> files) {
+        return files.stream().filter(File::isFile).mapToLong(File::length).sum();
+    }
+
+    /**
+     * Formats the given heap size as expected by `-Xmx`, e.g. `1536m`.
+     */
+    static String toJvmOption(long heap) {
+        return (heap / MB) + "m";
+    }
+
+    /**
+     * Returns the peak heap usage of the recent compilations that used the given state directory.
+     */
+    static List<Peak> readPeaks(File stateDirectory) {
+        File historyFile = new File(stateDirectory, HISTORY_FILE);
+        if (!historyFile.isFile()) {
+            return Collections.emptyList();
+        }
+
+        Properties history = new Properties();
+        try (InputStream in = Files.newInputStream(historyFile.toPath())) {
+            history.load(in);
+            List<Peak> result = new ArrayList<>();
+            for (String peak : history.getProperty("peaks", "").split(",")) {
+                if (!peak.isEmpty()) {
+                    String[] fields = peak.split(":");
+                    result.add(new Peak(Long.parseLong(fields[0]), Integer.parseInt(fields[1])));
+                }
+            }
+            return result;
+        } catch (IOException | RuntimeException ex) {
+            logger.debug("Ignoring unreadable heap statistics '" + historyFile + "'.", ex);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Records the heap statistics of a compilation, so that later compilations can be sized accordingly.
+     */
+    static void record(File stateDirectory, Peak peak, long maxHeap, double gcOverhead) {
+        List<Peak> peaks = new ArrayList<>(readPeaks(stateDirectory));
+        peaks.add(peak);
+
+        // Keep the recent peaks, and the one of the largest compilation (usually the last full compilation)
+        Peak largest = Collections.max(peaks, Comparator.comparingInt(Peak::getSourceCount));
+        List<Peak> kept = new ArrayList<>(peaks.subList(Math.max(0, peaks.size() - RECENT_PEAKS), peaks.size()));
+        if (!kept.contains(largest)) {
+            kept.add(0, largest);
+        }
+
+        File historyFile = new File(stateDirectory, HISTORY_FILE);
+        Properties history = new Properties();
+        history.setProperty("peaks", kept.stream().map(Peak::toString).collect(Collectors.joining(",")));
+        history.setProperty("maxHeap", Long.toString(maxHeap));
+        history.setProperty("gcOverhead", String.format(Locale.ROOT, "%.2f", gcOverhead));
+
+        try {
+            Files.createDirectories(stateDirectory.toPath());
+            File tempFile = new File(stateDirectory, HISTORY_FILE + ".tmp");
+            try (OutputStream out = Files.newOutputStream(tempFile.toPath())) {
+                history.store(out, "Heap statistics of recent compilations");
+            }
+            Files.move(tempFile.toPath(), historyFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            logger.warn("Cannot write heap statistics '" + historyFile + "': " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Determines whether the given failure was caused by the compiler running out of memory. Failures from
+     * worker processes are not always deserialized into their original types, so we go by their names.
+     */
+    static boolean isMemoryFailure(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            String description = cause.toString();
+            if (cause instanceof OutOfMemoryError
+                    || cause instanceof ScalaCompileAction.MemoryPressureException
+                    || description.contains(OutOfMemoryError.class.getName())
+                    || description.contains(ScalaCompileAction.MemoryPressureException.class.getSimpleName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The peak heap usage of a compilation, together with the number of sources that it compiled.
+     */
+    static final class Peak {
+
+        private final long heap;
+
+        private final int sourceCount;
+
+        Peak(long heap, int sourceCount) {
+            this.heap = heap;
+            this.sourceCount = sourceCount;
+        }
+
+        long getHeap() {
+            return heap;
+        }
+
+        int getSourceCount() {
+            return sourceCount;
+        }
+
+        @Override
+        public String toString() {
+            return heap + ":" + sourceCount;
+        }
+
+    }
+
+}
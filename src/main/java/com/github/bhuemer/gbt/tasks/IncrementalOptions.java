@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks;
+
+import com.github.bhuemer.gbt.tasks.support.SourceStamper;
+
+import xsbti.compile.CompileProgress;
+
+import java.io.File;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Settings that control how the incremental compiler keeps track of its state between compilations of a task.
+ */
+final class IncrementalOptions {
+
+    /** The name of the file that requests cancellation of a running compilation, see {@link #getCancellationFile()} */
+    static final String CANCELLATION_FILE_NAME = "cancelled";
+
+    /** The directory where all the state of the incremental compiler for a single task is kept */
+    private final File stateDirectory;
+
+    private final SourceStamper.Strategy stamping;
+
+    /** Receives progress updates from the compiler and decides whether it should carry on, might be `null` */
+    private CompileProgress progress;
+
+    /** The path of the task that compiles, only used to label diagnostics such as JFR events */
+    private String taskPath = "";
+
+    /** Whether a failed compilation will be retried anyway, in which case its problems are not worth reporting */
+    private boolean speculative;
+
+    /** Where to explain what the compilation invalidated and why, might be `null` */
+    private File invalidationReportFile;
+
+    /** How many steps to invalidate transitively before recompiling everything, might be `null` (Zinc's default) */
+    private Integer transitiveStep;
+
+    /** The fraction of invalidated sources beyond which everything is recompiled, might be `null` (Zinc's default) */
+    private Double recompileAllFraction;
+
+    /** Whether to predict the fraction from the durations of earlier compilations */
+    private boolean autoTuneInvalidation;
+
+    /** Whether to share the compiler with other compilations that use the same one, see {@link ScalaCompile#getAggregate()} */
+    private boolean aggregate;
+
+    /** Whether the compiler stops after type checking, in which case there's nothing to compile incrementally with */
+    private boolean typecheckOnly;
+
+    IncrementalOptions(File stateDirectory, SourceStamper.Strategy stamping) {
+        this.stateDirectory = Objects.requireNonNull(stateDirectory, "The given state directory must not be null.");
+        this.stamping = Objects.requireNonNull(stamping, "The given stamping strategy must not be null.");
+    }
+
+    SourceStamper.Strategy getStamping() {
+        return stamping;
+    }
+
+    Optional<CompileProgress> getProgress() {
+        return Optional.ofNullable(progress);
+    }
+
+    void setProgress(CompileProgress progress) {
+        this.progress = progress;
+    }
+
+    String getTaskPath() {
+        return taskPath;
+    }
+
+    void setTaskPath(String taskPath) {
+        this.taskPath = Objects.requireNonNull(taskPath, "The given task path must not be null.");
+    }
+
+    boolean isSpeculative() {
+        return speculative;
+    }
+
+    void setSpeculative(boolean speculative) {
+        this.speculative = speculative;
+    }
+
+    Optional<File> getInvalidationReportFile() {
+        return Optional.ofNullable(invalidationReportFile);
+    }
+
+    void setInvalidationReportFile(File invalidationReportFile) {
+        this.invalidationReportFile = invalidationReportFile;
+    }
+
+    Optional<Integer> getTransitiveStep() {
+        return Optional.ofNullable(transitiveStep);
+    }
+
+    void setTransitiveStep(Integer transitiveStep) {
+        this.transitiveStep = transitiveStep;
+    }
+
+    Optional<Double> getRecompileAllFraction() {
+        return Optional.ofNullable(recompileAllFraction);
+    }
+
+    void setRecompileAllFraction(Double recompileAllFraction) {
+        this.recompileAllFraction = recompileAllFraction;
+    }
+
+    boolean isAutoTuneInvalidation() {
+        return autoTuneInvalidation;
+    }
+
+    void setAutoTuneInvalidation(boolean autoTuneInvalidation) {
+        this.autoTuneInvalidation = autoTuneInvalidation;
+    }
+
+    boolean isAggregate() {
+        return aggregate;
+    }
+
+    void setAggregate(boolean aggregate) {
+        this.aggregate = aggregate;
+    }
+
+    boolean isTypecheckOnly() {
+        return typecheckOnly;
+    }
+
+    void setTypecheckOnly(boolean typecheckOnly) {
+        this.typecheckOnly = typecheckOnly;
+    }
+
+
+    /** The file that stores the analysis of the previous compilation */
+    File getAnalysisFile() {
+        return new File(stateDirectory, "analysis.bin");
+    }
+
+    /** The file that stores content hashes of sources, products and libraries between builds */
+    File getStampCacheFile() {
+        return new File(stateDirectory, "stamps.bin");
+    }
+
+    /** The file that stores content hashes for the seed store, kept apart from the stamps of the compiler */
+    File getSeedStampCacheFile() {
+        return new File(stateDirectory, "seed-stamps.bin");
+    }
+
+    /** The file that records the key of the seed store that the last compilation was recorded under */
+    File getSeedKeyFile() {
+        return new File(stateDirectory, "seed-key.txt");
+    }
+
+    /** The file that requests the running compilation to stop, created when the build is cancelled */
+    File getCancellationFile() {
+        return new File(stateDirectory, CANCELLATION_FILE_NAME);
+    }
+
+    /** The file that exists while compiling, so that compilations which never finished can be detected */
+    File getInProgressFile() {
+        return new File(stateDirectory, "compiling");
+    }
+
+    /** The file that records how long recent compilations took for how many sources */
+    File getCompileHistoryFile() {
+        return new File(stateDirectory, "compile-history.txt");
+    }
+
+    /** The file that records which classpath entries were used by the last compilation */
+    File getClasspathUsageFile() {
+        return new File(stateDirectory, "classpath-usage.txt");
+    }
+
+    /** The directory that original class files are kept in while compiling, to detect unchanged ones */
+    File getOriginalsDirectory() {
+        return new File(stateDirectory, "originals");
+    }
+
+    /** The directory that class files are backed up to while compiling, so that they can be restored on failure */
+    File getBackupDirectory() {
+        return new File(stateDirectory, "backup");
+    }
+
+}
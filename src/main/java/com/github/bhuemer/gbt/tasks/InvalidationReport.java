@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks;
+
+import com.github.bhuemer.gbt.tasks.support.Json;
+import sbt.internal.inc.Analysis;
+import scala.collection.JavaConverters;
+import xsbti.FileConverter;
+import xsbti.VirtualFileRef;
+import xsbti.api.AnalyzedClass;
+import xsbti.api.NameHash;
+import xsbti.compile.CompileAnalysis;
+import xsbti.compile.MiniSetup;
+import xsbti.compile.PreviousResult;
+import xsbti.compile.analysis.Compilation;
+import xsbti.compile.analysis.ReadStamps;
+import xsbti.compile.analysis.Stamp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Explains why an incremental compilation recompiled what it did: which sources and classpath entries changed
+ * initially, which APIs (and which names in them) changed as a result, which sources each invalidation cycle
+ * added and why everything was recompiled, if it was.
+ *
+ * All of this is derived from the analysis before and after the compilation. Each invalidation cycle of the
+ * incremental compiler is a compilation of its own in the analysis, so the classes recompiled in each cycle can
+ * be told apart by their compilation timestamps.
+ */
+final class InvalidationReport {
+
+    /** The maximum number of entries to list per section in the summary, the JSON report lists all of them */
+    private static final int SUMMARY_LIMIT = 20;
+
+    private final String taskPath;
+
+    private final FileConverter converter;
+
+    /** The analysis before this compilation, might be `null` */
+    private final Analysis previousAnalysis;
+
+    /** The number of sources that this compilation had to deal with */
+    private final int sourceCount;
+
+    private final Set<String> addedSources = new TreeSet<>();
+
+    private final Set<String> removedSources = new TreeSet<>();
+
+    private final Set<String> modifiedSources = new TreeSet<>();
+
+    private final Set<String> changedClasspathEntries = new TreeSet<>();
+
+    /** Why all the sources had to be recompiled, if they had to */
+    private String fullCompileReason;
+
+    /** The sources that each invalidation cycle added, in the order of the cycles */
+    private final List<Set<String>> cycles = new ArrayList<>();
+
+    /** The classes whose API changed, with the names whose hashes changed in them (if any) */
+    private final Map<String, Set<String>> modifiedApis = new TreeMap<>();
+
+    private final Set<String> addedClasses = new TreeSet<>();
+
+    private final Set<String> removedClasses = new TreeSet<>();
+
+    private InvalidationReport(String taskPath, FileConverter converter, Analysis previousAnalysis, int sourceCount) {
+        this.taskPath = taskPath;
+        this.converter = converter;
+        this.previousAnalysis = previousAnalysis;
+        this.sourceCount = sourceCount;
+    }
+
+    /**
+     * Records the changes that the upcoming compilation will start from, i.e. compared to the previous result.
+     */
+    static InvalidationReport before(
+            String taskPath, PreviousResult previousResult, Set<File> sources, List<String> scalacOptions,
+            String scalaVersion, ReadStamps stamper, FileConverter converter) {
+        Analysis previousAnalysis = (Analysis) previousResult.analysis().orElse(null);
+        InvalidationReport report = new InvalidationReport(taskPath, converter, previousAnalysis, sources.size());
+        if (previousAnalysis == null) {
+            report.fullCompileReason = "There is no previous compilation (e.g. in a clean build or after its state was lost).";
+            return report;
+        }
+
+        Map<String, Stamp> previousSources = new HashMap<>();
+        previousAnalysis.readStamps().getAllSourceStamps().forEach((source, stamp) -> previousSources.put(report.pathOf(source), stamp));
+        for (File source : sources) {
+            String path = source.getAbsolutePath();
+            Stamp previousStamp = previousSources.remove(path);
+            if (previousStamp == null) {
+                report.addedSources.add(path);
+            } else if (!sameStamp(previousStamp, stamper.source(converter.toVirtualFile(source.toPath())))) {
+                report.modifiedSources.add(path);
+            }
+        }
+        report.removedSources.addAll(previousSources.keySet());
+
+        previousAnalysis.readStamps().getAllLibraryStamps().forEach((library, stamp) -> {
+            if (!sameStamp(stamp, stamper.library(library))) {
+                report.changedClasspathEntries.add(report.pathOf(library));
+            }
+        });
+
+        MiniSetup previousSetup = previousResult.setup().orElse(null);
+        if (previousSetup != null && !Objects.equals(previousSetup.compilerVersion(), scalaVersion)) {
+            report.fullCompileReason = "The compiler version changed from " + previousSetup.compilerVersion() + " to " + scalaVersion + ".";
+        } else if (previousSetup != null && !Arrays.asList(previousSetup.options().scalacOptions()).equals(scalacOptions)) {
+            report.fullCompileReason = "The compiler options changed from " + Arrays.toString(previousSetup.options().scalacOptions())
+                + " to " + scalacOptions + ".";
+        }
+        return report;
+    }
+
+    /**
+     * Records what the compilation did, based on the analysis that it resulted in.
+     */
+    void after(CompileAnalysis compileAnalysis) {
+        Analysis analysis = (Analysis) compileAnalysis;
+        long previousStartTime = previousAnalysis == null ? Long.MIN_VALUE : latestStartTime(previousAnalysis);
+        Map<String, AnalyzedClass> previousApis = previousAnalysis == null
+            ? Collections.emptyMap()
+            : JavaConverters.mapAsJavaMap(previousAnalysis.apis().internal());
+        Map<String, AnalyzedClass> apis = JavaConverters.mapAsJavaMap(analysis.apis().internal());
+
+        // Each invalidation cycle is a compilation of its own, all classes compiled in it share its start time
+        Map<Long, Set<String>> sourcesByCycle = new TreeMap<>();
+        for (Map.Entry<String, AnalyzedClass> api : apis.entrySet()) {
+            AnalyzedClass analyzedClass = api.getValue();
+            if (analyzedClass.compilationTimestamp() <= previousStartTime) {
+                continue;
+            }
+
+            Set<String> cycleSources = sourcesByCycle.computeIfAbsent(analyzedClass.compilationTimestamp(), ignored -> new TreeSet<>());
+            for (VirtualFileRef source : JavaConverters.setAsJavaSet(analysis.relations().definesClass(api.getKey()))) {
+                cycleSources.add(pathOf(source));
+            }
+
+            AnalyzedClass previousClass = previousApis.get(api.getKey());
+            if (previousClass == null) {
+                addedClasses.add(api.getKey());
+            } else if (previousClass.apiHash() != analyzedClass.apiHash()) {
+                modifiedApis.put(api.getKey(), changedNames(previousClass.nameHashes(), analyzedClass.nameHashes()));
+            }
+        }
+        for (String previousClass : previousApis.keySet()) {
+            if (!apis.containsKey(previousClass)) {
+                removedClasses.add(previousClass);
+            }
+        }
+
+        Set<String> recompiled = new LinkedHashSet<>();
+        for (Set<String> cycleSources : sourcesByCycle.values()) {
+            Set<String> added = new TreeSet<>(cycleSources);
+            added.removeAll(recompiled);
+            recompiled.addAll(added);
+            cycles.add(added);
+        }
+
+        int initiallyChanged = addedSources.size() + modifiedSources.size();
+        if (fullCompileReason == null && !cycles.isEmpty()
+                && cycles.get(0).size() == sourceCount && sourceCount > initiallyChanged) {
+            fullCompileReason = "The first cycle invalidated " + sourceCount + " sources for " + initiallyChanged
+                + " changed ones, which exceeds the fraction of all sources beyond which everything is recompiled.";
+        }
+    }
+
+    /**
+     * Returns the number of sources that the compilation from the given previous to the given current analysis
+     * recompiled, in all of its invalidation cycles.
+     */
+    static int recompiledSourceCount(CompileAnalysis previousAnalysis, CompileAnalysis currentAnalysis) {
+        long previousStartTime = previousAnalysis == null ? Long.MIN_VALUE : latestStartTime((Analysis) previousAnalysis);
+        Analysis analysis = (Analysis) currentAnalysis;
+        Set<VirtualFileRef> recompiled = new HashSet<>();
+        JavaConverters.mapAsJavaMap(analysis.apis().internal()).forEach((className, analyzedClass) -> {
+            if (analyzedClass.compilationTimestamp() > previousStartTime) {
+                recompiled.addAll(JavaConverters.setAsJavaSet(analysis.relations().definesClass(className)));
+            }
+        });
+        return recompiled.size();
+    }
+
+    private static long latestStartTime(Analysis analysis) {
+        long result = Long.MIN_VALUE;
+        for (Compilation compilation : analysis.readCompilations().getAllCompilations()) {
+            result = Math.max(result, compilation.getStartTime());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the names whose hashes differ between the given name hashes, in any scope.
+     */
+    private static Set<String> changedNames(NameHash[] previous, NameHash[] current) {
+        Map<String, Set<String>> hashes = new HashMap<>();
+        for (NameHash nameHash : previous) {
+            hashes.computeIfAbsent(nameHash.name(), ignored -> new TreeSet<>()).add(nameHash.scope() + ":" + nameHash.hash());
+        }
+
+        Set<String> result = new TreeSet<>();
+        Map<String, Set<String>> currentHashes = new HashMap<>();
+        for (NameHash nameHash : current) {
+            currentHashes.computeIfAbsent(nameHash.name(), ignored -> new TreeSet<>()).add(nameHash.scope() + ":" + nameHash.hash());
+        }
+        currentHashes.forEach((name, nameHashes) -> {
+            if (!nameHashes.equals(hashes.remove(name))) {
+                result.add(name);
+            }
+        });
+        result.addAll(hashes.keySet());
+        return result;
+    }
+
+    private static boolean sameStamp(Stamp previous, Stamp current) {
+        return previous.writeStamp().equals(current.writeStamp());
+    }
+
+    private String pathOf(VirtualFileRef file) {
+        return converter.toPath(file).toAbsolutePath().toString();
+    }
+
+    /**
+     * Writes the report as JSON to the given file, and a human-readable summary next to it (as `.txt` file).
+     */
+    void write(File reportFile) throws IOException {
+        Map<String, Object> initialChanges = new LinkedHashMap<>();
+        initialChanges.put("addedSources", addedSources);
+        initialChanges.put("removedSources", removedSources);
+        initialChanges.put("modifiedSources", modifiedSources);
+        initialChanges.put("changedClasspathEntries", changedClasspathEntries);
+
+        Map<String, Object> apiChanges = new LinkedHashMap<>();
+        apiChanges.put("modified", modifiedApis);
+        apiChanges.put("added", addedClasses);
+        apiChanges.put("removed", removedClasses);
+
+        List<Object> cyclesJson = new ArrayList<>();
+        for (Set<String> cycle : cycles) {
+            Map<String, Object> cycleJson = new LinkedHashMap<>();
+            cycleJson.put("addedSources", cycle);
+            cyclesJson.add(cycleJson);
+        }
+
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("task", taskPath);
+        json.put("sources", sourceCount);
+        json.put("recompiledSources", recompiledCount());
+        json.put("fullCompileReason", fullCompileReason);
+        json.put("initialChanges", initialChanges);
+        json.put("apiChanges", apiChanges);
+        json.put("cycles", cyclesJson);
+
+        Files.createDirectories(reportFile.getAbsoluteFile().getParentFile().toPath());
+        try (Writer out = Files.newBufferedWriter(reportFile.toPath(), StandardCharsets.UTF_8)) {
+            Json.write(json, out);
+        }
+
+        String summaryName = reportFile.getName().replaceAll("\\.json$", "") + ".txt";
+        Files.write(new File(reportFile.getParentFile(), summaryName).toPath(), summary().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private int recompiledCount() {
+        return cycles.stream().mapToInt(Set::size).sum();
+    }
+
+    /**
+     * Returns a human-readable summary of this report.
+     */
+    String summary() {
+        StringWriter result = new StringWriter();
+        PrintWriter out = new PrintWriter(result);
+        out.printf("%s recompiled %d of %d sources in %d cycle(s).%n", taskPath, recompiledCount(), sourceCount, cycles.size());
+        if (fullCompileReason != null) {
+            out.printf("All sources were recompiled: %s%n", fullCompileReason);
+        }
+
+        out.println();
+        out.println("Initial changes:");
+        printSection(out, "added source", addedSources);
+        printSection(out, "removed source", removedSources);
+        printSection(out, "modified source", modifiedSources);
+        printSection(out, "changed classpath entry", changedClasspathEntries);
+
+        out.println();
+        out.println("API changes:");
+        List<String> modified = new ArrayList<>();
+        modifiedApis.forEach((className, names) -> modified.add(names.isEmpty() ? className : className + " " + names));
+        printSection(out, "modified API", modified);
+        printSection(out, "added class", addedClasses);
+        printSection(out, "removed class", removedClasses);
+
+        for (int i = 0; i < cycles.size(); i++) {
+            out.println();
+            out.printf("Cycle %d:%n", i + 1);
+            printSection(out, "recompiled source", cycles.get(i));
+        }
+        out.flush();
+        return result.toString();
+    }
+
+    private static void printSection(PrintWriter out, String label, Collection<String> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        out.printf("  %d %s(s)%n", entries.size(), label);
+        entries.stream().limit(SUMMARY_LIMIT).forEach(entry -> out.printf("    %s%n", entry));
+        if (entries.size() > SUMMARY_LIMIT) {
+            out.printf("    ... and %d more%n", entries.size() - SUMMARY_LIMIT);
+        }
+    }
+
+}
@@ -21,98 +21,482 @@
  */
 package com.github.bhuemer.gbt.tasks;
 
+import com.github.bhuemer.gbt.ScalaPluginExtension;
+import com.github.bhuemer.gbt.tasks.support.ClassDataSharing;
+import com.github.bhuemer.gbt.tasks.support.CompileCancellation;
+import com.github.bhuemer.gbt.tasks.support.SourceStamper;
 import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.logging.Logger;
 import org.gradle.api.logging.Logging;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.*;
+import org.gradle.initialization.BuildCancellationToken;
 import org.gradle.work.InputChanges;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutionException;
+import org.gradle.workers.WorkerExecutor;
 
+import javax.inject.Inject;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Compiles Scala source files.
+ *
+ * All properties are lazy so that the task can be configured without being realized and so that its
+ * state can be serialized into the configuration cache. The task action itself must not touch the
+ * `Project` for the same reason.
  */
-public class ScalaCompile extends DefaultTask {
+public abstract class ScalaCompile extends DefaultTask {
 
     /** The logger instance for this task. */
     private static final Logger logger = Logging.getLogger(ScalaCompile.class);
 
-    private String scalaVersion;
+    /** Makes the compiler stop after type checking, both Scala 2 and Scala 3 call that phase `typer` */
+    private static final String TYPECHECK_ONLY_OPTION = "-Ystop-after:typer";
+
+    public ScalaCompile() {
+        getProfile().convention(false);
+        getFork().convention(false);
+        getPruneClasspath().convention(false);
+        getUseSeedStore().convention(false);
+        getExplainInvalidation().convention(false);
+        getAutoTuneInvalidation().convention(false);
+        getAggregate().convention(false);
+        getTypecheckOnly().convention(false);
+        getClassDataSharing().convention(true);
+        getStamping().convention(SourceStamper.Strategy.MTIME_THEN_HASH.getId());
+
+        // A profiled compilation is only useful if the compiler actually runs
+        getOutputs().upToDateWhen(task -> !getProfile().get());
+    }
+
+    @Input
+    public abstract Property<String> getScalaVersion();
 
     /** The JAR files containing the compiler and all its possible dependencies */
-    private FileCollection scalacClasspath;
+    @Classpath
+    public abstract ConfigurableFileCollection getScalacClasspath();
 
-    /** The source files that we want to compile */
-    private FileCollection source;
+    /** The source files that we want to compile, see {@link #getSourceInput()} for how they are fingerprinted */
+    @Internal
+    public abstract ConfigurableFileCollection getSource();
 
-    private File destinationDir;
+    /**
+     * The fingerprint of the sources that ignores comments and insignificant whitespace, written by a
+     * {@link ScalaSourceFingerprint} task. If it's set, the compiler doesn't emit line numbers (i.e. with
+     * `-g:none` or `-g:source`) and it's a Scala 2 compiler, it replaces the contents of the sources in the inputs
+     * of this task.
+     */
+    @Internal
+    public abstract RegularFileProperty getSourceFingerprint();
+
+    /**
+     * Either the sources themselves or their normalized fingerprint, if applicable. Comments and formatting
+     * cannot be ignored as long as line numbers end up in class files, so the fingerprint is only used if they
+     * don't. Scala 3 records the positions of all trees in the TASTy files regardless of `-g`, so it never is.
+     */
+    @InputFiles
+    @SkipWhenEmpty @IgnoreEmptyDirectories
+    @PathSensitive(org.gradle.api.tasks.PathSensitivity.ABSOLUTE)
+    protected FileCollection getSourceInput() {
+        if (getSourceFingerprint().isPresent() && !emitsLineNumbers(getScalacOptions().get())
+                && !ScalaPluginExtension.isScala3(getScalaVersion().get())) {
+            return getObjectFactory().fileCollection().from(getSourceFingerprint());
+        }
+        return getSource();
+    }
 
     /** The compile classpath */
-    private FileCollection classpath;
+    @Classpath
+    public abstract ConfigurableFileCollection getClasspath();
+
+    @OutputDirectory
+    public abstract DirectoryProperty getDestinationDirectory();
 
+    /**
+     * Whether to leave out the classpath entries that none of the sources used the last time this task ran,
+     * which saves the compiler from indexing them. This only applies as long as the classpath stays the same,
+     * and if the sources start using one of those entries, the compilation is simply repeated with all of them.
+     */
     @Input
-    public String getScalaVersion() {
-        return scalaVersion;
-    }
+    public abstract Property<Boolean> getPruneClasspath();
 
-    public void setScalaVersion(String scalaVersion) {
-        this.scalaVersion = scalaVersion;
-    }
+    /** The report that lists the classpath entries that none of the sources depend on */
+    @OutputFile
+    public abstract RegularFileProperty getClasspathReport();
 
-    @Classpath
-    public FileCollection getScalacClasspath() {
-        return scalacClasspath;
+    /**
+     * The problems (errors, warnings, etc.) that are currently reported for the sources, including those from
+     * earlier compilations of sources that haven't been recompiled since. If this task is up-to-date or loaded
+     * from the build cache, they are replayed from here, as long as it's in the default location.
+     */
+    @OutputFile
+    public abstract RegularFileProperty getDiagnosticsFile();
+
+    /**
+     * The directory where the incremental compiler keeps its state (i.e. the analysis and cached hashes)
+     * between runs of this task. If it's lost, the next compilation will simply be a full one.
+     */
+    @LocalState
+    public abstract DirectoryProperty getIncrementalStateDirectory();
+
+    /**
+     * How to decide whether sources, class files and libraries have changed since the last compilation:
+     * `mtime` (modification times only), `hash` (always hash contents) or `mtime-then-hash` (hash contents
+     * only if the size or the modification time of a file changed, which is the default).
+     */
+    @Internal
+    public abstract Property<String> getStamping();
+
+    /**
+     * Whether to run the compiler in a separate worker process. Forked compilers get a heap that is sized
+     * for the task at hand, and are retried once with a larger heap if they run out of memory.
+     */
+    @Internal
+    public abstract Property<Boolean> getFork();
+
+    /**
+     * The maximum heap size of the forked compiler, e.g. `2g`. If it's not set, it will be derived from the
+     * number of sources, the size of the classpath and the peak heap usage of previous compilations.
+     */
+    @Internal
+    public abstract Property<String> getMaxHeapSize();
+
+    /**
+     * Whether forked compilers should share the classes of the compiler via a CDS archive in
+     * {@link #getClassDataSharingDirectory()}, so that new worker processes start faster. Needs Java 13 or later.
+     */
+    @Internal
+    public abstract Property<Boolean> getClassDataSharing();
+
+    /** Where to keep the CDS archives of compilers, shared between all builds on the same machine */
+    @Internal
+    public abstract DirectoryProperty getClassDataSharingDirectory();
+
+    /**
+     * Whether to seed the first compilation of this task (e.g. in a fresh checkout) from the closest earlier
+     * compilation in {@link #getSeedStoreDirectory()}, and to record compilations there.
+     */
+    @Internal
+    public abstract Property<Boolean> getUseSeedStore();
+
+    /** The store of earlier compilations, shared between all checkouts of a build on the same machine */
+    @Internal
+    public abstract DirectoryProperty getSeedStoreDirectory();
+
+    /** The root directory of the build, paths in seeds are relative to it so they can be shared across checkouts */
+    @Internal
+    public abstract DirectoryProperty getRootDirectory();
+
+    /** The name of the build (i.e. of its root project), seeds are never shared across different builds */
+    @Internal
+    public abstract Property<String> getBuildName();
+
+    /**
+     * Whether to only type check the sources, i.e. to skip the optimiser and the backend and not write any class
+     * files. Every compilation type checks all the sources though, as the incremental compiler would need the
+     * later phases to tell which other sources a change affects.
+     */
+    @Input
+    public abstract Property<Boolean> getTypecheckOnly();
+
+    /** Additional options to pass on to the compiler, e.g. `-deprecation` */
+    @Input
+    public abstract ListProperty<String> getScalacOptions();
+
+    /**
+     * Whether to run the compiler with its built-in profiler enabled. The trace of each profiled task is
+     * written to {@link #getProfileTraceFile()} and all traces of a build are merged once it finishes.
+     */
+    @Input
+    public abstract Property<Boolean> getProfile();
+
+    /** The Chrome trace-event file that the compiler writes to if profiling is enabled */
+    @Internal
+    public abstract RegularFileProperty getProfileTraceFile();
+
+    /**
+     * How many steps the incremental compiler invalidates dependent sources transitively by name hashes, before
+     * it invalidates all transitive dependents at once. Zinc's default (3) applies if it's not set.
+     */
+    @Internal
+    public abstract Property<Integer> getTransitiveStep();
+
+    /**
+     * The fraction of invalidated sources (between 0 and 1) beyond which the incremental compiler recompiles all
+     * sources instead. Zinc's default (0.5) applies if it's not set, and if {@link #getAutoTuneInvalidation()} is
+     * enabled, this is only used until there is enough history for a prediction.
+     */
+    @Internal
+    public abstract Property<Double> getRecompileAllFraction();
+
+    /**
+     * Whether to predict {@link #getRecompileAllFraction()} from how long earlier incremental and full compilations
+     * of this task took, i.e. to recompile everything as soon as that's expected to be faster than carrying on.
+     */
+    @Internal
+    public abstract Property<Boolean> getAutoTuneInvalidation();
+
+    /**
+     * Whether to share the compiler with all the other aggregate compile tasks that use the same Scala version and
+     * compiler JARs, rather than set up a new one for this task. Forked aggregate tasks also share the heap size,
+     * so that they all run in the same worker processes. This pays off for lots of small tasks, where setting up
+     * the compiler takes longer than compiling. Each task still has its own outputs and is up-to-date on its own.
+     */
+    @Internal
+    public abstract Property<Boolean> getAggregate();
+
+    /**
+     * Whether to explain what each compilation invalidated and why in {@link #getInvalidationReportFile()}, i.e.
+     * the changes it started from, the resulting API changes, the sources added by each invalidation cycle and
+     * the reason for recompiling everything, if it did.
+     */
+    @Internal
+    public abstract Property<Boolean> getExplainInvalidation();
+
+    /** The JSON report explaining the last compilation, a human-readable summary is written next to it */
+    @Internal
+    public abstract RegularFileProperty getInvalidationReportFile();
+
+    /** The service that merges compiler traces across the whole build */
+    @Internal
+    public abstract Property<ScalaProfileService> getProfileService();
+
+    @Inject
+    protected abstract WorkerExecutor getWorkerExecutor();
+
+    @Inject
+    protected abstract ObjectFactory getObjectFactory();
+
+    /** Tells us whether the build has been cancelled, e.g. with Ctrl-C or because another task failed */
+    @Inject
+    protected abstract BuildCancellationToken getCancellationToken();
+
+    @SuppressWarnings("UnstableApiUsage")
+    @TaskAction
+    public void compile(InputChanges changes) {
+        logger.info("Compiling using Scala " + getScalaVersion().get());
+
+        validateInvalidationThresholds();
+
+        List<String> options = new ArrayList<>(getScalacOptions().get());
+        if (getSourceFingerprint().isPresent() && emitsLineNumbers(options)) {
+            logger.warn("Not ignoring comments and whitespace in the sources of " + getPath() + ", as the "
+                + "compiler emits line numbers. Add `-g:none` or `-g:source` to the compiler options for that.");
+        }
+
+        if (getTypecheckOnly().get()) {
+            options.add(TYPECHECK_ONLY_OPTION);
+        }
+
+        File traceFile = null;
+        File lastTraceFile = null;
+        if (getProfile().get()) {
+            traceFile = getProfileTraceFile().get().getAsFile();
+            //noinspection ResultOfMethodCallIgnored
+            traceFile.getParentFile().mkdirs();
+
+            // Set the trace of the last compilation aside, so that it can be kept if there's nothing to compile
+            lastTraceFile = new File(traceFile.getParentFile(), traceFile.getName() + ".last");
+            //noinspection ResultOfMethodCallIgnored
+            lastTraceFile.delete();
+            //noinspection ResultOfMethodCallIgnored
+            traceFile.renameTo(lastTraceFile);
+            options.addAll(profilingOptions(getScalaVersion().get(), traceFile));
+        }
+
+        if (getFork().get()) {
+            compileForked(options);
+        } else {
+            compileIn(getWorkerExecutor().noIsolation(), options, false);
+        }
+
+        if (traceFile != null) {
+            addTrace(traceFile, lastTraceFile);
+        }
     }
 
-    public void setScalacClasspath(FileCollection scalacClasspath) {
-        this.scalacClasspath = scalacClasspath;
+    /**
+     * Adds the trace that the compiler wrote to the build-wide reports. If it didn't write one, because there was
+     * nothing to compile, the trace of the last compilation is kept and added instead, labelled as such.
+     */
+    private void addTrace(File traceFile, File lastTraceFile) {
+        if (traceFile.isFile()) {
+            //noinspection ResultOfMethodCallIgnored
+            lastTraceFile.delete();
+            getProfileService().get().addTrace(getPath(), traceFile);
+        } else if (lastTraceFile.renameTo(traceFile)) {
+            logger.lifecycle("Nothing to compile for " + getPath() + ", keeping the compiler trace of its last compilation.");
+            getProfileService().get().addTrace(getPath() + " (last compilation)", traceFile);
+        } else {
+            logger.info("The compiler wrote no trace for " + getPath() + ", e.g. because there was nothing to compile.");
+        }
     }
 
-    @InputFiles
-    @SkipWhenEmpty @IgnoreEmptyDirectories
-    @PathSensitive(org.gradle.api.tasks.PathSensitivity.ABSOLUTE)
-    public FileCollection getSource() {
-        return source;
+    private void validateInvalidationThresholds() {
+        if (getTransitiveStep().isPresent() && getTransitiveStep().get() < 1) {
+            throw new GradleException(
+                "The transitive step of " + getPath() + " must be at least 1, but was " + getTransitiveStep().get() + ".");
+        }
+        if (getRecompileAllFraction().isPresent()
+                && (getRecompileAllFraction().get() <= 0 || getRecompileAllFraction().get() > 1)) {
+            throw new GradleException("The recompile-all fraction of " + getPath() + " must be greater than 0 and at "
+                + "most 1, but was " + getRecompileAllFraction().get() + ".");
+        }
     }
 
-    public void setSource(FileCollection source) {
-        this.source = source;
+    /**
+     * Compiles in a worker process with a heap that is sized for this task. If the compiler runs out of memory
+     * anyway, it's retried once with twice the heap (unless the heap size was configured explicitly).
+     */
+    private void compileForked(List<String> options) {
+        if (getMaxHeapSize().isPresent()) {
+            compileIn(processIsolation(getMaxHeapSize().get()), options, true);
+            return;
+        }
+
+        long limit = HeapSizing.limit();
+        long heap = getAggregate().get() ? HeapSizing.shared(limit) : HeapSizing.estimate(
+            getSource().getFiles().size(),
+            HeapSizing.sizeOf(getClasspath().getFiles()),
+            HeapSizing.readPeaks(getIncrementalStateDirectory().get().getAsFile()),
+            limit
+        );
+
+        try {
+            logger.info("Forking the Scala compiler with a maximum heap of " + HeapSizing.toJvmOption(heap));
+            compileIn(processIsolation(HeapSizing.toJvmOption(heap)), options, true);
+        } catch (WorkerExecutionException ex) {
+            long retryHeap = HeapSizing.retry(heap, limit);
+            if (retryHeap <= heap || !HeapSizing.isMemoryFailure(ex)) {
+                throw ex;
+            }
+
+            logger.warn("The Scala compiler ran out of memory with a maximum heap of " + HeapSizing.toJvmOption(heap)
+                + ", retrying with " + HeapSizing.toJvmOption(retryHeap) + ".");
+            compileIn(processIsolation(HeapSizing.toJvmOption(retryHeap)), options, true);
+        }
     }
 
-    @Classpath
-    public FileCollection getClasspath() {
-        return classpath;
+    private WorkQueue processIsolation(String maxHeapSize) {
+        List<String> jvmArgs = getClassDataSharing().get() && getClassDataSharingDirectory().isPresent()
+            ? ClassDataSharing.jvmOptions(
+                getClassDataSharingDirectory().get().getAsFile(), getScalacClasspath().getFiles(), logger)
+            : Collections.emptyList();
+        return getWorkerExecutor().processIsolation(spec ->
+            spec.forkOptions(forkOptions -> {
+                forkOptions.setMaxHeapSize(maxHeapSize);
+                forkOptions.jvmArgs(jvmArgs);
+            }));
     }
 
-    public void setClasspath(FileCollection classpath) {
-        this.classpath = classpath;
+    /**
+     * Runs the compiler on the given work queue and waits for it to finish. If the build is cancelled in the
+     * meantime, the compiler stops at the next phase or compilation unit and rolls back its changes.
+     */
+    private void compileIn(WorkQueue workQueue, List<String> options, boolean monitorMemory) {
+        // Pass on the cancellation of the build to the compiler, which may well be running in another process
+        CompileCancellation cancellation = new CompileCancellation(
+            getIncrementalStateDirectory().file(IncrementalOptions.CANCELLATION_FILE_NAME).get().getAsFile());
+        cancellation.reset();
+        Runnable cancel = cancellation::request;
+        if (getCancellationToken().addCallback(cancel)) {
+            cancel.run();
+        }
+
+        try {
+            submitTo(workQueue, options, monitorMemory);
+            workQueue.await();
+        } finally {
+            getCancellationToken().removeCallback(cancel);
+        }
     }
 
-    @OutputDirectory
-    public File getDestinationDir() {
-        return destinationDir;
+    private void submitTo(WorkQueue workQueue, List<String> options, boolean monitorMemory) {
+        workQueue.submit(ScalaCompileAction.class, parameters -> {
+            parameters.getScalaVersion().set(getScalaVersion());
+            parameters.getScalacClasspath().from(getScalacClasspath());
+            parameters.getSource().from(getSource());
+            parameters.getClasspath().from(getClasspath());
+            parameters.getDestinationDirectory().set(getDestinationDirectory());
+            parameters.getIncrementalStateDirectory().set(getIncrementalStateDirectory());
+            parameters.getStamping().set(getStamping());
+            parameters.getScalacOptions().set(options);
+            parameters.getMonitorMemory().set(monitorMemory);
+            parameters.getPruneClasspath().set(getPruneClasspath());
+            parameters.getClasspathReport().set(getClasspathReport());
+            parameters.getDiagnosticsFile().set(getDiagnosticsFile());
+            parameters.getTransitiveStep().set(getTransitiveStep());
+            parameters.getRecompileAllFraction().set(getRecompileAllFraction());
+            parameters.getAutoTuneInvalidation().set(getAutoTuneInvalidation());
+            parameters.getAggregate().set(getAggregate());
+            parameters.getTypecheckOnly().set(getTypecheckOnly());
+            if (getExplainInvalidation().get()) {
+                parameters.getInvalidationReport().set(getInvalidationReportFile());
+            }
+            parameters.getTaskPath().set(getPath());
+            if (getUseSeedStore().get()) {
+                parameters.getSeedStoreDirectory().set(getSeedStoreDirectory());
+                parameters.getRootDirectory().set(getRootDirectory());
+                parameters.getBuildName().set(getBuildName());
+            }
+        });
     }
 
-    public void setDestinationDir(File destinationDir) {
-        this.destinationDir = destinationDir;
+    /**
+     * Returns the compiler options that enable the Chrome trace output of the compiler's profiler for the given
+     * Scala version. Scala 2.13 supports this out of the box, Scala 3 only from 3.5 onwards. For the Scala 3
+     * releases before that we fall back to its plain-text profile, which will not be part of the merged trace.
+     */
+    private static List<String> profilingOptions(String scalaVersion, File traceFile) {
+        String[] parts = scalaVersion.split("[.-]");
+        int major = parts.length > 0 ? parseVersionPart(parts[0]) : 0;
+        int minor = parts.length > 1 ? parseVersionPart(parts[1]) : 0;
+
+        if ((major == 2 && minor >= 13) || (major == 3 && minor >= 5)) {
+            return Arrays.asList("-Yprofile-enabled", "-Yprofile-trace:" + traceFile.getAbsolutePath());
+        } else if (major == 3) {
+            File textProfile = new File(traceFile.getParentFile(), traceFile.getName().replace(".trace.json", ".profile.txt"));
+            logger.warn("Scala " + scalaVersion + " cannot write Chrome traces, writing its profile to " + textProfile + " instead.");
+            return Arrays.asList("-Yprofile-enabled", "-Yprofile-destination:" + textProfile.getAbsolutePath());
+        } else {
+            logger.warn("Profiling is not supported with Scala " + scalaVersion + ", compiling without it.");
+            return Collections.emptyList();
+        }
     }
 
-    @SuppressWarnings("UnstableApiUsage")
-    @TaskAction
-    public void compile(InputChanges changes) {
-        logger.info("Compiling using Scala " + getScalaVersion());
+    private static int parseVersionPart(String part) {
+        try {
+            return Integer.parseInt(part);
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
 
-        ScalaCompiler compiler = ScalaCompilerFactory.createCompiler(
-            getScalaVersion(),
-            getScalacClasspath().getFiles(),
-            logger
-        );
-        compiler.compile(
-            getSource().getFiles(),
-            getClasspath().getFiles(),
-            getDestinationDir()
-        );
+    /**
+     * Determines whether the compiler will emit line numbers with the given options, which it does by default.
+     * The last `-g` option wins, just like with the compiler itself.
+     */
+    static boolean emitsLineNumbers(List<String> options) {
+        boolean result = true;
+        for (String option : options) {
+            if (option.startsWith("-g:")) {
+                String level = option.substring("-g:".length());
+                result = !"none".equals(level) && !"source".equals(level);
+            }
+        }
+        return result;
     }
 
 }
@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks;
+
+import com.github.bhuemer.gbt.tasks.support.ClasspathUsage;
+import com.github.bhuemer.gbt.tasks.support.CompileCancellation;
+import com.github.bhuemer.gbt.tasks.support.CompileProgressAdapter;
+import com.github.bhuemer.gbt.tasks.support.Diagnostics;
+import com.github.bhuemer.gbt.tasks.support.MemoryMonitor;
+import com.github.bhuemer.gbt.tasks.support.SeedStore;
+import com.github.bhuemer.gbt.tasks.support.SourceStamper;
+import org.gradle.api.BuildCancelledException;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+import sbt.internal.inc.PlainVirtualFileConverter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Runs the Scala compiler for a {@link ScalaCompile} task, either in the Gradle daemon itself or in a worker
+ * process. In a worker process we also keep an eye on the heap: The peak usage is recorded for sizing the next
+ * worker, and if the compiler is about to run out of memory, we abort early rather than let it thrash.
+ */
+public abstract class ScalaCompileAction implements WorkAction<ScalaCompileAction.Parameters> {
+
+    /** The logger instance for this action. */
+    private static final Logger logger = Logging.getLogger(ScalaCompileAction.class);
+
+    public interface Parameters extends WorkParameters {
+
+        Property<String> getScalaVersion();
+
+        ConfigurableFileCollection getScalacClasspath();
+
+        ConfigurableFileCollection getSource();
+
+        ConfigurableFileCollection getClasspath();
+
+        DirectoryProperty getDestinationDirectory();
+
+        DirectoryProperty getIncrementalStateDirectory();
+
+        Property<String> getStamping();
+
+        ListProperty<String> getScalacOptions();
+
+        /** Whether to monitor the heap, only meaningful if the compiler has the whole JVM to itself */
+        Property<Boolean> getMonitorMemory();
+
+        /** Whether to leave out the classpath entries that the last compilation didn't use */
+        Property<Boolean> getPruneClasspath();
+
+        /** The report that lists the unused classpath entries */
+        RegularFileProperty getClasspathReport();
+
+        /** Where to keep the problems reported for each source, so they can be replayed later */
+        RegularFileProperty getDiagnosticsFile();
+
+        /** Where to explain what each compilation invalidated and why, if at all */
+        RegularFileProperty getInvalidationReport();
+
+        /** How many steps to invalidate transitively before recompiling everything, if not the default */
+        Property<Integer> getTransitiveStep();
+
+        /** The fraction of invalidated sources beyond which everything is recompiled, if not the default */
+        Property<Double> getRecompileAllFraction();
+
+        /** Whether to predict that fraction from the durations of earlier compilations */
+        Property<Boolean> getAutoTuneInvalidation();
+
+        /** Whether to share the compiler with other compilations in the same process */
+        Property<Boolean> getAggregate();
+
+        /** Whether the compiler stops after type checking */
+        Property<Boolean> getTypecheckOnly();
+
+        Property<String> getTaskPath();
+
+        /** The store of earlier compilations to seed from and record to, if any */
+        DirectoryProperty getSeedStoreDirectory();
+
+        /** The root directory of the build, seeds are relative to it */
+        DirectoryProperty getRootDirectory();
+
+        /** The name of the build, seeds are only shared between compilations of the same build */
+        Property<String> getBuildName();
+
+    }
+
+    @Override
+    public void execute() {
+        Parameters parameters = getParameters();
+        File stateDirectory = parameters.getIncrementalStateDirectory().get().getAsFile();
+        File destinationDirectory = parameters.getDestinationDirectory().get().getAsFile();
+
+        IncrementalOptions incrementalOptions = new IncrementalOptions(
+            stateDirectory,
+            SourceStamper.Strategy.fromId(parameters.getStamping().get())
+        );
+
+        incrementalOptions.setTaskPath(parameters.getTaskPath().get());
+        if (parameters.getInvalidationReport().isPresent()) {
+            incrementalOptions.setInvalidationReportFile(parameters.getInvalidationReport().get().getAsFile());
+        }
+        incrementalOptions.setTransitiveStep(parameters.getTransitiveStep().getOrNull());
+        incrementalOptions.setRecompileAllFraction(parameters.getRecompileAllFraction().getOrNull());
+        incrementalOptions.setAutoTuneInvalidation(parameters.getAutoTuneInvalidation().get());
+        incrementalOptions.setAggregate(parameters.getAggregate().get());
+        incrementalOptions.setTypecheckOnly(parameters.getTypecheckOnly().get());
+
+        MemoryMonitor memoryMonitor = parameters.getMonitorMemory().get() ? new MemoryMonitor() : null;
+        CompileCancellation cancellation = new CompileCancellation(incrementalOptions.getCancellationFile());
+        CompileProgressAdapter progress = new CompileProgressAdapter(() ->
+            !cancellation.isRequested() && (memoryMonitor == null || !memoryMonitor.isUnderPressure()));
+        incrementalOptions.setProgress(progress);
+
+        // Stays 0 if the compilation fails, as there's no analysis to tell how many sources it recompiled
+        int recompiledSourceCount = 0;
+        try {
+            ScalaCompiler compiler = ScalaCompilerFactory.createCompiler(
+                parameters.getScalaVersion().get(),
+                parameters.getScalacClasspath().getFiles(),
+                incrementalOptions,
+                logger
+            );
+
+            Set<File> classpath = parameters.getClasspath().getFiles();
+            // Type checking writes no class files, so there's nothing to seed from or to record
+            SeedStore seedStore = incrementalOptions.isTypecheckOnly() ? null : createSeedStore(incrementalOptions);
+            String seedKey = seedStore == null ? null : seedStore.key(
+                parameters.getBuildName().get() + parameters.getTaskPath().get(),
+                parameters.getScalaVersion().get(),
+                parameters.getScalacOptions().get(),
+                classpath
+            );
+            if (seedStore != null && !incrementalOptions.getAnalysisFile().exists() && isEmpty(destinationDirectory)) {
+                seedStore.restore(seedKey, parameters.getSource().getFiles(), incrementalOptions.getAnalysisFile(), destinationDirectory);
+            }
+
+            Set<File> prunedClasspath = parameters.getPruneClasspath().get()
+                ? readClasspathUsage(incrementalOptions).map(usage -> usage.prune(classpath)).orElse(classpath)
+                : classpath;
+
+            CompilationResult result;
+            if (prunedClasspath.size() < classpath.size()) {
+                logger.info("Compiling without " + (classpath.size() - prunedClasspath.size()) + " unused classpath entries.");
+                try {
+                    incrementalOptions.setSpeculative(true);
+                    result = compile(compiler, prunedClasspath);
+                } catch (GradleException ex) {
+                    if (cancellation.isRequested() || (memoryMonitor != null && memoryMonitor.isUnderPressure())) {
+                        throw ex;
+                    }
+
+                    // The sources probably started using one of the pruned entries
+                    logger.info("Compilation failed without the unused classpath entries, retrying with all of them.");
+                    incrementalOptions.setSpeculative(false);
+                    result = compile(compiler, classpath);
+                }
+            } else {
+                result = compile(compiler, classpath);
+            }
+
+            // Dependencies are only recorded after type checking, so every entry would look unused otherwise
+            if (!incrementalOptions.isTypecheckOnly()) {
+                writeClasspathUsage(incrementalOptions, ClasspathUsage.of(classpath, result.getLibraryDependencies()));
+            }
+            writeDiagnostics(result.getDiagnostics());
+            recompiledSourceCount = result.getRecompiledSourceCount();
+            if (seedStore != null && shouldPublish(incrementalOptions, seedKey, recompiledSourceCount)) {
+                seedStore.publish(seedKey, parameters.getSource().getFiles(), incrementalOptions.getAnalysisFile(), destinationDirectory);
+                writeSeedKey(incrementalOptions, seedKey);
+            }
+        } catch (GradleException ex) {
+            if (cancellation.isRequested()) {
+                throw new BuildCancelledException("Compilation of " + parameters.getTaskPath().get() + " was cancelled.", ex);
+            }
+            if (memoryMonitor != null && memoryMonitor.isUnderPressure()) {
+                throw new MemoryPressureException(
+                    "The Scala compiler ran out of memory with a maximum heap of "
+                        + HeapSizing.toJvmOption(memoryMonitor.getMaxHeap()) + ".", ex);
+            }
+            throw ex;
+        } finally {
+            if (memoryMonitor != null) {
+                memoryMonitor.close();
+                HeapSizing.record(stateDirectory,
+                    new HeapSizing.Peak(memoryMonitor.getPeakHeapUsage(), recompiledSourceCount),
+                    memoryMonitor.getMaxHeap(), memoryMonitor.getMaxGcOverhead());
+            }
+        }
+    }
+
+    private CompilationResult compile(ScalaCompiler compiler, Set<File> classpath) {
+        Parameters parameters = getParameters();
+        return compiler.compile(
+            parameters.getSource().getFiles(),
+            classpath,
+            parameters.getDestinationDirectory().get().getAsFile(),
+            parameters.getScalacOptions().get()
+        );
+    }
+
+    private SeedStore createSeedStore(IncrementalOptions incrementalOptions) {
+        if (!getParameters().getSeedStoreDirectory().isPresent()) {
+            return null;
+        }
+
+        SourceStamper stamper = new SourceStamper(SourceStamper.Strategy.MTIME_THEN_HASH,
+            PlainVirtualFileConverter.converter(), incrementalOptions.getSeedStampCacheFile(), logger);
+        return new SeedStore(
+            getParameters().getSeedStoreDirectory().get().getAsFile(),
+            getParameters().getRootDirectory().get().getAsFile(),
+            stamper,
+            logger
+        );
+    }
+
+    /**
+     * Decides whether to record the compilation in the seed store. That's only worth it for full compilations, or
+     * for the first one under a new key: after a small incremental compilation, the entry recorded earlier is still
+     * close enough to seed from, and copying all class files after every compilation is anything but free.
+     */
+    private boolean shouldPublish(IncrementalOptions incrementalOptions, String seedKey, int recompiledSourceCount) {
+        if (recompiledSourceCount == 0) {
+            return false;
+        } else if (recompiledSourceCount >= getParameters().getSource().getFiles().size()) {
+            return true;
+        }
+
+        try {
+            byte[] lastKey = Files.readAllBytes(incrementalOptions.getSeedKeyFile().toPath());
+            return !seedKey.equals(new String(lastKey, StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            return true;
+        }
+    }
+
+    private static void writeSeedKey(IncrementalOptions incrementalOptions, String seedKey) {
+        try {
+            Files.write(incrementalOptions.getSeedKeyFile().toPath(), seedKey.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            logger.debug("Cannot write the seed key file '" + incrementalOptions.getSeedKeyFile() + "'.", ex);
+        }
+    }
+
+    private static boolean isEmpty(File directory) {
+        String[] files = directory.list();
+        return files == null || files.length == 0;
+    }
+
+    private static Optional<ClasspathUsage> readClasspathUsage(IncrementalOptions incrementalOptions) {
+        try {
+            return ClasspathUsage.read(incrementalOptions.getClasspathUsageFile());
+        } catch (IOException ex) {
+            logger.debug("Ignoring unreadable classpath usage '" + incrementalOptions.getClasspathUsageFile() + "'.", ex);
+            return Optional.empty();
+        }
+    }
+
+    private void writeClasspathUsage(IncrementalOptions incrementalOptions, ClasspathUsage usage) {
+        File reportFile = getParameters().getClasspathReport().get().getAsFile();
+        try {
+            usage.write(incrementalOptions.getClasspathUsageFile());
+            usage.writeReport(reportFile, getParameters().getTaskPath().get());
+        } catch (IOException ex) {
+            logger.warn("Cannot write the classpath usage report '" + reportFile + "': " + ex.getMessage());
+        }
+
+        if (!usage.getUnused().isEmpty()) {
+            logger.info(usage.getUnused().size() + " classpath entries are not used, see " + reportFile);
+        }
+    }
+
+    private void writeDiagnostics(Diagnostics diagnostics) {
+        File diagnosticsFile = getParameters().getDiagnosticsFile().get().getAsFile();
+        try {
+            diagnostics.write(diagnosticsFile);
+        } catch (IOException ex) {
+            logger.warn("Cannot write the diagnostics file '" + diagnosticsFile + "': " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Thrown if the compiler was aborted because it spent most of its time collecting garbage.
+     */
+    public static class MemoryPressureException extends GradleException {
+
+        public MemoryPressureException(String message, Throwable cause) {
+            super(message, cause);
+        }
+
+    }
+
+}
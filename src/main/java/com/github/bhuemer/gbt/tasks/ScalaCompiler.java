@@ -22,11 +22,12 @@
 package com.github.bhuemer.gbt.tasks;
 
 import java.io.File;
+import java.util.List;
 import java.util.Set;
 
 @FunctionalInterface
 public interface ScalaCompiler {
 
-    void compile(Set<File> files, Set<File> classpath, File outputDir);
+    CompilationResult compile(Set<File> files, Set<File> classpath, File outputDir, List<String> options);
 
 }
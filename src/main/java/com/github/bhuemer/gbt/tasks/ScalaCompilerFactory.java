@@ -21,71 +21,497 @@
  */
 package com.github.bhuemer.gbt.tasks;
 
+import com.github.bhuemer.gbt.tasks.support.CompileProgressAdapter;
+import com.github.bhuemer.gbt.tasks.support.CompileHistory;
+import com.github.bhuemer.gbt.tasks.support.CompilerEvents;
+import com.github.bhuemer.gbt.tasks.support.Diagnostics;
 import com.github.bhuemer.gbt.tasks.support.LoggerAdapter;
+import com.github.bhuemer.gbt.tasks.support.ReporterAdapter;
+import com.github.bhuemer.gbt.tasks.support.SourceFileConverter;
+import com.github.bhuemer.gbt.tasks.support.SourceStamper;
+import com.github.bhuemer.gbt.tasks.support.UnchangedClassFileManager;
 import org.gradle.api.GradleException;
 import org.gradle.api.logging.Logger;
-import sbt.internal.inc.CompileFailed;
-import sbt.internal.inc.RawCompiler;
+import sbt.internal.inc.Analysis;
+import sbt.internal.inc.AnalyzingCompiler;
+import sbt.internal.inc.CompilerCache;
+import sbt.internal.inc.FileAnalysisStore;
+import sbt.internal.inc.Locate;
 import sbt.internal.inc.ScalaInstance;
+import sbt.internal.inc.ZincUtil;
 import scala.Option;
 import scala.collection.JavaConverters;
+import xsbti.FileConverter;
+import xsbti.Problem;
+import xsbti.T2;
+import xsbti.VirtualFile;
+import xsbti.VirtualFileRef;
+import xsbti.compile.AnalysisContents;
+import xsbti.compile.AnalysisStore;
 import xsbti.compile.ClasspathOptionsUtil;
+import xsbti.compile.CompileAnalysis;
+import xsbti.compile.CompileOptions;
+import xsbti.compile.CompileResult;
+import xsbti.compile.Compilers;
+import xsbti.compile.DefinesClass;
+import xsbti.compile.IncOptions;
+import xsbti.compile.Inputs;
+import xsbti.compile.PerClasspathEntryLookup;
+import xsbti.compile.PreviousResult;
+import xsbti.compile.Setup;
+import xsbti.compile.TransactionalManagerType;
+import xsbti.compile.analysis.SourceInfo;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalDouble;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
- *
+ * Creates incremental Scala compilers based on Zinc, i.e. compilers that keep track of dependencies between
+ * sources (the analysis) and only recompile what's affected by a change on subsequent runs.
  */
 final class ScalaCompilerFactory {
 
+    /** The prefixes of JAR files that belong to the compiler bridge, rather than the compiler itself. */
+    private static final String[] BRIDGE_JAR_PREFIXES = { "compiler-bridge", "scala3-sbt-bridge", "dotty-sbt-bridge" };
+
+    /**
+     * The prefixes of JAR files that contain the interfaces between Zinc and the bridge. These must be loaded
+     * by the same class loader as Zinc itself, so they are not part of the compiler's class loader.
+     */
+    private static final String[] INTERFACE_JAR_PREFIXES = { "compiler-interface", "util-interface" };
+
+    /** The number of different compilers that aggregate compilations keep around, see {@link #sharedCompilers} */
+    static final int MAX_SHARED_COMPILERS = 4;
+
+    /** The compilers shared between aggregate compilations, keyed by {@link #toolchainKey}, least recently used first */
+    private static final Map<String, Compilers> sharedCompilers = leastRecentlyUsed(MAX_SHARED_COMPILERS);
+
+    /** Compilers that were (or are being) warmed up in the background, each for the first compilation that needs it */
+    private static final Map<String, CompletableFuture<Compilers>> warmedUpCompilers = new ConcurrentHashMap<>();
+
     // do not instantiate this class
     private ScalaCompilerFactory() { }
 
-    static ScalaCompiler createCompiler(String scalaVersion, Set<File> scalacJars, Logger logger) {
-        ScalaInstance scalaInstance = createScalaInstance(scalaVersion, scalacJars);
-        RawCompiler compiler = new RawCompiler(scalaInstance, ClasspathOptionsUtil.auto(), new LoggerAdapter(logger));
-        return (files, classpath, outputDir) -> {
+    static ScalaCompiler createCompiler(
+            String scalaVersion, Set<File> scalacJars, IncrementalOptions incrementalOptions, Logger logger) {
+        Compilers compilers = incrementalOptions.isAggregate()
+            ? sharedCompilers(scalaVersion, scalacJars, incrementalOptions.getTaskPath(), logger)
+            : takeWarmedUp(toolchainKey(scalaVersion, scalacJars), logger).orElseGet(() ->
+                createCompilers(scalaVersion, scalacJars, incrementalOptions.getTaskPath()));
+        return createCompiler(scalaVersion, compilers, incrementalOptions, logger);
+    }
+
+    private static ScalaCompiler createCompiler(
+            String scalaVersion, Compilers compilers, IncrementalOptions incrementalOptions, Logger logger) {
+        return (files, classpath, outputDir, options) -> {
+            // Make sure that the scala-library is actually available on the classpath.
+            findByName(classpath, "library");
+
+            LoggerAdapter zincLogger = new LoggerAdapter(logger);
+            FileConverter converter = new SourceFileConverter(files);
+            SourceStamper stamper = new SourceStamper(
+                incrementalOptions.getStamping(), converter, incrementalOptions.getStampCacheFile(), logger);
+            stamper.prepare(toPaths(files));
+
+            File analysisFile = incrementalOptions.getAnalysisFile();
+            File inProgressFile = incrementalOptions.getInProgressFile();
+            if (incrementalOptions.isTypecheckOnly()) {
+                // The analysis lacks the APIs of the sources without the later phases, so it's of no use
+                discardState(incrementalOptions, outputDir);
+            } else if (inProgressFile.exists()) {
+                // The last compilation never finished (e.g. the worker was killed), so neither the analysis nor
+                // the class files can be trusted. Starting from scratch is the only consistent option left.
+                logger.warn("The last compilation didn't finish, recompiling all sources.");
+                discardState(incrementalOptions, outputDir);
+            }
+
+            AnalysisStore analysisStore = AnalysisStore.getCachedStore(FileAnalysisStore.binary(analysisFile));
+            PreviousResult previousResult;
+            try (CompilerEvents.Span span = CompilerEvents.analysis(incrementalOptions.getTaskPath(), "load")) {
+                previousResult = analysisStore.get()
+                    .map(contents -> PreviousResult.of(
+                        Optional.of(contents.getAnalysis()), Optional.of(contents.getMiniSetup())))
+                    .orElseGet(() -> PreviousResult.of(Optional.empty(), Optional.empty()));
+                span.setBytes(analysisFile::length);
+            }
+
+            CompileOptions compileOptions = CompileOptions.of()
+                .withSources(toVirtualFiles(files, converter))
+                .withClasspath(toVirtualFiles(classpath, converter))
+                .withClassesDirectory(outputDir.toPath())
+                .withScalacOptions(options.toArray(new String[0]))
+                .withConverter(Optional.of(converter))
+                .withStamper(Optional.of(stamper));
+
+            IncOptions incOptions = IncOptions.of()
+                .withClassfileManagerType(Optional.of(
+                    TransactionalManagerType.of(incrementalOptions.getBackupDirectory(), zincLogger)));
+            incOptions = incOptions.withExternalHooks(incOptions.externalHooks().withExternalClassFileManager(
+                new UnchangedClassFileManager(
+                    incrementalOptions.getOriginalsDirectory(), incrementalOptions.getTaskPath(), logger)));
+            if (incrementalOptions.getTransitiveStep().isPresent()) {
+                incOptions = incOptions.withTransitiveStep(incrementalOptions.getTransitiveStep().get());
+            }
+
+            CompileHistory compileHistory = incrementalOptions.isAutoTuneInvalidation()
+                ? readCompileHistory(incrementalOptions, logger)
+                : null;
+            Optional<Double> recompileAllFraction = incrementalOptions.getRecompileAllFraction();
+            if (compileHistory != null) {
+                OptionalDouble predicted = compileHistory.recompileAllFraction(files.size());
+                if (predicted.isPresent()) {
+                    recompileAllFraction = Optional.of(predicted.getAsDouble());
+                    logger.info(String.format("Recompiling all sources once more than %.0f%% of them are invalidated, "
+                        + "based on the durations of earlier compilations.", predicted.getAsDouble() * 100));
+                }
+            }
+            if (recompileAllFraction.isPresent()) {
+                incOptions = incOptions.withRecompileAllFraction(recompileAllFraction.get());
+            }
+
+            ReporterAdapter reporter = new ReporterAdapter(logger, incrementalOptions.isSpeculative());
+
+            @SuppressWarnings("unchecked")
+            Setup setup = Setup.of(
+                new ClasspathEntryLookup(),
+                false,
+                analysisFile.toPath(),
+                CompilerCache.fresh(),
+                incOptions,
+                reporter,
+                incrementalOptions.getProgress(),
+                Optional.empty(),
+                new T2[0]
+            );
+
+            InvalidationReport invalidationReport = incrementalOptions.getInvalidationReportFile().isPresent()
+                ? InvalidationReport.before(incrementalOptions.getTaskPath(), previousResult, files, options, scalaVersion, stamper, converter)
+                : null;
+
+            markInProgress(inProgressFile);
+            long startTime = System.nanoTime();
             try {
-                // Make sure that the scala-library is actually available on the classpath.
-                findByName(classpath, "library");
-
-                compiler.apply(
-                    convertFiles(files),
-                    convertFiles(classpath),
-                    outputDir.toPath(),
-                    JavaConverters.collectionAsScalaIterable(Collections.<String>emptyList()).toSeq()
+                CompileResult result;
+                try (CompilerEvents.Span ignored = CompilerEvents.compile(
+                        incrementalOptions.getTaskPath(), scalaVersion, files.size(), classpath.size())) {
+                    result = ZincUtil.defaultIncrementalCompiler().compile(
+                        Inputs.of(compilers, compileOptions, setup, previousResult), zincLogger);
+                }
+                if (result.hasModified()) {
+                    try (CompilerEvents.Span span = CompilerEvents.analysis(incrementalOptions.getTaskPath(), "store")) {
+                        analysisStore.set(AnalysisContents.create(result.analysis(), result.setup()));
+                        span.setBytes(analysisFile::length);
+                    }
+                }
+                reporter.replay();
+                int recompiledSourceCount = result.hasModified()
+                    ? InvalidationReport.recompiledSourceCount(previousResult.analysis().orElse(null), result.analysis())
+                    : 0;
+                if (compileHistory != null && result.hasModified()) {
+                    compileHistory.record(
+                        files.size(),
+                        recompiledSourceCount,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)
+                    );
+                    writeCompileHistory(compileHistory, incrementalOptions, logger);
+                }
+                if (invalidationReport != null) {
+                    writeInvalidationReport(invalidationReport, result.analysis(), incrementalOptions, logger);
+                }
+                return new CompilationResult(
+                    libraryDependencies(result.analysis(), converter),
+                    diagnostics(result.analysis(), converter, reporter, logger),
+                    recompiledSourceCount
                 );
-            } catch (CompileFailed ex) {
+            } catch (xsbti.CompileFailed ex) {
                 throw new GradleException("Compilation failed.", ex);
+            } catch (xsbti.CompileCancelled ex) {
+                throw new GradleException("Compilation was cancelled.", ex);
+            } finally {
+                stamper.save();
+                //noinspection ResultOfMethodCallIgnored
+                inProgressFile.delete();
             }
         };
     }
 
-    private static scala.collection.Seq<Path> convertFiles(Set<File> files) {
-        return JavaConverters.collectionAsScalaIterable(
-            files
-                .stream()
-                .map(File::toPath)
-                .collect(
-                    Collectors.toSet()
-                )
-        ).toSeq();
+    /**
+     * Returns the compilers for the given Scala version and compiler JAR files, sharing them with any other
+     * compilation in this process that uses the same ones. This saves each of them from loading the compiler
+     * classes and the bridge again, and lets them all benefit from the JIT compiler having warmed up already.
+     */
+    private static Compilers sharedCompilers(String scalaVersion, Set<File> scalacJars, String taskPath, Logger logger) {
+        String key = toolchainKey(scalaVersion, scalacJars);
+        synchronized (sharedCompilers) {
+            Compilers compilers = sharedCompilers.get(key);
+            if (compilers != null) {
+                logger.info("Reusing the Scala " + scalaVersion + " compiler of an earlier compilation.");
+                return compilers;
+            }
+        }
+
+        // Created outside of the lock, so that compilations for other Scala versions don't have to wait
+        Compilers compilers = takeWarmedUp(key, logger).orElseGet(() -> createCompilers(scalaVersion, scalacJars, taskPath));
+        synchronized (sharedCompilers) {
+            return sharedCompilers.computeIfAbsent(key, ignored -> compilers);
+        }
+    }
+
+    /**
+     * Creates the compilers for the given Scala version and compiler JAR files in the background, and warms them
+     * up by compiling the given sources. The first compilation that needs the same compilers gets these instead,
+     * waiting for them to be created if need be (but not for the warm-up compilation to finish).
+     *
+     * @param sources Sources to compile for the warm-up, the classpath is just the Scala library
+     * @param workDirectory Where to keep the outputs and the state of the warm-up compilation, they're recreated
+     * @param cancelled Whether the warm-up should stop, because it isn't needed (anymore)
+     */
+    static CompletableFuture<?> warmUp(String scalaVersion, Set<File> scalacJars, Set<File> sources,
+                                       File workDirectory, BooleanSupplier cancelled, Logger logger) {
+        String key = toolchainKey(scalaVersion, scalacJars);
+        CompletableFuture<Compilers> compilers = new CompletableFuture<>();
+        if (warmedUpCompilers.putIfAbsent(key, compilers) != null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return CompletableFuture.runAsync(() -> {
+            try {
+                compilers.complete(createCompilers(scalaVersion, scalacJars, ""));
+            } catch (RuntimeException | LinkageError ex) {
+                compilers.completeExceptionally(ex);
+                throw ex;
+            }
+            if (cancelled.getAsBoolean()) {
+                return;
+            }
+
+            deleteRecursively(new File(workDirectory, "state").toPath());
+            deleteRecursively(new File(workDirectory, "classes").toPath());
+            IncrementalOptions incrementalOptions =
+                new IncrementalOptions(new File(workDirectory, "state"), SourceStamper.Strategy.MTIME);
+            incrementalOptions.setProgress(new CompileProgressAdapter(() -> !cancelled.getAsBoolean()));
+            Set<File> libraryJars = scalacJars.stream()
+                .filter(file -> file.getName().contains("library"))
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+            createCompiler(scalaVersion, compilers.join(), incrementalOptions, logger)
+                .compile(sources, libraryJars, new File(workDirectory, "classes"), Collections.emptyList());
+        }, runnable -> {
+            Thread thread = new Thread(runnable, "Scala " + scalaVersion + " compiler warm-up");
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    /**
+     * Drops the compilers that were warmed up for the given Scala version and compiler JAR files, unless some
+     * compilation took them already.
+     */
+    static void discardWarmedUp(String scalaVersion, Set<File> scalacJars) {
+        warmedUpCompilers.remove(toolchainKey(scalaVersion, scalacJars));
+    }
+
+    private static Optional<Compilers> takeWarmedUp(String key, Logger logger) {
+        CompletableFuture<Compilers> compilers = warmedUpCompilers.remove(key);
+        if (compilers == null) {
+            return Optional.empty();
+        }
+
+        try {
+            Optional<Compilers> result = Optional.of(compilers.join());
+            logger.info("Using the compiler that was warmed up in the background.");
+            return result;
+        } catch (CompletionException | CancellationException ex) {
+            logger.debug("Cannot use the compiler that was warmed up in the background.", ex);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Identifies a compiler by its Scala version and the paths, sizes and modification times of its JAR files,
+     * i.e. a rebuilt or republished compiler (or bridge) doesn't get mixed up with the one that it replaces.
+     */
+    static String toolchainKey(String scalaVersion, Set<File> scalacJars) {
+        return scalacJars.stream()
+            .map(file -> file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified())
+            .sorted()
+            .collect(Collectors.joining(File.pathSeparator, scalaVersion + "|", ""));
+    }
+
+    /**
+     * Returns a map that keeps the given number of entries at most, evicting the least recently used one first.
+     * Not thread-safe, callers synchronize on the map itself.
+     */
+    static <V> Map<String, V> leastRecentlyUsed(int maxEntries) {
+        return new LinkedHashMap<String, V>(maxEntries * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                // An evicted compiler's class loader goes away as soon as no running compilation uses it anymore
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param taskPath The task that the compilers are created for, only used to label JFR events
+     */
+    private static Compilers createCompilers(String scalaVersion, Set<File> scalacJars, String taskPath) {
+        File bridgeJar = findBridgeJar(scalacJars);
+        Set<File> compilerJars = scalacJars.stream()
+            .filter(file -> !startsWithAny(file.getName(), BRIDGE_JAR_PREFIXES))
+            .filter(file -> !startsWithAny(file.getName(), INTERFACE_JAR_PREFIXES))
+            .collect(Collectors.toCollection(LinkedHashSet::new));
+
+        ScalaInstance scalaInstance;
+        try (CompilerEvents.Span ignored = CompilerEvents.scalaInstance(taskPath, scalaVersion)) {
+            scalaInstance = createScalaInstance(scalaVersion, compilerJars, taskPath);
+        }
+        AnalyzingCompiler scalaCompiler =
+            ZincUtil.scalaCompiler(scalaInstance, bridgeJar.toPath(), ClasspathOptionsUtil.auto());
+        return ZincUtil.compilers(scalaInstance, ClasspathOptionsUtil.auto(), Option.empty(), scalaCompiler);
+    }
+
+    private static CompileHistory readCompileHistory(IncrementalOptions incrementalOptions, Logger logger) {
+        try {
+            return CompileHistory.read(incrementalOptions.getCompileHistoryFile());
+        } catch (IOException ex) {
+            logger.debug("Ignoring unreadable compile history '" + incrementalOptions.getCompileHistoryFile() + "'.", ex);
+            return CompileHistory.empty();
+        }
+    }
+
+    private static void writeCompileHistory(CompileHistory history, IncrementalOptions incrementalOptions, Logger logger) {
+        try {
+            history.write(incrementalOptions.getCompileHistoryFile());
+        } catch (IOException ex) {
+            logger.debug("Cannot write compile history '" + incrementalOptions.getCompileHistoryFile() + "'.", ex);
+        }
+    }
+
+    private static void writeInvalidationReport(
+            InvalidationReport report, CompileAnalysis analysis, IncrementalOptions incrementalOptions, Logger logger) {
+        File reportFile = incrementalOptions.getInvalidationReportFile().get();
+        try {
+            report.after(analysis);
+            report.write(reportFile);
+            logger.lifecycle("Invalidation report written to " + reportFile);
+        } catch (IOException ex) {
+            logger.warn("Cannot write the invalidation report '" + reportFile + "': " + ex.getMessage());
+        }
+    }
+
+    private static void markInProgress(File inProgressFile) {
+        try {
+            Files.createDirectories(inProgressFile.getParentFile().toPath());
+            Files.write(inProgressFile.toPath(), new byte[0]);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Deletes the analysis and all the class files, including backups and staged originals of class files.
+     */
+    private static void discardState(IncrementalOptions incrementalOptions, File outputDir) {
+        deleteRecursively(incrementalOptions.getAnalysisFile().toPath());
+        deleteRecursively(incrementalOptions.getBackupDirectory().toPath());
+        deleteRecursively(incrementalOptions.getOriginalsDirectory().toPath());
+        deleteRecursively(outputDir.toPath());
+    }
+
+    private static void deleteRecursively(Path path) {
+        if (!Files.exists(path)) {
+            return;
+        }
+
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Returns the library files (i.e. JAR files or class files in directories) that the sources depend on.
+     */
+    private static Set<Path> libraryDependencies(CompileAnalysis analysis, FileConverter converter) {
+        Set<Path> result = new LinkedHashSet<>();
+        for (VirtualFileRef library : JavaConverters.setAsJavaSet(((Analysis) analysis).relations().allLibraryDeps())) {
+            result.add(converter.toPath(library));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the problems that the compiler reported for each source, as far as they are still relevant. The
+     * problems of sources that weren't recompiled this time are replayed, as they wouldn't show up otherwise.
+     */
+    private static Diagnostics diagnostics(
+            CompileAnalysis analysis, FileConverter converter, ReporterAdapter reporter, Logger logger) {
+        Map<String, Problem[]> problems = new LinkedHashMap<>();
+        Set<String> unreported = new HashSet<>();
+        for (Map.Entry<VirtualFileRef, SourceInfo> info : analysis.readSourceInfos().getAllSourceInfos().entrySet()) {
+            String source = converter.toPath(info.getKey()).toAbsolutePath().toString();
+            problems.put(source, info.getValue().getReportedProblems());
+            if (!reporter.hasReported(source) && !reporter.hasReported(info.getKey().id())) {
+                unreported.add(source);
+            }
+        }
+
+        Diagnostics diagnostics = Diagnostics.of(problems);
+        diagnostics.replay(logger, unreported::contains);
+        return diagnostics;
+    }
+
+    private static List<Path> toPaths(Set<File> files) {
+        return files.stream().map(File::toPath).collect(Collectors.toList());
+    }
+
+    private static VirtualFile[] toVirtualFiles(Set<File> files, FileConverter converter) {
+        List<VirtualFile> result = new ArrayList<>(files.size());
+        for (File file : files) {
+            result.add(converter.toVirtualFile(file.toPath()));
+        }
+        return result.toArray(new VirtualFile[0]);
     }
 
     /**
      * @param scalaVersion The full version of Scala that is configured for this project, e.g. 2.12.9
      * @param scalacJars The full set of JAR files that are necessary for the compiler itself
+     * @param taskPath The task that the compiler is created for, only used to label JFR events
      */
-    private static ScalaInstance createScalaInstance(String scalaVersion, Set<File> scalacJars) {
-        ClassLoader classLoader = createClassLoader(scalacJars);
+    private static ScalaInstance createScalaInstance(String scalaVersion, Set<File> scalacJars, String taskPath) {
+        ClassLoader classLoader;
+        try (CompilerEvents.Span ignored = CompilerEvents.classLoader(taskPath, scalaVersion, scalacJars.size())) {
+            classLoader = createClassLoader(scalacJars);
+        }
         File libraryJar = findByName(scalacJars, "library");
         File compilerJar = findByName(scalacJars, "compiler");
         return new ScalaInstance(
@@ -101,6 +527,31 @@ final class ScalaCompilerFactory {
         );
     }
 
+    /**
+     * Returns the JAR file of the compiler bridge, i.e. the glue between Zinc and a particular compiler version.
+     */
+    private static File findBridgeJar(Set<File> scalacJars) {
+        return scalacJars.stream()
+            .filter(Objects::nonNull)
+            .filter(file -> startsWithAny(file.getName(), BRIDGE_JAR_PREFIXES))
+            .findFirst()
+            .orElseThrow(() ->
+                new GradleException(
+                    "Cannot find the JAR file for the compiler bridge in '" + scalacJars + "'. If you declare " +
+                        "the compiler dependencies yourself, please make sure to include the bridge as well, e.g. " +
+                        "`scalac 'org.scala-sbt:compiler-bridge_2.13:1.6.1'`.")
+            );
+    }
+
+    private static boolean startsWithAny(String name, String[] prefixes) {
+        for (String prefix : prefixes) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Returns the file that matches the given name or throws an exception otherwise.
      */
@@ -139,7 +590,45 @@ final class ScalaCompilerFactory {
                             + file + " cannot be converted to a URL.", ex);
                 }
             })
-            .toArray(URL[]::new), null);
+            .toArray(URL[]::new), new CompilerInterfaceClassLoader());
+    }
+
+    /**
+     * The parent of the compiler class loaders: Exposes the classes of the compiler interface (i.e. `xsbti.*`)
+     * as loaded by Zinc, but nothing else apart from the JDK. The compiler and Zinc need to agree on these.
+     */
+    private static final class CompilerInterfaceClassLoader extends ClassLoader {
+
+        private CompilerInterfaceClassLoader() {
+            super(null);
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            if (name.startsWith("xsbti.")) {
+                return ScalaCompilerFactory.class.getClassLoader().loadClass(name);
+            }
+            throw new ClassNotFoundException(name);
+        }
+
+    }
+
+    /**
+     * Tells Zinc where to find classes on the classpath. We don't have any analysis for classpath entries
+     * at the moment, so any change to a classpath entry is treated as a change to a library.
+     */
+    private static final class ClasspathEntryLookup implements PerClasspathEntryLookup {
+
+        @Override
+        public Optional<CompileAnalysis> analysis(VirtualFile classpathEntry) {
+            return Optional.empty();
+        }
+
+        @Override
+        public DefinesClass definesClass(VirtualFile classpathEntry) {
+            return Locate.definesClass(classpathEntry);
+        }
+
     }
 
 }
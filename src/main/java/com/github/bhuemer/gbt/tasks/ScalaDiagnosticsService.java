@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks;
+
+import com.github.bhuemer.gbt.tasks.support.Diagnostics;
+import org.gradle.api.file.RegularFile;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.gradle.tooling.events.FinishEvent;
+import org.gradle.tooling.events.OperationCompletionListener;
+import org.gradle.tooling.events.task.TaskFinishEvent;
+import org.gradle.tooling.events.task.TaskSuccessResult;
+
+import java.io.IOException;
+
+/**
+ * Replays the problems (errors, warnings, etc.) that the compiler reported earlier whenever a Scala compile task
+ * is up-to-date or loaded from the build cache, so that these don't disappear until the next full recompilation.
+ *
+ * There's one such service for the whole build. Task finish events don't tell anything but the task path, so it
+ * looks up the diagnostics file of each compile task by its path, see {@link Parameters#getDiagnosticsFiles()}.
+ */
+public abstract class ScalaDiagnosticsService implements BuildService<ScalaDiagnosticsService.Parameters>,
+        OperationCompletionListener {
+
+    /** The name under which this service is registered. */
+    public static final String SERVICE_NAME = "scalaDiagnostics";
+
+    /** The logger instance for this service. */
+    private static final Logger logger = Logging.getLogger(ScalaDiagnosticsService.class);
+
+    public interface Parameters extends BuildServiceParameters {
+
+        /** The diagnostics file of each compile task in the build, by task path. */
+        MapProperty<String, RegularFile> getDiagnosticsFiles();
+
+    }
+
+    @Override
+    public void onFinish(FinishEvent event) {
+        if (!(event instanceof TaskFinishEvent) || !(event.getResult() instanceof TaskSuccessResult)) {
+            return;
+        }
+
+        TaskSuccessResult result = (TaskSuccessResult) event.getResult();
+        if (!result.isUpToDate() && !result.isFromCache()) {
+            // The compiler ran, so it has reported all the problems itself already
+            return;
+        }
+
+        String taskPath = ((TaskFinishEvent) event).getDescriptor().getTaskPath();
+        RegularFile diagnosticsFile = getParameters().getDiagnosticsFiles().get().get(taskPath);
+        if (diagnosticsFile == null || !diagnosticsFile.getAsFile().isFile()) {
+            return;
+        }
+
+        try {
+            Diagnostics diagnostics = Diagnostics.read(diagnosticsFile.getAsFile());
+            if (!diagnostics.isEmpty()) {
+                logger.lifecycle("Problems reported by earlier compilations of " + taskPath + ":");
+                diagnostics.replay(logger);
+            }
+        } catch (IOException ex) {
+            logger.warn("Cannot replay the problems reported by earlier compilations of " + taskPath + ": " + ex.getMessage());
+        }
+    }
+
+}
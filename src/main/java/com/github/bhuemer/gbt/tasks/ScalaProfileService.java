@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks;
+
+import com.github.bhuemer.gbt.tasks.support.ChromeTraces;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects the compiler trace files of all the Scala compile tasks that were profiled in a build. Once the
+ * build finishes, these traces are merged into a single Chrome trace file and summarised in a hotspot report
+ * listing the slowest files, implicit searches and macro expansions.
+ */
+public abstract class ScalaProfileService implements BuildService<ScalaProfileService.Parameters>, AutoCloseable {
+
+    /** The name under which this service is registered. */
+    public static final String SERVICE_NAME = "scalaProfile";
+
+    /** The number of entries to list per category in the hotspot report. */
+    private static final int HOTSPOT_LIMIT = 50;
+
+    /** The logger instance for this service. */
+    private static final Logger logger = Logging.getLogger(ScalaProfileService.class);
+
+    /** The trace files that have been recorded so far, keyed by task path. */
+    private final Map<String, File> traces = new TreeMap<>();
+
+    public interface Parameters extends BuildServiceParameters {
+
+        /** The directory to write the merged trace and the hotspot report to. */
+        DirectoryProperty getReportsDirectory();
+
+    }
+
+    /**
+     * Records the trace file produced by the given task, so that it will be included in the build-wide reports.
+     */
+    public synchronized void addTrace(String taskPath, File traceFile) {
+        traces.put(taskPath, traceFile);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (traces.isEmpty()) {
+            return;
+        }
+
+        Map<String, List<Map<String, Object>>> events = new LinkedHashMap<>();
+        ChromeTraces.Hotspots hotspots = new ChromeTraces.Hotspots();
+        for (Map.Entry<String, File> trace : traces.entrySet()) {
+            try {
+                List<Map<String, Object>> traceEvents = ChromeTraces.readEvents(trace.getValue());
+                events.put(trace.getKey(), traceEvents);
+                hotspots.add(trace.getKey(), traceEvents);
+            } catch (IOException | IllegalArgumentException ex) {
+                logger.warn("Cannot read the compiler trace of '" + trace.getKey() + "': " + ex.getMessage());
+            }
+        }
+
+        File reportsDir = getParameters().getReportsDirectory().get().getAsFile();
+        File mergedTrace = new File(reportsDir, "build.trace.json");
+        File hotspotReport = new File(reportsDir, "hotspots.txt");
+        ChromeTraces.writeMerged(events, mergedTrace);
+        hotspots.writeReport(hotspotReport, HOTSPOT_LIMIT);
+
+        logger.lifecycle("Scala compiler profile written to " + mergedTrace + ", hotspots in " + hotspotReport);
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks;
+
+import com.github.bhuemer.gbt.tasks.support.MappedSourceFile;
+import com.github.bhuemer.gbt.tasks.support.ScalaSourceNormalizer;
+import net.openhft.hashing.LongHashFunction;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.tasks.IgnoreEmptyDirectories;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.SkipWhenEmpty;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.TreeSet;
+
+/**
+ * Writes a fingerprint of Scala sources that ignores comments and insignificant whitespace, see
+ * {@link ScalaSourceNormalizer}. If it's configured on a compile task (see {@link ScalaCompile#getSourceFingerprint()}),
+ * it replaces the contents of the sources in the inputs of that task, so that changing only comments or formatting
+ * leaves the task up-to-date and lets it be loaded from the build cache.
+ *
+ * Each line of the fingerprint is the absolute path of a source, followed by the hash of its normalized content
+ * (prefixed with `n:`), or of its raw content (prefixed with `r:`) if it's not a Scala source or can't be normalized.
+ */
+public abstract class ScalaSourceFingerprint extends DefaultTask {
+
+    private static final LongHashFunction HASH_FUNCTION = LongHashFunction.farmNa();
+
+    /** The source files to fingerprint */
+    @InputFiles
+    @SkipWhenEmpty @IgnoreEmptyDirectories
+    @PathSensitive(PathSensitivity.ABSOLUTE)
+    public abstract ConfigurableFileCollection getSource();
+
+    @OutputFile
+    public abstract RegularFileProperty getFingerprintFile();
+
+    @TaskAction
+    public void fingerprint() throws IOException {
+        File fingerprintFile = getFingerprintFile().get().getAsFile();
+        Files.createDirectories(fingerprintFile.getParentFile().toPath());
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(fingerprintFile.toPath(), StandardCharsets.UTF_8))) {
+            for (File source : new TreeSet<>(getSource().getFiles())) {
+                out.print(source.getAbsolutePath());
+                out.print('\t');
+                out.println(fingerprint(source.toPath()));
+            }
+        }
+    }
+
+    static String fingerprint(Path source) throws IOException {
+        if (source.getFileName().toString().endsWith(".scala")) {
+            ByteBuffer content = MappedSourceFile.read(source);
+            try {
+                String text = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(content)
+                    .toString();
+                return "n:" + Long.toHexString(HASH_FUNCTION.hashChars(ScalaSourceNormalizer.normalize(text)));
+            } catch (CharacterCodingException ex) {
+                // Not UTF-8, so we wouldn't know where comments start and end
+            }
+        }
+        return "r:" + Long.toHexString(MappedSourceFile.hash(source));
+    }
+
+}
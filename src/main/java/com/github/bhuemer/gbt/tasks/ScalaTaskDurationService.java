@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks;
+
+import com.github.bhuemer.gbt.tasks.support.TaskDurations;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.gradle.tooling.events.FinishEvent;
+import org.gradle.tooling.events.OperationCompletionListener;
+import org.gradle.tooling.events.task.TaskFinishEvent;
+import org.gradle.tooling.events.task.TaskSuccessResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Records how long the Scala compile tasks of a build take, and plans which of them should start first in the
+ * next build, so that the critical path (i.e. the longest chain of dependent compile tasks) starts as early as
+ * possible. The plan is based on the task graph of the current build, see {@link Parameters#getTaskGraph()}, and
+ * kept in a file of its own that the next build reads when it builds its task graph.
+ */
+public abstract class ScalaTaskDurationService implements BuildService<ScalaTaskDurationService.Parameters>,
+        OperationCompletionListener, AutoCloseable {
+
+    /** The name under which this service is registered. */
+    public static final String SERVICE_NAME = "scalaTaskDurations";
+
+    /** The logger instance for this service. */
+    private static final Logger logger = Logging.getLogger(ScalaTaskDurationService.class);
+
+    /** The durations recorded so far, loaded on first use */
+    private TaskDurations durations;
+
+    /** The Scala compile tasks that run in this build and their dependencies on each other, loaded on first use */
+    private Map<String, Set<String>> taskGraph;
+
+    public interface Parameters extends BuildServiceParameters {
+
+        /** The file to keep the durations in between builds. */
+        RegularFileProperty getDurationsFile();
+
+        /** The file to keep the planned task order in, it only changes when the plan does. */
+        RegularFileProperty getPlanFile();
+
+        /**
+         * The Scala compile tasks in the task graph of this build and the compile tasks that each of them depends
+         * on, directly or transitively, keyed by task path. It's worked out once the task graph is ready, and
+         * restored along with the task graph when the configuration cache is reused.
+         */
+        MapProperty<String, Set<String>> getTaskGraph();
+
+    }
+
+    @Override
+    public void onFinish(FinishEvent event) {
+        if (!(event instanceof TaskFinishEvent) || !(event.getResult() instanceof TaskSuccessResult)) {
+            return;
+        }
+
+        TaskSuccessResult result = (TaskSuccessResult) event.getResult();
+        if (result.isUpToDate() || result.isFromCache()) {
+            // Says nothing about how long the task takes when it actually has to run
+            return;
+        }
+
+        String taskPath = ((TaskFinishEvent) event).getDescriptor().getTaskPath();
+        synchronized (this) {
+            if (taskGraph().containsKey(taskPath)) {
+                durations().record(taskPath, result.getEndTime() - result.getStartTime());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (taskGraph().isEmpty()) {
+            return;
+        }
+
+        List<String> criticalPath = durations().plan(taskGraph());
+        if (!criticalPath.isEmpty()) {
+            logger.info("Critical path of the Scala compile tasks: " + String.join(" -> ", criticalPath));
+        }
+        durations().write(getParameters().getDurationsFile().get().getAsFile());
+        if (durations().writePlan(getParameters().getPlanFile().get().getAsFile())) {
+            logger.info("The planned order of the Scala compile tasks has changed, it applies from the next build.");
+        }
+    }
+
+    private Map<String, Set<String>> taskGraph() {
+        if (taskGraph == null) {
+            taskGraph = getParameters().getTaskGraph().get();
+        }
+        return taskGraph;
+    }
+
+    private TaskDurations durations() {
+        if (durations == null) {
+            File durationsFile = getParameters().getDurationsFile().get().getAsFile();
+            try {
+                durations = TaskDurations.read(durationsFile);
+            } catch (IOException ex) {
+                logger.debug("Ignoring unreadable task durations '" + durationsFile + "'.", ex);
+                durations = TaskDurations.empty();
+            }
+        }
+        return durations;
+    }
+
+}
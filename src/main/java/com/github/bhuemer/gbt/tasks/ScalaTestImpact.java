@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks;
+
+import com.github.bhuemer.gbt.tasks.support.TestSelection;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.process.ExecOperations;
+import org.gradle.process.ExecResult;
+
+import javax.inject.Inject;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Selects the test classes that are affected by the changes since a given revision, based on the dependencies
+ * between the Scala sources of the main and the test source set. The `test` task only runs the selected test
+ * classes then. All test classes are selected whenever the changes or their impact cannot be determined, e.g.
+ * if no revision is configured, if either source set hasn't been compiled or if anything but Scala sources
+ * changed in their source directories. Changes anywhere else are ignored.
+ *
+ * The changes are determined with `git`, so this task is never up-to-date.
+ */
+public abstract class ScalaTestImpact extends DefaultTask {
+
+    /** The logger instance for this task. */
+    private static final Logger logger = Logging.getLogger(ScalaTestImpact.class);
+
+    public ScalaTestImpact() {
+        getOutputs().upToDateWhen(task -> false);
+    }
+
+    /** The analysis of the main compile task */
+    @Internal
+    public abstract RegularFileProperty getMainAnalysisFile();
+
+    /** The analysis of the test compile task */
+    @Internal
+    public abstract RegularFileProperty getTestAnalysisFile();
+
+    /** The source and resource directories of the main and the test source set, other changes are ignored */
+    @Internal
+    public abstract ConfigurableFileCollection getSourceDirectories();
+
+    /** The revision to compare with, e.g. `origin/main`. If it's not set, all test classes are selected. */
+    @Internal
+    public abstract Property<String> getSinceRevision();
+
+    /** The directory to run `git` in, usually the root directory of the build */
+    @Internal
+    public abstract DirectoryProperty getWorkingDirectory();
+
+    /** The file that the selected test classes are written to */
+    @OutputFile
+    public abstract RegularFileProperty getSelectionFile();
+
+    @Inject
+    protected abstract ExecOperations getExecOperations();
+
+    @TaskAction
+    public void select() throws IOException {
+        TestSelection selection = createSelection();
+        selection.write(getSelectionFile().get().getAsFile());
+        if (getSinceRevision().isPresent()) {
+            logger.lifecycle("Selected " + selection + ".");
+        } else {
+            logger.info("Selected " + selection + ".");
+        }
+        if (!selection.isAll() && logger.isInfoEnabled()) {
+            logger.info("Selected test classes:\n  " + String.join("\n  ", selection.getTestClasses()));
+        }
+    }
+
+    private TestSelection createSelection() {
+        if (!getSinceRevision().isPresent()) {
+            return TestSelection.all("no revision to compare with");
+        }
+
+        Optional<TestImpactAnalysis> analysis = TestImpactAnalysis.load(
+            getMainAnalysisFile().get().getAsFile(), getTestAnalysisFile().get().getAsFile());
+        if (!analysis.isPresent()) {
+            return TestSelection.all("no analysis of the main and test sources");
+        }
+
+        Set<Path> changedFiles;
+        try {
+            changedFiles = changedFiles(getSinceRevision().get());
+        } catch (GradleException ex) {
+            logger.warn("Cannot determine the changes since '" + getSinceRevision().get() + "': " + ex.getMessage());
+            return TestSelection.all("unknown changes");
+        }
+        Set<Path> sourceDirectories = new LinkedHashSet<>();
+        for (File directory : getSourceDirectories().getFiles()) {
+            sourceDirectories.add(directory.toPath());
+        }
+        return analysis.get().select(changedFiles, sourceDirectories);
+    }
+
+    /**
+     * Returns all files that differ from the given revision, including uncommitted and untracked ones.
+     */
+    private Set<Path> changedFiles(String revision) {
+        Path topLevel = Paths.get(git("rev-parse", "--show-toplevel").get(0));
+
+        Set<Path> result = new LinkedHashSet<>();
+        for (String file : git("diff", "--name-only", revision)) {
+            result.add(topLevel.resolve(file));
+        }
+        for (String file : git("ls-files", "--others", "--exclude-standard", "--full-name", topLevel.toString())) {
+            result.add(topLevel.resolve(file));
+        }
+        return result;
+    }
+
+    private List<String> git(String... arguments) {
+        File workingDirectory = getWorkingDirectory().get().getAsFile();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        ExecResult result = getExecOperations().exec(spec -> {
+            spec.setWorkingDir(workingDirectory);
+            spec.commandLine("git");
+            spec.args((Object[]) arguments);
+            spec.setStandardOutput(output);
+            spec.setErrorOutput(errors);
+            spec.setIgnoreExitValue(true);
+        });
+        if (result.getExitValue() != 0) {
+            throw new GradleException("git " + String.join(" ", arguments) + " failed: "
+                + new String(errors.toByteArray(), StandardCharsets.UTF_8).trim());
+        }
+
+        String text = new String(output.toByteArray(), StandardCharsets.UTF_8).trim();
+        return text.isEmpty() ? Collections.emptyList() : Arrays.asList(text.split("\\R"));
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * Starts warming up the Scala compiler in the background, see {@link ScalaWarmUpService}, and finishes right away.
+ * Compile tasks that run in the Gradle daemon depend on it, so that it only runs if one of them does, and as early
+ * as possible, i.e. while Gradle is still busy with the other tasks that these compile tasks depend on.
+ *
+ * The task has no outputs, so it's never up-to-date.
+ */
+public abstract class ScalaWarmUp extends DefaultTask {
+
+    /** The Scala version of the compiler to warm up */
+    @Internal
+    public abstract Property<String> getScalaVersion();
+
+    /** The JAR files of the compiler to warm up */
+    @Internal
+    public abstract ConfigurableFileCollection getScalacClasspath();
+
+    /** Where to keep the sources, the outputs and the state of the warm-up compilation */
+    @Internal
+    public abstract DirectoryProperty getWorkDirectory();
+
+    /** The service that keeps the warmed-up compilers until a compile task takes them */
+    @Internal
+    public abstract Property<ScalaWarmUpService> getWarmUpService();
+
+    @TaskAction
+    public void warmUp() {
+        getWarmUpService().get().start(
+            getScalaVersion().get(), getScalacClasspath().getFiles(), getWorkDirectory().get().getAsFile());
+    }
+
+}
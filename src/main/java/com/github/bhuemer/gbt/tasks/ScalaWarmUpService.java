@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warms up Scala compilers in the background while Gradle is still busy with the tasks that the compile tasks
+ * depend on, i.e. loads the compiler classes and compiles a tiny program so that the JIT compiler gets going.
+ * The first compile task that needs a compiler gets the warmed-up one. This only helps compile tasks that run
+ * in the Gradle daemon, forked compilers start in new worker processes anyway. The warm-up is started by the
+ * {@link ScalaWarmUp} task, and the compilers that no compile task took are dropped when the build finishes.
+ */
+public abstract class ScalaWarmUpService implements BuildService<BuildServiceParameters.None>, AutoCloseable {
+
+    /** The name under which this service is registered. */
+    public static final String SERVICE_NAME = "scalaWarmUp";
+
+    /** The program that's compiled to warm up the compiler, using a bit of everything without taking long */
+    private static final String WARM_UP_SOURCE = String.join("\n",
+        "object WarmUp {",
+        "  final case class Item(name: String, weight: Int)",
+        "",
+        "  def main(args: Array[String]): Unit = {",
+        "    val items = List(Item(\"a\", 1), Item(\"b\", 2)).map(item => item.copy(weight = item.weight * 2))",
+        "    println(items.filter(_.weight > 1).map(_.name).mkString(\", \") + items.map(_.weight).sum)",
+        "  }",
+        "}",
+        "");
+
+    /** The logger instance for this service. */
+    private static final Logger logger = Logging.getLogger(ScalaWarmUpService.class);
+
+    /** The compilers that are being warmed up, or have been */
+    private final List<WarmUp> warmUps = new ArrayList<>();
+
+    /** Whether the build doesn't need any warmed-up compilers (anymore) */
+    private volatile boolean cancelled;
+
+    /**
+     * Starts warming up the compiler for the given Scala version and compiler JAR files, unless that is already
+     * happening or the warm-up has been cancelled.
+     *
+     * @param workDirectory Where to keep the sources, the outputs and the state of the warm-up compilation
+     */
+    public synchronized void start(String scalaVersion, Set<File> scalacJars, File workDirectory) {
+        if (cancelled || warmUps.stream().anyMatch(warmUp -> warmUp.scalacJars.equals(scalacJars))) {
+            return;
+        }
+
+        File source = new File(workDirectory, "src/WarmUp.scala");
+        try {
+            Files.createDirectories(source.getParentFile().toPath());
+            Files.write(source.toPath(), WARM_UP_SOURCE.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            logger.debug("Cannot write the source to warm up the Scala " + scalaVersion + " compiler with.", ex);
+            return;
+        }
+
+        long start = System.nanoTime();
+        logger.info("Warming up the Scala " + scalaVersion + " compiler in the background.");
+        ScalaCompilerFactory.warmUp(scalaVersion, scalacJars, Collections.singleton(source), workDirectory,
+                () -> cancelled, logger)
+            .whenComplete((ignored, ex) -> {
+                if (ex != null) {
+                    logger.debug("Warming up the Scala " + scalaVersion + " compiler didn't finish.", ex);
+                } else {
+                    logger.info("Warmed up the Scala " + scalaVersion + " compiler in "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
+                }
+            });
+        warmUps.add(new WarmUp(scalaVersion, scalacJars));
+    }
+
+    /**
+     * Stops all warm-ups, and drops the compilers that no compile task has taken.
+     */
+    private synchronized void cancel() {
+        cancelled = true;
+        for (WarmUp warmUp : warmUps) {
+            ScalaCompilerFactory.discardWarmedUp(warmUp.scalaVersion, warmUp.scalacJars);
+        }
+    }
+
+    @Override
+    public void close() {
+        cancel();
+    }
+
+    private static final class WarmUp {
+
+        private final String scalaVersion;
+
+        private final Set<File> scalacJars;
+
+        private WarmUp(String scalaVersion, Set<File> scalacJars) {
+            this.scalaVersion = scalaVersion;
+            this.scalacJars = scalacJars;
+        }
+
+    }
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks;
+
+import com.github.bhuemer.gbt.tasks.support.ScalafmtCache;
+import com.github.bhuemer.gbt.tasks.support.ScalafmtFormatter;
+import net.openhft.hashing.LongHashFunction;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.IgnoreEmptyDirectories;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.SkipWhenEmpty;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Collectors;
+
+/**
+ * Formats Scala sources with scalafmt, or only checks whether they are formatted (see {@link #getCheckOnly()}).
+ *
+ * Only the sources that changed since they were last known to be formatted are passed on to the formatter, based
+ * on the content hashes in the cache file (see {@link #getCacheFile()}), and those are formatted in parallel. The
+ * cache file can be shared between the format and the check task of a source set, so that checking the sources
+ * right after formatting them is cheap. Checks can be loaded from the build cache as well.
+ */
+public abstract class Scalafmt extends DefaultTask {
+
+    /** The logger instance for this task. */
+    private static final Logger logger = Logging.getLogger(Scalafmt.class);
+
+    private static final LongHashFunction HASH_FUNCTION = LongHashFunction.farmNa();
+
+    public Scalafmt() {
+        getCheckOnly().convention(false);
+
+        // Formatting rewrites the sources, which isn't something the build cache could restore
+        getOutputs().cacheIf("Only checks are cacheable", task -> getCheckOnly().get());
+    }
+
+    /**
+     * Returns whether to only check that sources are formatted (and fail if they are not), rather than format them.
+     */
+    @Input
+    public abstract Property<Boolean> getCheckOnly();
+
+    /** The source files to format or check */
+    @InputFiles
+    @SkipWhenEmpty @IgnoreEmptyDirectories
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract ConfigurableFileCollection getSource();
+
+    /** The scalafmt configuration, i.e. usually the `.scalafmt.conf` file in the root project */
+    @InputFile @Optional
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getConfigFile();
+
+    /** The JAR files of scalafmt, i.e. `scalafmt-core` and its dependencies */
+    @Classpath
+    public abstract ConfigurableFileCollection getFormatterClasspath();
+
+    /** Lists the sources that were not formatted, or that could not be formatted */
+    @OutputFile
+    public abstract RegularFileProperty getReportFile();
+
+    /** Keeps the content hashes of the sources that are known to be formatted between builds */
+    @Internal
+    public abstract RegularFileProperty getCacheFile();
+
+    @TaskAction
+    public void format() throws IOException {
+        boolean checkOnly = getCheckOnly().get();
+        List<File> classpath = getFormatterClasspath().getFiles().stream().sorted().collect(Collectors.toList());
+        String configuration = getConfigFile().isPresent()
+            ? new String(Files.readAllBytes(getConfigFile().get().getAsFile().toPath()), StandardCharsets.UTF_8)
+            : "";
+
+        File cacheFile = getCacheFile().get().getAsFile();
+        String cacheKey = cacheKey(classpath, configuration);
+        ScalafmtCache cache;
+        try {
+            cache = ScalafmtCache.read(cacheFile, cacheKey);
+        } catch (IOException ex) {
+            logger.debug("Ignoring unreadable scalafmt cache '" + cacheFile + "'.", ex);
+            cache = ScalafmtCache.empty(cacheKey);
+        }
+
+        ScalafmtCache formatted = cache;
+        List<File> pending = getSource().getFiles().parallelStream()
+            .filter(source -> !formatted.isFormatted(source, hash(source)))
+            .sorted()
+            .collect(Collectors.toList());
+        logger.info(String.format("%d of %d source(s) changed since they were last formatted.",
+            pending.size(), getSource().getFiles().size()));
+
+        Map<File, String> failures = new ConcurrentSkipListMap<>();
+        Set<File> unformatted = new ConcurrentSkipListSet<>();
+        if (!pending.isEmpty()) {
+            ScalafmtFormatter formatter;
+            try {
+                formatter = ScalafmtFormatter.load(classpath, configuration);
+            } catch (IllegalArgumentException | IllegalStateException ex) {
+                throw new GradleException(ex.getMessage(), ex);
+            }
+
+            pending.parallelStream().forEach(source -> {
+                try {
+                    String code = new String(Files.readAllBytes(source.toPath()), StandardCharsets.UTF_8);
+                    String result = formatter.format(code, source.getPath());
+                    if (result.equals(code)) {
+                        formatted.markFormatted(source, hash(source));
+                    } else if (checkOnly) {
+                        formatted.forget(source);
+                        unformatted.add(source);
+                    } else {
+                        Files.write(source.toPath(), result.getBytes(StandardCharsets.UTF_8));
+                        formatted.markFormatted(source, hash(source));
+                        unformatted.add(source);
+                    }
+                } catch (IOException | UncheckedIOException | IllegalArgumentException ex) {
+                    formatted.forget(source);
+                    failures.put(source, String.valueOf(ex.getMessage()));
+                }
+            });
+        }
+
+        try {
+            formatted.write(cacheFile);
+        } catch (IOException ex) {
+            logger.warn("Cannot write scalafmt cache '" + cacheFile + "': " + ex.getMessage());
+        }
+
+        writeReport(getReportFile().get().getAsFile(), checkOnly, unformatted, failures);
+        if (!failures.isEmpty() || (checkOnly && !unformatted.isEmpty())) {
+            StringBuilder message = new StringBuilder();
+            if (!unformatted.isEmpty()) {
+                message.append(String.format("%d source(s) are not formatted, run '%s' to format them:",
+                    unformatted.size(), getName().replace("Check", "")));
+                unformatted.forEach(source -> message.append(System.lineSeparator()).append("  ").append(source));
+                message.append(System.lineSeparator());
+            }
+            failures.forEach((source, failure) -> message.append("Cannot format ")
+                .append(source).append(": ").append(failure).append(System.lineSeparator()));
+            throw new GradleException(message.toString().trim());
+        }
+        if (!unformatted.isEmpty()) {
+            logger.lifecycle(String.format("Formatted %d source(s).", unformatted.size()));
+        }
+    }
+
+    private static void writeReport(File reportFile, boolean checkOnly,
+                                    Set<File> unformatted, Map<File, String> failures) throws IOException {
+        Files.createDirectories(reportFile.getAbsoluteFile().getParentFile().toPath());
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(reportFile.toPath(), StandardCharsets.UTF_8))) {
+            for (File source : new TreeSet<>(unformatted)) {
+                out.println((checkOnly ? "unformatted\t" : "formatted\t") + source.getAbsolutePath());
+            }
+            failures.forEach((source, failure) ->
+                out.println("failed\t" + source.getAbsolutePath() + "\t" + failure.replaceAll("\\s+", " ")));
+        }
+    }
+
+    /**
+     * Identifies the formatter and its configuration, i.e. whatever decides how the sources should be formatted.
+     */
+    private static String cacheKey(List<File> classpath, String configuration) {
+        StringBuilder key = new StringBuilder(configuration);
+        for (File file : classpath) {
+            key.append('\n').append(file.getName()).append(':').append(file.length());
+        }
+        return Long.toHexString(HASH_FUNCTION.hashChars(key));
+    }
+
+    /**
+     * Hashes a copy of the content on the heap rather than map the file into memory, as a mapped file can't be
+     * written (e.g. formatted) on Windows until the mapping is garbage collected.
+     */
+    private static long hash(File source) {
+        try {
+            return HASH_FUNCTION.hashBytes(Files.readAllBytes(source.toPath()));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+}
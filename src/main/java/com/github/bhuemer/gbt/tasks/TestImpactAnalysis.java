@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks;
+
+import com.github.bhuemer.gbt.tasks.support.TestSelection;
+import sbt.internal.inc.Analysis;
+import sbt.internal.inc.FileAnalysisStore;
+import sbt.internal.inc.PlainVirtualFileConverter;
+import sbt.internal.inc.Relations;
+import scala.collection.JavaConverters;
+import xsbti.FileConverter;
+import xsbti.VirtualFileRef;
+import xsbti.compile.AnalysisContents;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Determines which test classes are affected by changes to Scala sources, based on the dependencies between
+ * sources that the incremental compiler recorded in the analysis of the main and the test compile task.
+ *
+ * Main classes are on the classpath of the test compile task, so the test analysis knows them as library
+ * classes, i.e. by their binary name. Everything is resolved conservatively: As soon as a changed file in the
+ * source directories of this project isn't a source that either analysis knows about (e.g. a deleted source, a
+ * Java source or a resource), all test classes are selected. Changes outside of these directories, e.g. in other
+ * projects or in the documentation, don't affect the selection.
+ */
+final class TestImpactAnalysis {
+
+    private final Relations mainRelations;
+
+    private final Relations testRelations;
+
+    private final FileConverter converter = PlainVirtualFileConverter.converter();
+
+    TestImpactAnalysis(Relations mainRelations, Relations testRelations) {
+        this.mainRelations = mainRelations;
+        this.testRelations = testRelations;
+    }
+
+    /**
+     * Loads the analysis files of the main and the test compile task, if both exist.
+     */
+    static Optional<TestImpactAnalysis> load(File mainAnalysisFile, File testAnalysisFile) {
+        Optional<Relations> mainRelations = loadRelations(mainAnalysisFile);
+        Optional<Relations> testRelations = loadRelations(testAnalysisFile);
+        if (!mainRelations.isPresent() || !testRelations.isPresent()) {
+            return Optional.empty();
+        }
+        return Optional.of(new TestImpactAnalysis(mainRelations.get(), testRelations.get()));
+    }
+
+    private static Optional<Relations> loadRelations(File analysisFile) {
+        if (!analysisFile.isFile()) {
+            return Optional.empty();
+        }
+        return FileAnalysisStore.binary(analysisFile).get()
+            .map(AnalysisContents::getAnalysis)
+            .map(analysis -> ((Analysis) analysis).relations());
+    }
+
+    /**
+     * Selects the test classes that transitively depend on any of the given changed files. Only files in the given
+     * source (and resource) directories are considered, all others are ignored.
+     */
+    TestSelection select(Collection<Path> changedFiles, Collection<Path> sourceDirectories) {
+        Map<Path, VirtualFileRef> mainSources = sourcesByPath(mainRelations);
+        Map<Path, VirtualFileRef> testSources = sourcesByPath(testRelations);
+
+        int changedSourceCount = 0;
+        Set<String> changedMainClasses = new HashSet<>();
+        Set<String> changedTestClasses = new HashSet<>();
+        for (Path changedFile : changedFiles) {
+            Path path = changedFile.toAbsolutePath().normalize();
+            if (mainSources.containsKey(path)) {
+                changedMainClasses.addAll(asJava(mainRelations.classNames(mainSources.get(path))));
+            } else if (testSources.containsKey(path)) {
+                changedTestClasses.addAll(asJava(testRelations.classNames(testSources.get(path))));
+            } else if (isInAny(path, sourceDirectories)) {
+                return TestSelection.all("'" + changedFile + "' changed, but it is not a known Scala source");
+            } else {
+                continue;
+            }
+            changedSourceCount++;
+        }
+
+        // Main classes that are affected by the change, then test classes that use any of them
+        Set<String> affectedTestClasses = new HashSet<>(changedTestClasses);
+        for (String mainClass : dependentsOf(mainRelations, changedMainClasses)) {
+            for (String binaryName : asJava(mainRelations.productClassName().forward(mainClass))) {
+                for (VirtualFileRef classFile : asJava(testRelations.libraryClassName().reverse(binaryName))) {
+                    for (VirtualFileRef testSource : asJava(testRelations.usesLibrary(classFile))) {
+                        affectedTestClasses.addAll(asJava(testRelations.classNames(testSource)));
+                    }
+                }
+            }
+        }
+
+        Set<String> testClasses = new TreeSet<>();
+        for (String testClass : dependentsOf(testRelations, affectedTestClasses)) {
+            testClasses.addAll(asJava(testRelations.productClassName().forward(testClass)));
+        }
+        return TestSelection.of(testClasses, changedSourceCount + " changed source(s)");
+    }
+
+    private static boolean isInAny(Path path, Collection<Path> directories) {
+        for (Path directory : directories) {
+            if (path.startsWith(directory.toAbsolutePath().normalize())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the given classes and all the classes that depend on them, directly or transitively.
+     */
+    private static Set<String> dependentsOf(Relations relations, Set<String> classNames) {
+        Set<String> result = new HashSet<>(classNames);
+        Deque<String> pending = new ArrayDeque<>(classNames);
+        while (!pending.isEmpty()) {
+            for (String dependent : asJava(relations.usesInternalClass(pending.pop()))) {
+                if (result.add(dependent)) {
+                    pending.push(dependent);
+                }
+            }
+        }
+        return result;
+    }
+
+    private Map<Path, VirtualFileRef> sourcesByPath(Relations relations) {
+        Map<Path, VirtualFileRef> result = new HashMap<>();
+        for (VirtualFileRef source : asJava(relations.allSources())) {
+            result.put(converter.toPath(source).toAbsolutePath().normalize(), source);
+        }
+        return result;
+    }
+
+    private static <T> Set<T> asJava(scala.collection.Set<T> set) {
+        return JavaConverters.setAsJavaSet(set);
+    }
+
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Utility methods for trace files in the Chrome trace-event format, as written by the Scala compiler when
+ * it's invoked with `-Yprofile-trace`. These files can be loaded into `chrome://tracing` or Perfetto.
+ */
+public final class ChromeTraces {
+
+    /**
+     * The categories that we summarise in hotspot reports, in the order in which they appear. These are our own
+     * categories rather than the ones in the trace, see {@link Hotspots#categoryOf(Map)}.
+     */
+    private static final String[][] HOTSPOT_CATEGORIES = {
+        { "file",     "files" },
+        { "implicit", "implicit searches" },
+        { "macro",    "macro expansions" },
+        { "phase",    "phases" },
+    };
+
+    /** The prefix of the names that the compiler gives to implicit searches, i.e. a lightning bolt. */
+    private static final String IMPLICIT_SEARCH_PREFIX = "\u21af";
+
+    /** The compiler wraps the names of macro expansions in guillemets. */
+    private static final String MACRO_EXPANSION_PREFIX = "\u00ab";
+
+    private static final String MACRO_EXPANSION_SUFFIX = "\u00bb";
+
+    // Do not instantiate this class
+    private ChromeTraces() { }
+
+    /**
+     * Reads all the events from the given trace file. Both the plain array format and the object format
+     * (i.e. events nested in a `traceEvents` array) are supported.
+     */
+    public static List<Map<String, Object>> readEvents(File file) throws IOException {
+        String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+
+        // The compiler doesn't always get to close the array if compilation was aborted.
+        if (content.startsWith("[") && !content.endsWith("]")) {
+            content = content.replaceAll(",\\s*$", "") + "]";
+        }
+
+        Object json = Json.parse(content);
+        if (json instanceof Map) {
+            json = ((Map<?, ?>) json).get("traceEvents");
+        }
+        if (!(json instanceof List)) {
+            throw new IOException("Unsupported trace file format in '" + file + "'.");
+        }
+
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Object event : (List<?>) json) {
+            if (event instanceof Map) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> eventMap = (Map<String, Object>) event;
+                result.add(eventMap);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes a single trace file that contains the events of all the given traces. Each trace gets its own
+     * process ID so that they show up as separate, labelled tracks in the trace viewer.
+     *
+     * @param traces The events of each trace, keyed by the label to use for it (e.g. the task path)
+     * @param target The file to write the merged trace to
+     */
+    public static void writeMerged(Map<String, List<Map<String, Object>>> traces, File target) throws IOException {
+        Files.createDirectories(target.getParentFile().toPath());
+        try (BufferedWriter out = Files.newBufferedWriter(target.toPath(), StandardCharsets.UTF_8)) {
+            out.write("{\"traceEvents\":[\n");
+
+            boolean first = true;
+            long pid = 1;
+            for (Map.Entry<String, List<Map<String, Object>>> trace : traces.entrySet()) {
+                Map<String, Object> processName = new LinkedHashMap<>();
+                processName.put("name", "process_name");
+                processName.put("ph", "M");
+                processName.put("pid", pid);
+                processName.put("args", Collections.singletonMap("name", trace.getKey()));
+                first = writeEvent(processName, first, out);
+
+                for (Map<String, Object> event : trace.getValue()) {
+                    Map<String, Object> copy = new LinkedHashMap<>(event);
+                    copy.put("pid", pid);
+                    first = writeEvent(copy, first, out);
+                }
+                pid++;
+            }
+
+            out.write("\n]}\n");
+        }
+    }
+
+    private static boolean writeEvent(Map<String, Object> event, boolean first, BufferedWriter out) throws IOException {
+        if (!first) {
+            out.write(",\n");
+        }
+        Json.write(event, out);
+        return false;
+    }
+
+    /**
+     * Aggregates the time spent per file, implicit search, macro expansion and phase across any number of traces.
+     */
+    public static final class Hotspots {
+
+        /**
+         * Total duration (in microseconds) and number of occurrences, keyed by category and then by task path and
+         * event name, e.g. `:compileScala A.scala`. The same file or implicit search can be slow in one task, but
+         * not in another one, e.g. for different Scala versions.
+         */
+        private final Map<String, Map<String, long[]>> totals = new HashMap<>();
+
+        /**
+         * Adds all the events of the trace of the given task. Both complete events (`X`) and matching begin/end
+         * pairs (`B`/`E`) are taken into account.
+         */
+        public synchronized void add(String taskPath, List<Map<String, Object>> events) {
+            Map<String, Deque<Map<String, Object>>> open = new HashMap<>();
+            for (Map<String, Object> event : events) {
+                String phase = String.valueOf(event.get("ph"));
+                String thread = event.get("pid") + "/" + event.get("tid");
+                switch (phase) {
+                    case "X":
+                        record(taskPath, event, asLong(event.get("dur")));
+                        break;
+
+                    case "B":
+                        open.computeIfAbsent(thread, ignored -> new ArrayDeque<>()).push(event);
+                        break;
+
+                    case "E":
+                        Deque<Map<String, Object>> stack = open.get(thread);
+                        if (stack != null && !stack.isEmpty()) {
+                            Map<String, Object> begin = stack.pop();
+                            record(taskPath, begin, asLong(event.get("ts")) - asLong(begin.get("ts")));
+                        }
+                        break;
+
+                    default:
+                        // Metadata, counters, etc. are not relevant for hotspots
+                }
+            }
+        }
+
+        private void record(String taskPath, Map<String, Object> event, long duration) {
+            Object name = event.get("name");
+            if (name == null || duration < 0) {
+                return;
+            }
+
+            long[] total = totals
+                .computeIfAbsent(categoryOf(event), ignored -> new HashMap<>())
+                .computeIfAbsent(taskPath + " " + name, ignored -> new long[2]);
+            total[0] += duration;
+            total[1] += 1;
+        }
+
+        /**
+         * Returns the slowest events in the given category, slowest first, each as the task path and event name.
+         */
+        public synchronized List<String> slowest(String category, int limit) {
+            return totals.getOrDefault(category, Collections.emptyMap()).entrySet().stream()
+                .sorted((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]))
+                .limit(limit)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+        }
+
+        /**
+         * Writes a plain-text report listing the slowest files, implicit searches, macro expansions and phases, along
+         * with the tasks that they were part of.
+         */
+        public synchronized void writeReport(File target, int limit) throws IOException {
+            Files.createDirectories(target.getParentFile().toPath());
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(target.toPath(), StandardCharsets.UTF_8))) {
+                for (String[] category : HOTSPOT_CATEGORIES) {
+                    Map<String, long[]> entries = totals.getOrDefault(category[0], Collections.emptyMap());
+                    out.printf("Top %d slowest %s (%d in total)%n", limit, category[1], entries.size());
+                    for (String name : slowest(category[0], limit)) {
+                        long[] total = entries.get(name);
+                        out.printf("  %,10d ms %8dx  %s%n", total[0] / 1000, total[1], name);
+                    }
+                    out.println();
+                }
+            }
+        }
+
+        /**
+         * Determines the category of the given event. Implicit searches and macro expansions don't have a category
+         * of their own in the trace (they are reported as part of `typer`), so these are recognised by the way the
+         * compiler names them. Older compilers don't always set the category for per-file events either, so we fall
+         * back to looking at the name in that case as well.
+         */
+        private static String categoryOf(Map<String, Object> event) {
+            String name = Objects.toString(event.get("name"), "");
+            if (name.startsWith(IMPLICIT_SEARCH_PREFIX)) {
+                return "implicit";
+            }
+            if (name.startsWith(MACRO_EXPANSION_PREFIX) && name.endsWith(MACRO_EXPANSION_SUFFIX)) {
+                return "macro";
+            }
+
+            Object category = event.get("cat");
+            if (category != null && !category.toString().isEmpty()) {
+                return category.toString();
+            }
+            return name.endsWith(".scala") || name.endsWith(".java") ? "file" : "";
+        }
+
+        private static long asLong(Object value) {
+            return value instanceof Number ? ((Number) value).longValue() : 0L;
+        }
+
+    }
+
+}
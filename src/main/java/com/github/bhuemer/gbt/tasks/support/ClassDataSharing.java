@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import net.openhft.hashing.LongHashFunction;
+import org.gradle.api.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Creates and uses Class Data Sharing (CDS) archives for forked compilers, so that the classes of the compiler
+ * don't need to be loaded, verified and parsed from scratch in every new worker process.
+ *
+ * The JVM archives the classes a worker loaded when that worker exits, and later workers map that archive.
+ * Archives are keyed by the content of the compiler classpath and the JVM, as an archive is only valid for the
+ * exact JVM that created it. This needs dynamic archives, i.e. Java 13 or later, and from Java 19 onwards the
+ * JVM takes care of creating and validating them on its own.
+ *
+ * Before Java 19, each worker writes its archive to a file of its own, as workers of concurrent builds may well
+ * exit at the same time. The first of these archives that is complete is then moved into place atomically.
+ */
+public final class ClassDataSharing {
+
+    /** The first Java version that supports dynamic CDS archives, including classes of custom class loaders */
+    private static final int DYNAMIC_ARCHIVE_VERSION = 13;
+
+    /** The first Java version that creates (and re-creates) dynamic CDS archives on its own */
+    private static final int AUTO_CREATE_ARCHIVE_VERSION = 19;
+
+    /** How long an archive must have been left alone before we consider it complete, i.e. its JVM done writing it */
+    private static final long ARCHIVE_SETTLE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final String TEMP_ARCHIVE_SUFFIX = ".tmp";
+
+    private static final LongHashFunction HASH_FUNCTION = LongHashFunction.farmNa();
+
+    /** The keys computed so far, by the paths, sizes and modification times of the classpath */
+    private static final Map<String, String> keys = new ConcurrentHashMap<>();
+
+    // do not instantiate this class
+    private ClassDataSharing() { }
+
+    /**
+     * Returns the JVM options for a forked compiler with the given classpath, i.e. the options that either
+     * create the archive or use it. If the current JVM doesn't support dynamic archives, there are none.
+     *
+     * @param archiveDirectory The directory to keep archives in, shared by all builds
+     * @param compilerClasspath The JAR files of the compiler (and its bridge)
+     */
+    public static List<String> jvmOptions(File archiveDirectory, Collection<File> compilerClasspath, Logger logger) {
+        int javaVersion = javaVersion();
+        if (javaVersion < DYNAMIC_ARCHIVE_VERSION) {
+            logger.debug("Not sharing compiler classes, Java " + javaVersion + " doesn't support dynamic archives.");
+            return Collections.emptyList();
+        }
+
+        File archive;
+        try {
+            Files.createDirectories(archiveDirectory.toPath());
+            archive = new File(archiveDirectory, key(compilerClasspath) + ".jsa");
+        } catch (IOException ex) {
+            logger.warn("Not sharing compiler classes: " + ex.getMessage());
+            return Collections.emptyList();
+        }
+
+        if (javaVersion >= AUTO_CREATE_ARCHIVE_VERSION) {
+            return Arrays.asList("-XX:+AutoCreateSharedArchive", "-XX:SharedArchiveFile=" + archive);
+        } else if (archive.isFile() || publishArchive(archive, logger)) {
+            return Collections.singletonList("-XX:SharedArchiveFile=" + archive);
+        } else {
+            File tempArchive =
+                new File(archiveDirectory, archive.getName() + "." + UUID.randomUUID() + TEMP_ARCHIVE_SUFFIX);
+            logger.info("Archiving the compiler classes to " + tempArchive + " once the compiler exits.");
+            return Collections.singletonList("-XX:ArchiveClassesAtExit=" + tempArchive);
+        }
+    }
+
+    /**
+     * Moves the first complete archive that a worker wrote for the given archive into place, and deletes the others.
+     *
+     * @return `true` if there is an archive now, `false` if no worker has finished writing one yet
+     */
+    private static boolean publishArchive(File archive, Logger logger) {
+        File[] tempArchives = archive.getParentFile().listFiles((directory, name) ->
+            name.startsWith(archive.getName() + ".") && name.endsWith(TEMP_ARCHIVE_SUFFIX));
+        if (tempArchives == null) {
+            return false;
+        }
+
+        long settledBefore = System.currentTimeMillis() - ARCHIVE_SETTLE_MILLIS;
+        for (File tempArchive : tempArchives) {
+            if (tempArchive.lastModified() > settledBefore) {
+                continue;
+            }
+
+            try {
+                if (!archive.isFile()) {
+                    move(tempArchive, archive);
+                } else {
+                    Files.deleteIfExists(tempArchive.toPath());
+                }
+            } catch (IOException ex) {
+                logger.debug("Cannot publish the compiler class archive '" + tempArchive + "'.", ex);
+            }
+        }
+        return archive.isFile();
+    }
+
+    private static void move(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(source.toPath(), target.toPath());
+        }
+    }
+
+    /**
+     * Returns a key that identifies both the given classpath (by content) and the current JVM. Keys are computed
+     * once per version of the classpath files, rather than hashing all of them for every forked compilation.
+     */
+    static String key(Collection<File> classpath) throws IOException {
+        String classpathStamp = classpath.stream()
+            .map(file -> file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified())
+            .collect(Collectors.joining(File.pathSeparator));
+        String key = keys.get(classpathStamp);
+        if (key == null) {
+            key = computeKey(classpath);
+            keys.put(classpathStamp, key);
+        }
+        return key;
+    }
+
+    private static String computeKey(Collection<File> classpath) throws IOException {
+        StringBuilder key = new StringBuilder()
+            .append(System.getProperty("java.vm.vendor")).append('\n')
+            .append(System.getProperty("java.vm.version")).append('\n')
+            .append(System.getProperty("os.arch")).append('\n');
+        for (File file : classpath) {
+            key.append(file.getName()).append(':').append(MappedSourceFile.hash(file.toPath())).append('\n');
+        }
+        return Long.toHexString(HASH_FUNCTION.hashChars(key.toString()));
+    }
+
+    /**
+     * Returns the major version of the current JVM, e.g. 8 for `1.8` or 17 for `17`.
+     */
+    static int javaVersion() {
+        String version = System.getProperty("java.specification.version", "");
+        try {
+            return Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version);
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+}
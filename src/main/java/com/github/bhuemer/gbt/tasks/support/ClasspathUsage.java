@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Keeps track of which classpath entries the sources of a compile task actually depend on, according to the
+ * library dependencies that the incremental compiler recorded in its analysis.
+ *
+ * The Scala library itself is always considered to be used, the compiler cannot do without it.
+ */
+public final class ClasspathUsage {
+
+    /** The prefix of used entries in persisted usage files */
+    private static final String USED = "+ ";
+
+    /** The prefix of unused entries in persisted usage files */
+    private static final String UNUSED = "- ";
+
+    /** The JAR files that must never be considered unused, even if nothing refers to them explicitly */
+    private static final String[] REQUIRED_PREFIXES = { "scala-library", "scala3-library", "dotty-library" };
+
+    /** The full classpath, in order */
+    private final List<File> classpath;
+
+    private final Set<File> unused;
+
+    private ClasspathUsage(List<File> classpath, Set<File> unused) {
+        this.classpath = Collections.unmodifiableList(classpath);
+        this.unused = Collections.unmodifiableSet(unused);
+    }
+
+    /**
+     * Determines which entries of the given classpath contain any of the given library dependencies.
+     *
+     * @param classpath The full compile classpath
+     * @param libraryDependencies The JAR files or class files that the sources depend on
+     */
+    public static ClasspathUsage of(Collection<File> classpath, Collection<Path> libraryDependencies) {
+        Map<Path, File> entries = new HashMap<>();
+        for (File entry : classpath) {
+            entries.put(entry.toPath().toAbsolutePath().normalize(), entry);
+        }
+
+        // Walk up from each dependency until we hit a classpath entry, a JAR file or a classes directory
+        Set<File> used = new LinkedHashSet<>();
+        for (Path dependency : libraryDependencies) {
+            for (Path path = dependency.toAbsolutePath().normalize(); path != null; path = path.getParent()) {
+                File entry = entries.get(path);
+                if (entry != null) {
+                    used.add(entry);
+                    break;
+                }
+            }
+        }
+
+        Set<File> unused = new LinkedHashSet<>();
+        for (File entry : classpath) {
+            if (!used.contains(entry) && !isRequired(entry)) {
+                unused.add(entry);
+            }
+        }
+        return new ClasspathUsage(new ArrayList<>(classpath), unused);
+    }
+
+    private static boolean isRequired(File entry) {
+        for (String prefix : REQUIRED_PREFIXES) {
+            if (entry.getName().startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the classpath entries that none of the sources depend on.
+     */
+    public Set<File> getUnused() {
+        return unused;
+    }
+
+    /**
+     * Returns the given classpath without the entries that were unused, if it's still the same classpath that
+     * this usage was determined for. If the classpath changed in any way, it's returned unchanged.
+     */
+    public Set<File> prune(Collection<File> currentClasspath) {
+        Set<File> result = new LinkedHashSet<>(currentClasspath);
+        if (classpath.equals(new ArrayList<>(currentClasspath))) {
+            result.removeAll(unused);
+        }
+        return result;
+    }
+
+    /**
+     * Reads the usage persisted by {@link #write(File)}, if there is any.
+     */
+    public static Optional<ClasspathUsage> read(File file) throws IOException {
+        if (!file.isFile()) {
+            return Optional.empty();
+        }
+
+        List<File> classpath = new ArrayList<>();
+        Set<File> unused = new LinkedHashSet<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            if (line.startsWith(USED) || line.startsWith(UNUSED)) {
+                File entry = new File(line.substring(2));
+                classpath.add(entry);
+                if (line.startsWith(UNUSED)) {
+                    unused.add(entry);
+                }
+            }
+        }
+        return Optional.of(new ClasspathUsage(classpath, unused));
+    }
+
+    /**
+     * Persists this usage, i.e. the full classpath with each entry marked as used or unused.
+     */
+    public void write(File file) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+            for (File entry : classpath) {
+                out.print(unused.contains(entry) ? UNUSED : USED);
+                out.println(entry.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Writes a plain-text report that lists the unused classpath entries.
+     */
+    public void writeReport(File file, String taskPath) throws IOException {
+        Objects.requireNonNull(taskPath, "The given task path must not be null.");
+        Files.createDirectories(file.getParentFile().toPath());
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+            out.printf("%d of %d classpath entries of %s are not used by any source%n", unused.size(), classpath.size(), taskPath);
+            out.println();
+            for (File entry : unused) {
+                out.println(entry.getAbsolutePath());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Passes on the cancellation of a build to a compiler that may be running in a different process. The task
+ * requests cancellation by creating a marker file, which the compiler checks for whenever it makes progress.
+ *
+ * The file system is only checked every so often, the compiler reports progress far more frequently than that.
+ */
+public class CompileCancellation {
+
+    /** How often to check for the marker file at most */
+    private static final long CHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final File markerFile;
+
+    /** When the marker file was last checked for, according to {@link System#nanoTime()} */
+    private long lastCheck;
+
+    private volatile boolean requested;
+
+    public CompileCancellation(File markerFile) {
+        this.markerFile = Objects.requireNonNull(markerFile, "The given marker file must not be null.");
+        this.lastCheck = System.nanoTime() - CHECK_INTERVAL_NANOS;
+    }
+
+    /**
+     * Forgets about any earlier cancellation, i.e. before a compilation starts.
+     */
+    public void reset() {
+        requested = false;
+        try {
+            Files.deleteIfExists(markerFile.toPath());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Requests the compiler to stop as soon as possible.
+     */
+    public void request() {
+        requested = true;
+        try {
+            Files.createDirectories(markerFile.getParentFile().toPath());
+            if (!markerFile.isFile()) {
+                Files.createFile(markerFile.toPath());
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Returns whether cancellation was requested, either via {@link #request()} or by interrupting the
+     * compiling thread.
+     */
+    public synchronized boolean isRequested() {
+        if (requested || Thread.currentThread().isInterrupted()) {
+            return true;
+        }
+
+        long now = System.nanoTime();
+        if (now - lastCheck >= CHECK_INTERVAL_NANOS) {
+            lastCheck = now;
+            requested = markerFile.exists();
+        }
+        return requested;
+    }
+
+}
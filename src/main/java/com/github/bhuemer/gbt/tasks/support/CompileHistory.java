@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalDouble;
+
+/**
+ * Remembers how long the recent compilations of a task took for how many sources, so that we can predict
+ * whether recompiling a given number of invalidated sources incrementally or simply recompiling all of them
+ * will be faster. Incremental compilations are modelled as a fixed overhead plus a cost per recompiled source
+ * (which includes the additional invalidation cycles), fitted to the recorded incremental compilations. Full
+ * compilations are modelled with a cost per source, based on the recorded full compilations.
+ */
+public final class CompileHistory {
+
+    /** The version of the file format, bump this whenever the format changes. */
+    private static final String FORMAT_VERSION = "# compile history v1";
+
+    /** The number of compilations to remember, older ones are dropped */
+    private static final int MAX_ENTRIES = 30;
+
+    /** The lowest fraction that we'll predict, so that a few slow cycles cannot make every change a full compile */
+    private static final double MIN_RECOMPILE_ALL_FRACTION = 0.05;
+
+    private final List<Entry> entries;
+
+    private CompileHistory(List<Entry> entries) {
+        this.entries = entries;
+    }
+
+    public static CompileHistory empty() {
+        return new CompileHistory(new ArrayList<>());
+    }
+
+    /**
+     * Reads the history persisted by {@link #write(File)}. It's empty if there is none (or none that we can read).
+     */
+    public static CompileHistory read(File file) throws IOException {
+        if (!file.isFile()) {
+            return empty();
+        }
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !FORMAT_VERSION.equals(lines.get(0))) {
+            return empty();
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length == 3) {
+                try {
+                    entries.add(new Entry(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]), Long.parseLong(fields[2])));
+                } catch (NumberFormatException ex) {
+                    // Skip the entry, it's only a prediction after all
+                }
+            }
+        }
+        return new CompileHistory(entries);
+    }
+
+    public void write(File file) throws IOException {
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+            out.println(FORMAT_VERSION);
+            for (Entry entry : entries) {
+                out.printf("%d %d %d%n", entry.sources, entry.recompiled, entry.millis);
+            }
+        }
+    }
+
+    /**
+     * Records a compilation that recompiled the given number of sources out of all of them.
+     */
+    public void record(int sources, int recompiled, long millis) {
+        if (sources <= 0 || recompiled <= 0) {
+            return;
+        }
+
+        entries.add(new Entry(sources, Math.min(recompiled, sources), millis));
+        if (entries.size() > MAX_ENTRIES) {
+            entries.subList(0, entries.size() - MAX_ENTRIES).clear();
+        }
+    }
+
+    /**
+     * Predicts the fraction of the given number of sources beyond which recompiling all of them is faster than
+     * recompiling only the invalidated ones. There is no prediction until both kinds of compilations have been
+     * recorded, including incremental compilations of at least two different sizes.
+     */
+    public OptionalDouble recompileAllFraction(int sources) {
+        List<Entry> full = new ArrayList<>();
+        List<Entry> incremental = new ArrayList<>();
+        for (Entry entry : entries) {
+            (entry.isFull() ? full : incremental).add(entry);
+        }
+        if (full.isEmpty() || sources <= 0) {
+            return OptionalDouble.empty();
+        }
+
+        // Least-squares fit of millis = overhead + perSource * recompiled for incremental compilations
+        double meanRecompiled = incremental.stream().mapToInt(entry -> entry.recompiled).average().orElse(0);
+        double meanMillis = incremental.stream().mapToLong(entry -> entry.millis).average().orElse(0);
+        double covariance = 0;
+        double variance = 0;
+        for (Entry entry : incremental) {
+            covariance += (entry.recompiled - meanRecompiled) * (entry.millis - meanMillis);
+            variance += (entry.recompiled - meanRecompiled) * (entry.recompiled - meanRecompiled);
+        }
+        if (variance == 0) {
+            return OptionalDouble.empty();
+        }
+        double perSource = covariance / variance;
+        double overhead = meanMillis - perSource * meanRecompiled;
+
+        double fullMillis = full.stream().mapToDouble(entry -> (double) entry.millis / entry.sources).average().orElse(0) * sources;
+        if (perSource <= 0) {
+            // Recompiling more sources incrementally doesn't seem to cost anything, so never recompile all of them
+            return OptionalDouble.of(1.0);
+        }
+
+        double breakEven = (fullMillis - overhead) / perSource;
+        return OptionalDouble.of(Math.max(MIN_RECOMPILE_ALL_FRACTION, Math.min(1.0, breakEven / sources)));
+    }
+
+    private static final class Entry {
+
+        /** The number of sources of the compile task at the time */
+        private final int sources;
+
+        /** The number of sources that were actually recompiled */
+        private final int recompiled;
+
+        /** How long the compilation took */
+        private final long millis;
+
+        private Entry(int sources, int recompiled, long millis) {
+            this.sources = sources;
+            this.recompiled = recompiled;
+            this.millis = millis;
+        }
+
+        private boolean isFull() {
+            return recompiled >= sources;
+        }
+
+    }
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import xsbti.compile.CompileProgress;
+
+import java.util.Objects;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Receives progress updates from the compiler and tells it whether to carry on. The compiler checks back
+ * between phases and compilation units, so this is where we can abort a compilation that's gone astray.
+ */
+public class CompileProgressAdapter implements CompileProgress {
+
+    /** Decides whether compilation should continue, checked whenever the compiler makes progress */
+    private final BooleanSupplier shouldContinue;
+
+    public CompileProgressAdapter(BooleanSupplier shouldContinue) {
+        this.shouldContinue = Objects.requireNonNull(shouldContinue, "The given condition must not be null.");
+    }
+
+    @Override
+    public void startUnit(String phase, String unitPath) {
+        // Nothing to do here at the moment
+    }
+
+    @Override
+    public boolean advance(int current, int total, String prevPhase, String nextPhase) {
+        return shouldContinue.getAsBoolean();
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Marks what the plugin is doing (creating compilers, compiling, loading and storing analyses, writing class
+ * files) as Java Flight Recorder events, so that it shows up as more than stack samples in a recording.
+ *
+ * This is the Java 8 version of this class, which doesn't do anything at all. On Java 11 and later, the version
+ * in `META-INF/versions/11` of the plugin JAR is used instead, which emits the actual events.
+ */
+public final class CompilerEvents {
+
+    /**
+     * An event that is in progress, closing it ends (and commits) the event.
+     */
+    public interface Span extends AutoCloseable {
+
+        /** Records the number of bytes read or written, if the event is enabled and has a field for it */
+        default void setBytes(LongSupplier bytes) { }
+
+        @Override
+        void close();
+
+    }
+
+    private static final Span NO_OP = () -> { };
+
+    // do not instantiate this class
+    private CompilerEvents() { }
+
+    /**
+     * Creating the class loader for the compiler with the given number of JAR files. The task path is the task that
+     * the compiler was created for, empty if it was created by a warm-up. Compilers can be shared with compilations of
+     * other tasks later on, so that task is the only one that can be attributed with creating it.
+     */
+    public static Span classLoader(String taskPath, String scalaVersion, int jarCount) {
+        return NO_OP;
+    }
+
+    /**
+     * Creating the Scala instance, i.e. the compiler and library for a particular Scala version, see
+     * {@link #classLoader} for which task path this is.
+     */
+    public static Span scalaInstance(String taskPath, String scalaVersion) {
+        return NO_OP;
+    }
+
+    /** A single invocation of the incremental compiler */
+    public static Span compile(String taskPath, String scalaVersion, int sourceCount, int classpathCount) {
+        return NO_OP;
+    }
+
+    /** Loading (`load`) or storing (`store`) the analysis of the incremental compiler */
+    public static Span analysis(String taskPath, String operation) {
+        return NO_OP;
+    }
+
+    /** Finalising the class files that the compiler wrote */
+    public static Span outputs(String taskPath, int fileCount) {
+        return NO_OP;
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import org.gradle.api.logging.Logger;
+import xsbti.Problem;
+import xsbti.Severity;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * The problems (errors, warnings, etc.) that the compiler reported for each source, including those from earlier
+ * compilations for sources that haven't been recompiled since. These are kept with the outputs of compile tasks,
+ * so that they can be replayed if such a task is up-to-date or loaded from the build cache.
+ */
+public final class Diagnostics {
+
+    /** The version of the file format, bump this whenever the format changes. */
+    private static final int FORMAT_VERSION = 1;
+
+    /** The problems of each source, keyed by the absolute path of the source */
+    private final Map<String, List<Diagnostic>> sources;
+
+    private Diagnostics(Map<String, List<Diagnostic>> sources) {
+        this.sources = Collections.unmodifiableMap(sources);
+    }
+
+    /**
+     * Returns the diagnostics for the given problems, keyed by the absolute path of the source they belong to.
+     */
+    public static Diagnostics of(Map<String, Problem[]> problems) {
+        Map<String, List<Diagnostic>> sources = new TreeMap<>();
+        problems.forEach((source, sourceProblems) -> {
+            List<Diagnostic> diagnostics = new ArrayList<>();
+            for (Problem problem : sourceProblems) {
+                diagnostics.add(new Diagnostic(problem.severity().name(), ReporterAdapter.format(problem)));
+            }
+            if (!diagnostics.isEmpty()) {
+                sources.put(source, diagnostics);
+            }
+        });
+        return new Diagnostics(sources);
+    }
+
+    /**
+     * Reads the diagnostics from the given file, written by {@link #write(File)}. There are none if it doesn't exist.
+     */
+    public static Diagnostics read(File file) throws IOException {
+        if (!file.isFile()) {
+            return new Diagnostics(Collections.emptyMap());
+        }
+
+        Object json;
+        try {
+            json = Json.parse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Cannot parse diagnostics file '" + file + "': " + ex.getMessage(), ex);
+        }
+        if (!(json instanceof Map) || !Long.valueOf(FORMAT_VERSION).equals(((Map<?, ?>) json).get("version"))) {
+            throw new IOException("Unsupported diagnostics file format in '" + file + "'.");
+        }
+
+        Map<String, List<Diagnostic>> sources = new TreeMap<>();
+        Object sourcesJson = ((Map<?, ?>) json).get("sources");
+        if (sourcesJson instanceof Map) {
+            for (Map.Entry<?, ?> source : ((Map<?, ?>) sourcesJson).entrySet()) {
+                List<Diagnostic> diagnostics = new ArrayList<>();
+                if (source.getValue() instanceof List) {
+                    for (Object diagnostic : (List<?>) source.getValue()) {
+                        if (diagnostic instanceof Map) {
+                            diagnostics.add(new Diagnostic(
+                                Objects.toString(((Map<?, ?>) diagnostic).get("severity"), Severity.Info.name()),
+                                Objects.toString(((Map<?, ?>) diagnostic).get("message"), "")));
+                        }
+                    }
+                }
+                sources.put(String.valueOf(source.getKey()), diagnostics);
+            }
+        }
+        return new Diagnostics(sources);
+    }
+
+    public void write(File file) throws IOException {
+        Map<String, Object> sourcesJson = new LinkedHashMap<>();
+        sources.forEach((source, diagnostics) -> {
+            List<Object> diagnosticsJson = new ArrayList<>();
+            for (Diagnostic diagnostic : diagnostics) {
+                Map<String, Object> diagnosticJson = new LinkedHashMap<>();
+                diagnosticJson.put("severity", diagnostic.severity);
+                diagnosticJson.put("message", diagnostic.message);
+                diagnosticsJson.add(diagnosticJson);
+            }
+            sourcesJson.put(source, diagnosticsJson);
+        });
+
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("version", FORMAT_VERSION);
+        json.put("sources", sourcesJson);
+
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            Json.write(json, out);
+        }
+    }
+
+    public boolean isEmpty() {
+        return sources.isEmpty();
+    }
+
+    /**
+     * Logs the problems of all sources, just like the compiler reported them originally.
+     */
+    public void replay(Logger logger) {
+        replay(logger, source -> true);
+    }
+
+    /**
+     * Logs the problems of the sources that match the given filter, just like the compiler reported them originally.
+     */
+    public void replay(Logger logger, Predicate<String> sourceFilter) {
+        sources.forEach((source, diagnostics) -> {
+            if (sourceFilter.test(source)) {
+                diagnostics.forEach(diagnostic -> diagnostic.log(logger));
+            }
+        });
+    }
+
+    private static final class Diagnostic {
+
+        /** The name of the {@link Severity} of the problem */
+        private final String severity;
+
+        /** The problem as the compiler reported it, including its position */
+        private final String message;
+
+        private Diagnostic(String severity, String message) {
+            this.severity = severity;
+            this.message = message;
+        }
+
+        private void log(Logger logger) {
+            if (Severity.Error.name().equals(severity)) {
+                logger.error(message);
+            } else if (Severity.Warn.name().equals(severity)) {
+                logger.warn(message);
+            } else {
+                logger.info(message);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import net.openhft.hashing.LongHashFunction;
+import xsbti.BasicVirtualFileRef;
+import xsbti.PathBasedFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * A source file whose content is read at most once per compilation, and then shared by everything that reads it
+ * through {@link #input()} or hashes it, most notably the stamper. Large files are memory-mapped, smaller ones are
+ * kept on the heap for as long as memory permits. Mapping every single file isn't an option: Each mapping counts
+ * against the limit of memory mappings per process until it's garbage collected, and there may well be tens of
+ * thousands of sources.
+ *
+ * The content hash is the same FarmHash that Zinc would compute for a plain file, so stamps remain compatible.
+ *
+ * It's a `PathBasedFile`, so that compiler plugins and anything else asking for the `java.io.File` of a source get
+ * one. The compiler bridge therefore reads sources from disk itself, rather than through {@link #input()}.
+ */
+public final class MappedSourceFile extends BasicVirtualFileRef implements PathBasedFile {
+
+    /** Files at least as large as this are memory-mapped, rather than read into the heap */
+    static final long MAPPING_THRESHOLD = 64 * 1024;
+
+    private static final LongHashFunction HASH_FUNCTION = LongHashFunction.farmNa();
+
+    private final Path path;
+
+    /** The memory-mapped content of large files */
+    private ByteBuffer mappedContent;
+
+    /** The content of small files, released again if memory gets tight */
+    private SoftReference<ByteBuffer> heapContent = new SoftReference<>(null);
+
+    private boolean hashed;
+
+    private long contentHash;
+
+    public MappedSourceFile(Path path) {
+        super(Objects.requireNonNull(path, "The given path must not be null.").toString());
+        this.path = path;
+    }
+
+    @Override
+    public Path toPath() {
+        return path;
+    }
+
+    @Override
+    public synchronized long contentHash() {
+        if (!hashed) {
+            contentHash = HASH_FUNCTION.hashBytes(content());
+            hashed = true;
+        }
+        return contentHash;
+    }
+
+    @Override
+    public InputStream input() {
+        return new ByteBufferInputStream(content());
+    }
+
+    /**
+     * Returns the content of this file, reading it only if that hasn't happened yet.
+     */
+    synchronized ByteBuffer content() {
+        if (mappedContent != null) {
+            return mappedContent.duplicate();
+        }
+
+        ByteBuffer content = heapContent.get();
+        if (content == null) {
+            try {
+                content = read(path);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            if (content.isDirect()) {
+                mappedContent = content;
+            } else {
+                heapContent = new SoftReference<>(content);
+            }
+        }
+        return content.duplicate();
+    }
+
+    /**
+     * Reads the given file, memory-mapping it if it's large enough for that to pay off.
+     */
+    public static ByteBuffer read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= MAPPING_THRESHOLD) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size).asReadOnlyBuffer();
+            }
+        }
+        return ByteBuffer.wrap(Files.readAllBytes(path)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the FarmHash of the content of the given file.
+     */
+    public static long hash(Path path) throws IOException {
+        return HASH_FUNCTION.hashBytes(read(path));
+    }
+
+    /**
+     * Streams the content of a buffer without copying it first.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            } else if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+    }
+
+}
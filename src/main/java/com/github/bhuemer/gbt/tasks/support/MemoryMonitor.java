@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps an eye on the heap and garbage collection of the current JVM while the compiler is running. It
+ * records the peak heap usage and detects when the JVM spends most of its time collecting garbage without
+ * freeing up much memory, which is usually a sign that it's about to run out of memory anyway.
+ *
+ * This is only meaningful in a JVM that is dedicated to compilation, i.e. not in the Gradle daemon itself.
+ */
+public class MemoryMonitor implements AutoCloseable {
+
+    /** How often to sample garbage collection statistics */
+    private static final long SAMPLE_INTERVAL_MILLIS = 1000;
+
+    /** The number of consecutive samples that need to exceed the thresholds before we report memory pressure */
+    private static final int PRESSURE_SAMPLES = 10;
+
+    /** The fraction of time spent in GC (per sample) that we consider excessive */
+    private static final double GC_OVERHEAD_THRESHOLD = 0.5;
+
+    /** The fraction of the maximum heap that needs to be in use for us to consider memory to be exhausted */
+    private static final double HEAP_USAGE_THRESHOLD = 0.9;
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "scala-compiler-memory-monitor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private long lastGcTime;
+
+    private long lastSampleTime;
+
+    private int samplesUnderPressure;
+
+    private volatile boolean underPressure;
+
+    private volatile double maxGcOverhead;
+
+    public MemoryMonitor() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+
+        lastGcTime = totalGcTime();
+        lastSampleTime = System.nanoTime();
+        executor.scheduleAtFixedRate(this::sample, SAMPLE_INTERVAL_MILLIS, SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void sample() {
+        long gcTime = totalGcTime();
+        long now = System.nanoTime();
+        double elapsedMillis = (now - lastSampleTime) / 1_000_000.0;
+        double gcOverhead = elapsedMillis > 0 ? (gcTime - lastGcTime) / elapsedMillis : 0.0;
+        lastGcTime = gcTime;
+        lastSampleTime = now;
+        maxGcOverhead = Math.max(maxGcOverhead, gcOverhead);
+
+        long max = memory.getHeapMemoryUsage().getMax();
+        long used = memory.getHeapMemoryUsage().getUsed();
+        boolean heapExhausted = max > 0 && used > max * HEAP_USAGE_THRESHOLD;
+        if (gcOverhead > GC_OVERHEAD_THRESHOLD && heapExhausted) {
+            samplesUnderPressure++;
+        } else {
+            samplesUnderPressure = 0;
+        }
+
+        if (samplesUnderPressure >= PRESSURE_SAMPLES) {
+            underPressure = true;
+        }
+    }
+
+    private static long totalGcTime() {
+        long result = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            result += Math.max(0, collector.getCollectionTime());
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether the JVM has been spending most of its time collecting garbage for a while, with the heap
+     * being almost full nonetheless.
+     */
+    public boolean isUnderPressure() {
+        return underPressure;
+    }
+
+    /**
+     * Returns the highest fraction of time spent in GC during any sampling interval.
+     */
+    public double getMaxGcOverhead() {
+        return maxGcOverhead;
+    }
+
+    /**
+     * Returns the peak heap usage (in bytes) since this monitor was created.
+     */
+    public long getPeakHeapUsage() {
+        long result = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                result += pool.getPeakUsage().getUsed();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the maximum heap size (in bytes) of this JVM.
+     */
+    public long getMaxHeap() {
+        return memory.getHeapMemoryUsage().getMax();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+}
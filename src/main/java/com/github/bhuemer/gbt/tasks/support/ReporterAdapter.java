@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import org.gradle.api.logging.Logger;
+import xsbti.Position;
+import xsbti.Problem;
+import xsbti.Reporter;
+import xsbti.Severity;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Passes on problems reported by the compiler (errors, warnings, etc.) to the Gradle logger. Problems can also
+ * be held back until it's clear whether they are relevant at all, see {@link #replay()}.
+ */
+public class ReporterAdapter implements Reporter {
+
+    /** */
+    private final Logger logger;
+
+    private final List<Problem> problems = new ArrayList<>();
+
+    /** Whether to hold back problems until {@link #replay()} is called */
+    private final boolean deferred;
+
+    /** The problems that have been held back, unlike {@link #problems} these survive {@link #reset()} */
+    private final List<Problem> deferredProblems = new ArrayList<>();
+
+    /** The sources that any problems were reported for, these survive {@link #reset()} as well */
+    private final Set<String> reportedSources = new HashSet<>();
+
+    public ReporterAdapter(Logger logger) {
+        this(logger, false);
+    }
+
+    public ReporterAdapter(Logger logger, boolean deferred) {
+        this.logger = Objects.requireNonNull(logger, "The given logger instance must not be null.");
+        this.deferred = deferred;
+    }
+
+    @Override
+    public synchronized void reset() {
+        problems.clear();
+    }
+
+    @Override
+    public synchronized boolean hasErrors() {
+        return problems.stream().anyMatch(problem -> problem.severity() == Severity.Error);
+    }
+
+    @Override
+    public synchronized boolean hasWarnings() {
+        return problems.stream().anyMatch(problem -> problem.severity() == Severity.Warn);
+    }
+
+    @Override
+    public synchronized void printSummary() {
+        long errors = problems.stream().filter(problem -> problem.severity() == Severity.Error).count();
+        long warnings = problems.stream().filter(problem -> problem.severity() == Severity.Warn).count();
+        if (errors > 0 || warnings > 0) {
+            logger.info(String.format("%d error(s), %d warning(s) found", errors, warnings));
+        }
+    }
+
+    @Override
+    public synchronized Problem[] problems() {
+        return problems.toArray(new Problem[0]);
+    }
+
+    @Override
+    public synchronized void log(Problem problem) {
+        problems.add(problem);
+        problem.position().sourcePath().ifPresent(reportedSources::add);
+        problem.position().sourceFile().ifPresent(file -> reportedSources.add(file.getAbsolutePath()));
+        if (deferred) {
+            deferredProblems.add(problem);
+        } else {
+            logProblem(problem);
+        }
+    }
+
+    /**
+     * Logs all the problems that have been held back so far, if any.
+     */
+    public synchronized void replay() {
+        deferredProblems.forEach(this::logProblem);
+        deferredProblems.clear();
+    }
+
+    /**
+     * Determines whether any problems were reported for the given source (its path or ID) so far.
+     */
+    public synchronized boolean hasReported(String source) {
+        return reportedSources.contains(source);
+    }
+
+    private void logProblem(Problem problem) {
+        String message = format(problem);
+        switch (problem.severity()) {
+            case Error:
+                logger.error(message);
+                break;
+
+            case Warn:
+                logger.warn(message);
+                break;
+
+            default:
+                logger.info(message);
+        }
+    }
+
+    @Override
+    public void comment(Position position, String message) {
+        logger.debug(message);
+    }
+
+    /**
+     * Formats the given problem the way the compiler would print it, i.e. including the source position.
+     */
+    static String format(Problem problem) {
+        if (problem.rendered().isPresent()) {
+            return problem.rendered().get();
+        }
+
+        Position position = problem.position();
+        StringBuilder result = new StringBuilder();
+        if (position.sourcePath().isPresent()) {
+            result.append(position.sourcePath().get());
+            if (position.line().isPresent()) {
+                result.append(':').append(position.line().get());
+                if (position.pointer().isPresent()) {
+                    result.append(':').append(position.pointer().get() + 1);
+                }
+            }
+            result.append(": ");
+        }
+        result.append(problem.message());
+
+        if (position.lineContent() != null && !position.lineContent().isEmpty()) {
+            result.append(System.lineSeparator()).append(position.lineContent());
+            if (position.pointerSpace().isPresent()) {
+                result.append(System.lineSeparator()).append(position.pointerSpace().get()).append('^');
+            }
+        }
+        return result.toString();
+    }
+
+}
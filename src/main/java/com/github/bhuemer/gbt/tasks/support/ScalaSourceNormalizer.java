@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import java.util.regex.Pattern;
+
+/**
+ * Normalizes Scala sources so that changes to comments and insignificant whitespace don't change their
+ * fingerprint. Comments are removed, runs of whitespace within a line are collapsed, trailing whitespace is
+ * removed, and lines that only contained comments are dropped altogether. Everything that the compiler might
+ * care about is left as it is, in particular:
+ *
+ * <ul>
+ *   <li>literals (strings including interpolations, characters, backquoted identifiers) are kept verbatim,</li>
+ *   <li>line breaks between code are kept, they take part in semicolon inference,</li>
+ *   <li>blank lines are kept (though only one per run), they take part in semicolon inference too,</li>
+ *   <li>leading indentation is kept, it's significant in Scala 3.</li>
+ * </ul>
+ *
+ * Sources that might contain XML literals are not normalized at all, as they cannot be told apart reliably
+ * without a full parser. The same goes for sources that end in an unterminated literal or comment.
+ */
+public final class ScalaSourceNormalizer {
+
+    /** Anything that looks like the start of an XML literal, e.g. `= <div>` or `(<a href=..>` */
+    private static final Pattern XML_LITERAL = Pattern.compile("(^|[\\s(=,{;])<[A-Za-z_!?]");
+
+    private final String source;
+
+    private final StringBuilder result = new StringBuilder();
+
+    /** The code of the current line so far, without the leading indentation */
+    private final StringBuilder line = new StringBuilder();
+
+    /** The leading indentation of the current line */
+    private final StringBuilder indentation = new StringBuilder();
+
+    private int position;
+
+    /** Whether the current line contained a comment, so far */
+    private boolean lineHasComment;
+
+    /** Whether there was whitespace after the last code of the current line */
+    private boolean pendingSpace;
+
+    /** Whether the last line that we wrote was a blank line */
+    private boolean lastLineBlank;
+
+    private ScalaSourceNormalizer(String source) {
+        this.source = source;
+    }
+
+    /**
+     * Returns the normalized form of the given source, or the source itself if it cannot be normalized safely.
+     */
+    public static String normalize(String source) {
+        if (XML_LITERAL.matcher(source).find()) {
+            return source;
+        }
+
+        try {
+            return new ScalaSourceNormalizer(source).normalize();
+        } catch (IllegalStateException ex) {
+            return source;
+        }
+    }
+
+    private String normalize() {
+        while (position < source.length()) {
+            char c = source.charAt(position);
+            if (c == '\n') {
+                position++;
+                endLine();
+            } else if (c == ' ' || c == '\t' || c == '\r' || c == '\f') {
+                position++;
+                if (line.length() == 0 && !lineHasComment) {
+                    indentation.append(c);
+                } else if (line.length() > 0) {
+                    pendingSpace = true;
+                }
+            } else if (source.startsWith("//", position)) {
+                skipLineComment();
+            } else if (source.startsWith("/*", position)) {
+                skipBlockComment();
+            } else if (c == '"') {
+                appendCode(position, isInterpolated() ? skipInterpolatedString(position) : skipString(position));
+            } else if (c == '\'') {
+                appendCode(position, skipCharacter(position));
+            } else if (c == '`') {
+                appendCode(position, skipUntil('`', position + 1) + 1);
+            } else {
+                appendCode(position, position + 1);
+            }
+        }
+        endLine();
+
+        // Blank lines at the end of a file don't matter either
+        while (result.length() > 1 && result.charAt(result.length() - 2) == '\n') {
+            result.setLength(result.length() - 1);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Appends the code between the given offsets to the current line, and moves on to the end offset.
+     */
+    private void appendCode(int start, int end) {
+        if (pendingSpace) {
+            line.append(' ');
+            pendingSpace = false;
+        }
+        line.append(source, start, end);
+        position = end;
+    }
+
+    private void endLine() {
+        if (line.length() > 0) {
+            result.append(indentation).append(line).append('\n');
+            lastLineBlank = false;
+        } else if (!lineHasComment && !lastLineBlank) {
+            // Blank lines matter to the compiler (e.g. `f` followed by a blank line and a block is not an
+            // application of `f`), comment-only lines don't, and neither does the number of blank lines.
+            result.append('\n');
+            lastLineBlank = true;
+        }
+
+        line.setLength(0);
+        indentation.setLength(0);
+        lineHasComment = false;
+        pendingSpace = false;
+    }
+
+    private void skipLineComment() {
+        int end = source.indexOf('\n', position);
+        position = end < 0 ? source.length() : end;
+        lineHasComment = true;
+        pendingSpace = line.length() > 0;
+    }
+
+    /**
+     * Skips a block comment, which may be nested and span multiple lines. Line breaks in comments still
+     * separate the code before and after them.
+     */
+    private void skipBlockComment() {
+        int depth = 0;
+        lineHasComment = true;
+        while (position < source.length()) {
+            if (source.startsWith("/*", position)) {
+                depth++;
+                position += 2;
+            } else if (source.startsWith("*/", position)) {
+                depth--;
+                position += 2;
+                if (depth == 0) {
+                    pendingSpace = line.length() > 0;
+                    return;
+                }
+            } else if (source.charAt(position) == '\n') {
+                position++;
+                endLine();
+                lineHasComment = true;
+            } else {
+                position++;
+            }
+        }
+        throw new IllegalStateException("Unterminated comment");
+    }
+
+    /**
+     * Whether the string literal at the current position is interpolated, i.e. prefixed with an identifier.
+     */
+    private boolean isInterpolated() {
+        return position > 0 && Character.isJavaIdentifierPart(source.charAt(position - 1));
+    }
+
+    /**
+     * Returns the end offset of the plain (i.e. not interpolated) string literal at the given offset.
+     */
+    private int skipString(int start) {
+        if (source.startsWith("\"\"\"", start)) {
+            return skipTripleQuotes(source.indexOf("\"\"\"", start + 3));
+        }
+
+        int offset = start + 1;
+        while (offset < source.length()) {
+            char c = source.charAt(offset);
+            if (c == '\\') {
+                offset += 2;
+            } else if (c == '"') {
+                return offset + 1;
+            } else if (c == '\n') {
+                break;
+            } else {
+                offset++;
+            }
+        }
+        throw new IllegalStateException("Unterminated string literal");
+    }
+
+    /**
+     * Returns the end offset of the interpolated string literal at the given offset.
+     */
+    private int skipInterpolatedString(int start) {
+        boolean triple = source.startsWith("\"\"\"", start);
+        int offset = start + (triple ? 3 : 1);
+        while (offset < source.length()) {
+            char c = source.charAt(offset);
+            if (c == '$' && source.startsWith("${", offset)) {
+                offset = skipBlock(offset + 2);
+            } else if (c == '$') {
+                offset += 2;
+            } else if (!triple && c == '\\') {
+                offset += 2;
+            } else if (triple && source.startsWith("\"\"\"", offset)) {
+                return skipTripleQuotes(offset);
+            } else if (!triple && c == '"') {
+                return offset + 1;
+            } else if (!triple && c == '\n') {
+                break;
+            } else {
+                offset++;
+            }
+        }
+        throw new IllegalStateException("Unterminated string literal");
+    }
+
+    /**
+     * Returns the end offset of closing triple quotes, including any additional quotes (`""""` ends with `"`).
+     */
+    private int skipTripleQuotes(int offset) {
+        if (offset < 0) {
+            throw new IllegalStateException("Unterminated string literal");
+        }
+
+        int end = offset + 3;
+        while (end < source.length() && source.charAt(end) == '"') {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Returns the end offset of the block of code in an interpolation, i.e. just after its closing brace.
+     * The block is kept verbatim, so all that matters is to find the end of it.
+     */
+    private int skipBlock(int start) {
+        int depth = 1;
+        int offset = start;
+        while (offset < source.length()) {
+            char c = source.charAt(offset);
+            if (c == '{') {
+                depth++;
+                offset++;
+            } else if (c == '}') {
+                depth--;
+                offset++;
+                if (depth == 0) {
+                    return offset;
+                }
+            } else if (c == '"') {
+                offset = offset > 0 && Character.isJavaIdentifierPart(source.charAt(offset - 1))
+                    ? skipInterpolatedString(offset)
+                    : skipString(offset);
+            } else if (c == '\'') {
+                offset = skipCharacter(offset);
+            } else if (source.startsWith("/*", offset) || source.startsWith("//", offset)) {
+                throw new IllegalStateException("Comment in interpolation");
+            } else {
+                offset++;
+            }
+        }
+        throw new IllegalStateException("Unterminated interpolation");
+    }
+
+    /**
+     * Returns the end offset of the character literal at the given offset, or just the offset after the quote
+     * if it's not a character literal (e.g. a symbol literal like `'foo` or a Scala 3 quote like `'{ .. }`).
+     */
+    private int skipCharacter(int start) {
+        if (start + 1 < source.length() && source.charAt(start + 1) == '\\') {
+            return skipUntil('\'', start + 3) + 1;
+        } else if (start + 2 < source.length() && source.charAt(start + 2) == '\'') {
+            return start + 3;
+        }
+        return start + 1;
+    }
+
+    private int skipUntil(char c, int start) {
+        for (int offset = start; offset < source.length(); offset++) {
+            if (source.charAt(offset) == c) {
+                return offset;
+            } else if (source.charAt(offset) == '\n') {
+                break;
+            }
+        }
+        throw new IllegalStateException("Unterminated literal");
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the content hashes of the sources that are known to be formatted already, so that only the sources
+ * that changed since need to be formatted (or checked) again. All of this is only valid for a particular version
+ * of the formatter and a particular configuration, which the cache is keyed by.
+ */
+public final class ScalafmtCache {
+
+    /** The version of the file format, bump this whenever the format or the hash function changes. */
+    private static final String FORMAT_VERSION = "# scalafmt cache v1";
+
+    /** Identifies the formatter and its configuration */
+    private final String key;
+
+    /** The content hash of each formatted source, keyed by absolute path */
+    private final Map<String, Long> formatted;
+
+    private ScalafmtCache(String key, Map<String, Long> formatted) {
+        this.key = Objects.requireNonNull(key, "The given key must not be null.");
+        this.formatted = formatted;
+    }
+
+    public static ScalafmtCache empty(String key) {
+        return new ScalafmtCache(key, new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Reads the cache persisted by {@link #write(File)}. It's empty if there is none (or none that we can read), or
+     * if it was written for a different formatter or configuration.
+     */
+    public static ScalafmtCache read(File file, String key) throws IOException {
+        if (!file.isFile()) {
+            return empty(key);
+        }
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        if (lines.size() < 2 || !FORMAT_VERSION.equals(lines.get(0)) || !key.equals(lines.get(1))) {
+            return empty(key);
+        }
+
+        ScalafmtCache result = empty(key);
+        for (String line : lines.subList(2, lines.size())) {
+            int separator = line.lastIndexOf('\t');
+            if (separator > 0) {
+                try {
+                    result.formatted.put(line.substring(0, separator), Long.parseUnsignedLong(line.substring(separator + 1), 16));
+                } catch (NumberFormatException ex) {
+                    // Skip the entry, the source will just be checked again
+                }
+            }
+        }
+        return result;
+    }
+
+    public void write(File file) throws IOException {
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+            out.println(FORMAT_VERSION);
+            out.println(key);
+            for (Map.Entry<String, Long> entry : new TreeMap<>(formatted).entrySet()) {
+                out.printf("%s\t%s%n", entry.getKey(), Long.toHexString(entry.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Determines whether the given source was formatted already when it had the given content hash.
+     */
+    public boolean isFormatted(File source, long hash) {
+        Long formattedHash = formatted.get(source.getAbsolutePath());
+        return formattedHash != null && formattedHash == hash;
+    }
+
+    /**
+     * Records that the given source is formatted with its current content, which has the given hash.
+     */
+    public void markFormatted(File source, long hash) {
+        formatted.put(source.getAbsolutePath(), hash);
+    }
+
+    /**
+     * Forgets about the given source, e.g. because it's not formatted (anymore).
+     */
+    public void forget(File source) {
+        formatted.remove(source.getAbsolutePath());
+    }
+
+}
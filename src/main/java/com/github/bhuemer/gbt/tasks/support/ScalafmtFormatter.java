@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Formats Scala sources with scalafmt, loaded from the given JAR files (`scalafmt-core` and its dependencies).
+ * Class loaders are cached for the lifetime of the process, so that later builds don't need to load (and JIT
+ * compile) the formatter again. Instances are thread-safe, i.e. sources can be formatted in parallel.
+ */
+public final class ScalafmtFormatter {
+
+    /** The number of different formatter class paths that we keep class loaders for */
+    private static final int MAX_CLASS_LOADERS = 4;
+
+    /** Class loaders for the formatter, keyed by class path, least recently used first */
+    private static final Map<List<File>, ClassLoader> classLoaders =
+        new LinkedHashMap<List<File>, ClassLoader>(MAX_CLASS_LOADERS * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<File>, ClassLoader> eldest) {
+                return size() > MAX_CLASS_LOADERS;
+            }
+        };
+
+    /** `org.scalafmt.Scalafmt.format(String, ScalafmtConfig, Set[Range], String)` */
+    private final Method format;
+
+    /** The parsed configuration */
+    private final Object config;
+
+    /** An empty `scala.collection.immutable.Set`, i.e. format the whole file rather than a range of it */
+    private final Object allRanges;
+
+    private ScalafmtFormatter(Method format, Object config, Object allRanges) {
+        this.format = format;
+        this.config = config;
+        this.allRanges = allRanges;
+    }
+
+    /**
+     * Loads the formatter from the given JAR files, configured with the given HOCON configuration (i.e. the content
+     * of a `.scalafmt.conf` file).
+     *
+     * @throws IllegalArgumentException if the configuration is invalid
+     * @throws IllegalStateException if the given JAR files don't contain a compatible version of scalafmt
+     */
+    public static ScalafmtFormatter load(Collection<File> classpath, String configuration) {
+        Objects.requireNonNull(configuration, "The given configuration must not be null.");
+        ClassLoader classLoader = classLoader(classpath);
+        try {
+            Class<?> scalafmt = classLoader.loadClass("org.scalafmt.Scalafmt");
+            Object parsed = scalafmt.getMethod("parseHoconConfig", String.class).invoke(null, configuration);
+            Object config;
+            try {
+                config = parsed.getClass().getMethod("get").invoke(parsed);
+            } catch (InvocationTargetException ex) {
+                throw new IllegalArgumentException("Invalid scalafmt configuration: " + ex.getCause().getMessage(), ex.getCause());
+            }
+
+            Class<?> setModule = classLoader.loadClass("scala.collection.immutable.Set$");
+            Object allRanges = setModule.getMethod("empty").invoke(setModule.getField("MODULE$").get(null));
+
+            Method format = scalafmt.getMethod("format", String.class,
+                classLoader.loadClass("org.scalafmt.config.ScalafmtConfig"),
+                classLoader.loadClass("scala.collection.immutable.Set"),
+                String.class);
+            return new ScalafmtFormatter(format, config, allRanges);
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            throw new IllegalStateException("Cannot load scalafmt from " + classpath + ": " + ex, ex);
+        }
+    }
+
+    /**
+     * Returns the given source code formatted.
+     *
+     * @param fileName The name of the source, which the configuration might refer to (e.g. `*.sbt` files)
+     * @throws IllegalArgumentException if the source cannot be formatted, e.g. because it doesn't parse
+     */
+    public String format(String code, String fileName) {
+        try {
+            Object formatted = format.invoke(null, code, config, allRanges, fileName);
+            return (String) formatted.getClass().getMethod("get").invoke(formatted);
+        } catch (InvocationTargetException ex) {
+            throw new IllegalArgumentException(ex.getCause().getMessage(), ex.getCause());
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Cannot call scalafmt: " + ex, ex);
+        }
+    }
+
+    private static ClassLoader classLoader(Collection<File> classpath) {
+        List<File> key = new ArrayList<>(classpath);
+        synchronized (classLoaders) {
+            ClassLoader classLoader = classLoaders.get(key);
+            if (classLoader == null) {
+                URL[] urls = new URL[key.size()];
+                for (int i = 0; i < urls.length; i++) {
+                    try {
+                        urls[i] = key.get(i).toURI().toURL();
+                    } catch (MalformedURLException ex) {
+                        // This shouldn't ever happen really.
+                        throw new IllegalStateException(key.get(i) + " cannot be converted to a URL.", ex);
+                    }
+                }
+
+                // Isolated from the build, apart from the JDK itself
+                classLoader = new URLClassLoader(urls, ClassLoader.getSystemClassLoader().getParent());
+                classLoaders.put(key, classLoader);
+            }
+            return classLoader;
+        }
+    }
+
+}
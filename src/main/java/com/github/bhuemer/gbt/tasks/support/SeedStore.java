@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import net.openhft.hashing.LongHashFunction;
+import org.gradle.api.logging.Logger;
+import sbt.internal.inc.FileAnalysisStore;
+import xsbti.compile.AnalysisContents;
+import xsbti.compile.AnalysisStore;
+import xsbti.compile.analysis.ReadWriteMappers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A local, content-addressed store of earlier compilations, i.e. their analysis and class files, that lets a
+ * compile task without any state of its own (a fresh checkout, a new worktree, a clean CI workspace) start from
+ * the closest earlier compilation rather than compile everything from scratch.
+ *
+ * Compilations are grouped by a key that covers everything that must match exactly for the analysis to be
+ * reusable at all: the task, the Scala version, the compiler options and the contents of the classpath. Within
+ * such a group, entries are addressed by the contents of their sources, and the one with the fewest differing
+ * sources is picked. Analyses are stored relative to the root directory of the build, so that they can be used
+ * from wherever the build happens to be checked out.
+ */
+public class SeedStore {
+
+    /** The version of the store layout, bump this whenever the layout or the way keys are computed changes. */
+    private static final int FORMAT_VERSION = 1;
+
+    /** The number of compilations to keep per key, the least recently used ones are removed first */
+    private static final int MAX_ENTRIES_PER_KEY = 3;
+
+    private static final String ANALYSIS_FILE = "analysis.bin";
+
+    private static final String CLASSES_DIRECTORY = "classes";
+
+    private static final String SOURCES_FILE = "sources.txt";
+
+    private static final LongHashFunction HASH_FUNCTION = LongHashFunction.farmNa();
+
+    private final Path storeDirectory;
+
+    /** The root directory of the build, all paths below it are stored relative to it */
+    private final Path rootDirectory;
+
+    private final SourceStamper stamper;
+
+    private final Logger logger;
+
+    public SeedStore(File storeDirectory, File rootDirectory, SourceStamper stamper, Logger logger) {
+        this.storeDirectory = Objects.requireNonNull(storeDirectory, "The given store directory must not be null.").toPath();
+        this.rootDirectory = Objects.requireNonNull(rootDirectory, "The given root directory must not be null.").toPath();
+        this.stamper = Objects.requireNonNull(stamper, "The given stamper must not be null.");
+        this.logger = Objects.requireNonNull(logger, "The given logger instance must not be null.");
+    }
+
+    /**
+     * Computes the key for compilations that can seed each other, based on everything apart from the sources.
+     *
+     * @param taskId Identifies the compile task across checkouts, e.g. its path within the build
+     */
+    public String key(String taskId, String scalaVersion, List<String> options, Collection<File> classpath) {
+        StringBuilder key = new StringBuilder()
+            .append(FORMAT_VERSION).append('\n')
+            .append(taskId).append('\n')
+            .append(scalaVersion).append('\n');
+        for (String option : options) {
+            // Options might refer to files in the build, e.g. plugin JAR files or profiler output
+            key.append(option.replace(rootDirectory.toString(), "$ROOT")).append('\n');
+        }
+        for (File entry : classpath) {
+            key.append(Long.toHexString(contentHash(entry.toPath()))).append('\n');
+        }
+        return Long.toHexString(HASH_FUNCTION.hashChars(key));
+    }
+
+    /**
+     * Seeds the given analysis file and destination directory with the closest earlier compilation, if there is
+     * one for the given key that has at least some sources in common with the given ones.
+     *
+     * @return `true` if the state was seeded, `false` if there was nothing suitable
+     */
+    public boolean restore(String key, Collection<File> sources, File analysisFile, File destinationDirectory) {
+        Path keyDirectory = storeDirectory.resolve(key);
+        if (!Files.isDirectory(keyDirectory)) {
+            return false;
+        }
+
+        Map<String, String> currentSources = sourceHashes(sources);
+        Path closest = null;
+        int closestDistance = Integer.MAX_VALUE;
+        try (Stream<Path> entries = Files.list(keyDirectory)) {
+            for (Path entry : entries.filter(SeedStore::isComplete).collect(Collectors.toList())) {
+                int distance = distance(currentSources, readSources(entry.resolve(SOURCES_FILE)));
+                if (distance < closestDistance) {
+                    closest = entry;
+                    closestDistance = distance;
+                }
+            }
+        } catch (IOException | UncheckedIOException ex) {
+            logger.debug("Cannot look up seeds in '" + keyDirectory + "'.", ex);
+            return false;
+        }
+
+        // If nothing is in common, we're better off compiling from scratch
+        if (closest == null || closestDistance >= currentSources.size() + countSources(closest)) {
+            return false;
+        }
+
+        try {
+            copyDirectory(closest.resolve(CLASSES_DIRECTORY), destinationDirectory.toPath());
+            Optional<AnalysisContents> analysis = analysisStore(closest.resolve(ANALYSIS_FILE).toFile()).get();
+            if (!analysis.isPresent()) {
+                return false;
+            }
+            Files.createDirectories(analysisFile.getParentFile().toPath());
+            FileAnalysisStore.binary(analysisFile).set(analysis.get());
+            Files.setLastModifiedTime(closest, FileTime.fromMillis(System.currentTimeMillis()));
+
+            logger.info("Seeded the compilation from '" + closest + "', " + closestDistance + " source(s) differ.");
+            return true;
+        } catch (IOException | RuntimeException ex) {
+            // Whatever we've restored so far is unusable, the compiler will have to start from scratch
+            logger.info("Cannot seed the compilation from '" + closest + "': " + ex.getMessage());
+            deleteDirectory(destinationDirectory.toPath());
+            //noinspection ResultOfMethodCallIgnored
+            analysisFile.delete();
+            return false;
+        } finally {
+            stamper.save();
+        }
+    }
+
+    /**
+     * Records the current state of a compilation, unless the store already has an entry for the same sources.
+     */
+    public void publish(String key, Collection<File> sources, File analysisFile, File destinationDirectory) {
+        Map<String, String> currentSources = sourceHashes(sources);
+        Path keyDirectory = storeDirectory.resolve(key);
+        Path entry = keyDirectory.resolve(Long.toHexString(HASH_FUNCTION.hashChars(currentSources.toString())));
+        if (isComplete(entry)) {
+            return;
+        }
+
+        Path tempEntry = keyDirectory.resolve(entry.getFileName() + ".tmp-" + UUID.randomUUID());
+        try {
+            Optional<AnalysisContents> analysis = FileAnalysisStore.binary(analysisFile).get();
+            if (!analysis.isPresent()) {
+                return;
+            }
+
+            Files.createDirectories(tempEntry);
+            copyDirectory(destinationDirectory.toPath(), tempEntry.resolve(CLASSES_DIRECTORY));
+            analysisStore(tempEntry.resolve(ANALYSIS_FILE).toFile()).set(analysis.get());
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(tempEntry.resolve(SOURCES_FILE), StandardCharsets.UTF_8))) {
+                currentSources.forEach((path, hash) -> out.println(hash + " " + path));
+            }
+
+            Files.move(tempEntry, entry, StandardCopyOption.ATOMIC_MOVE);
+            evictLeastRecentlyUsed(keyDirectory);
+        } catch (FileAlreadyExistsException ex) {
+            // Another build published the same state in the meantime
+        } catch (IOException | RuntimeException ex) {
+            logger.info("Cannot record the compilation in '" + storeDirectory + "': " + ex.getMessage());
+        } finally {
+            deleteDirectory(tempEntry);
+            stamper.save();
+        }
+    }
+
+    private AnalysisStore analysisStore(File file) {
+        return FileAnalysisStore.binary(file, ReadWriteMappers.getMachineIndependentMapper(rootDirectory));
+    }
+
+    private static boolean isComplete(Path entry) {
+        return !entry.getFileName().toString().contains(".tmp-") && Files.isRegularFile(entry.resolve(SOURCES_FILE));
+    }
+
+    /**
+     * Returns the number of sources that are not the same in both the given maps.
+     */
+    private static int distance(Map<String, String> current, Map<String, String> seed) {
+        int distance = 0;
+        for (Map.Entry<String, String> source : current.entrySet()) {
+            if (!source.getValue().equals(seed.get(source.getKey()))) {
+                distance++;
+            }
+        }
+        for (String path : seed.keySet()) {
+            if (!current.containsKey(path)) {
+                distance++;
+            }
+        }
+        return distance;
+    }
+
+    private static int countSources(Path entry) {
+        try {
+            return readSources(entry.resolve(SOURCES_FILE)).size();
+        } catch (IOException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the content hashes of the given sources, keyed by their path relative to the root directory.
+     */
+    private Map<String, String> sourceHashes(Collection<File> sources) {
+        stamper.prepare(sources.stream().map(File::toPath).collect(Collectors.toList()));
+
+        Map<String, String> result = new TreeMap<>();
+        for (File source : sources) {
+            result.put(relativize(source.toPath()), Long.toHexString(stamper.hash(source.toPath())));
+        }
+        return result;
+    }
+
+    private static Map<String, String> readSources(Path file) throws IOException {
+        Map<String, String> result = new HashMap<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            int separator = line.indexOf(' ');
+            if (separator > 0) {
+                result.put(line.substring(separator + 1), line.substring(0, separator));
+            }
+        }
+        return result;
+    }
+
+    private String relativize(Path path) {
+        Path absolutePath = path.toAbsolutePath().normalize();
+        return absolutePath.startsWith(rootDirectory)
+            ? rootDirectory.relativize(absolutePath).toString().replace(File.separatorChar, '/')
+            : absolutePath.toString();
+    }
+
+    /**
+     * Hashes the content of a classpath entry, for directories that's the relative paths and contents of all files.
+     */
+    private long contentHash(Path entry) {
+        if (Files.isRegularFile(entry)) {
+            return stamper.hash(entry);
+        } else if (!Files.isDirectory(entry)) {
+            return 0;
+        }
+
+        try (Stream<Path> files = Files.walk(entry)) {
+            StringBuilder hashes = new StringBuilder();
+            for (Path file : files.filter(Files::isRegularFile).sorted().collect(Collectors.toList())) {
+                hashes.append(entry.relativize(file)).append('=').append(stamper.hash(file)).append('\n');
+            }
+            return HASH_FUNCTION.hashChars(hashes);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void evictLeastRecentlyUsed(Path keyDirectory) throws IOException {
+        List<Path> entries;
+        try (Stream<Path> files = Files.list(keyDirectory)) {
+            entries = files.filter(SeedStore::isComplete).collect(Collectors.toCollection(ArrayList::new));
+        }
+        if (entries.size() <= MAX_ENTRIES_PER_KEY) {
+            return;
+        }
+
+        entries.sort(Comparator.comparing(SeedStore::lastModified).reversed());
+        for (Path entry : entries.subList(MAX_ENTRIES_PER_KEY, entries.size())) {
+            deleteDirectory(entry);
+        }
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException ex) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /**
+     * Copies the class files of the given directory, as hard links wherever possible. Store entries and destination
+     * directories can share class files like that, as they are never modified in place: Zinc deletes the class files
+     * of the sources it recompiles, so the compiler always writes new ones.
+     */
+    private static void copyDirectory(Path source, Path target) throws IOException {
+        if (!Files.isDirectory(source)) {
+            return;
+        }
+
+        try (Stream<Path> files = Files.walk(source)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                Path targetFile = target.resolve(source.relativize(file).toString());
+                if (Files.isDirectory(file)) {
+                    Files.createDirectories(targetFile);
+                } else {
+                    Files.deleteIfExists(targetFile);
+                    try {
+                        Files.createLink(targetFile, file);
+                    } catch (IOException | UnsupportedOperationException ex) {
+                        Files.copy(file, targetFile, StandardCopyOption.COPY_ATTRIBUTES);
+                    }
+                }
+            }
+        }
+    }
+
+    private void deleteDirectory(Path directory) {
+        if (!Files.exists(directory)) {
+            return;
+        }
+
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        } catch (IOException ex) {
+            logger.debug("Cannot delete '" + directory + "'.", ex);
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import sbt.internal.inc.PlainVirtualFileConverter;
+import xsbti.FileConverter;
+import xsbti.PathBasedFile;
+import xsbti.VirtualFile;
+import xsbti.VirtualFileRef;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Converts between paths and the files that the incremental compiler works with. The sources of a compilation
+ * are always represented by the same {@link MappedSourceFile}s, so that each of them is read at most once by the
+ * stamper, no matter how often it asks. Everything else is a plain file.
+ */
+public final class SourceFileConverter implements FileConverter {
+
+    private final FileConverter plainConverter = PlainVirtualFileConverter.converter();
+
+    /** The sources of this compilation, keyed by path (which is also their ID) */
+    private final Map<String, MappedSourceFile> sources = new HashMap<>();
+
+    public SourceFileConverter(Collection<File> sources) {
+        for (File source : sources) {
+            MappedSourceFile sourceFile = new MappedSourceFile(source.toPath());
+            this.sources.put(source.toPath().toString(), sourceFile);
+        }
+    }
+
+    @Override
+    public Path toPath(VirtualFileRef ref) {
+        if (ref instanceof PathBasedFile) {
+            return ((PathBasedFile) ref).toPath();
+        }
+        return plainConverter.toPath(ref);
+    }
+
+    @Override
+    public VirtualFile toVirtualFile(VirtualFileRef ref) {
+        MappedSourceFile source = sources.get(ref.id());
+        return source != null ? source : plainConverter.toVirtualFile(ref);
+    }
+
+    @Override
+    public VirtualFile toVirtualFile(Path path) {
+        MappedSourceFile source = sources.get(path.toString());
+        return source != null ? source : plainConverter.toVirtualFile(path);
+    }
+
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import org.gradle.api.logging.Logger;
+import sbt.internal.inc.EmptyStamp$;
+import sbt.internal.inc.FarmHash$;
+import sbt.internal.inc.LastModified;
+import xsbti.FileConverter;
+import xsbti.VirtualFile;
+import xsbti.VirtualFileRef;
+import xsbti.compile.analysis.ReadStamps;
+import xsbti.compile.analysis.Stamp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.LongSupplier;
+
+/**
+ * Stamps sources, products and libraries for the incremental compiler, i.e. decides what counts as a change.
+ *
+ * Content hashes are computed with FarmHash (a fast, non-cryptographic hash) and remembered together with
+ * the size and modification time of each file, both in memory and - via {@link #save()} - between builds.
+ * Files are read through {@link MappedSourceFile}, i.e. large ones are memory-mapped rather than copied.
+ */
+public class SourceStamper implements ReadStamps {
+
+    /** The version of the cache file format, bump this whenever the format or the hash function changes. */
+    private static final int CACHE_FORMAT_VERSION = 1;
+
+    /**
+     * The strategies to decide whether a file has changed.
+     */
+    public enum Strategy {
+
+        /** Only looks at modification times, cheap but unreliable after checkouts or cache restores. */
+        MTIME("mtime"),
+
+        /** Always hashes the content of files. */
+        HASH("hash"),
+
+        /** Hashes the content of files, but only if their size or modification time changed since the last build. */
+        MTIME_THEN_HASH("mtime-then-hash");
+
+        private final String id;
+
+        Strategy(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Returns the strategy with the given ID, e.g. `mtime-then-hash`.
+         * @throws IllegalArgumentException if there is no such strategy
+         */
+        public static Strategy fromId(String id) {
+            for (Strategy strategy : values()) {
+                if (strategy.id.equalsIgnoreCase(id)) {
+                    return strategy;
+                }
+            }
+            throw new IllegalArgumentException(
+                "Unknown stamping strategy '" + id + "', expected one of 'mtime', 'hash' or 'mtime-then-hash'.");
+        }
+
+    }
+
+    private final Strategy strategy;
+
+    private final FileConverter converter;
+
+    /** The file that we persist hashes to between builds, might be `null` */
+    private final File cacheFile;
+
+    private final Logger logger;
+
+    /** Hashes we have computed (or loaded), keyed by absolute path */
+    private final Map<String, CachedHash> hashes = new ConcurrentHashMap<>();
+
+    /** The paths that have been looked up since this instance was created, their hashes are always persisted */
+    private final Set<String> lookedUp = ConcurrentHashMap.newKeySet();
+
+    public SourceStamper(Strategy strategy, FileConverter converter, File cacheFile, Logger logger) {
+        this.strategy = Objects.requireNonNull(strategy, "The given strategy must not be null.");
+        this.converter = Objects.requireNonNull(converter, "The given file converter must not be null.");
+        this.cacheFile = cacheFile;
+        this.logger = Objects.requireNonNull(logger, "The given logger instance must not be null.");
+        load();
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Hashes all the given files on the fork-join pool, so that the compiler won't have to wait for each of
+     * them sequentially once it starts asking for stamps. Does nothing if we only look at modification times.
+     */
+    public void prepare(Collection<Path> files) {
+        if (strategy == Strategy.MTIME) {
+            return;
+        }
+
+        try {
+            ForkJoinPool.commonPool().submit(() ->
+                files.parallelStream().forEach(path -> stamp(converter.toVirtualFile(path), strategy))).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            // Not fatal, we'll just try again once the compiler asks for the stamp
+            logger.debug("Cannot hash all files upfront.", ex.getCause());
+        }
+    }
+
+    /**
+     * Returns the content hash of the given file, computing it only if we don't know it yet for the current
+     * size and modification time of the file (or always, if the strategy is {@link Strategy#HASH}).
+     */
+    public long hash(Path path) {
+        return hash(path, () -> {
+            try {
+                return MappedSourceFile.hash(path);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        });
+    }
+
+    /**
+     * Returns the content hash of the given file, asking the given function for it only if necessary.
+     */
+    private long hash(Path path, LongSupplier contentHash) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            long size = attributes.size();
+            long lastModified = attributes.lastModifiedTime().toMillis();
+
+            String key = path.toAbsolutePath().toString();
+            lookedUp.add(key);
+            CachedHash cached = hashes.get(key);
+            if (cached != null && cached.size == size && cached.lastModified == lastModified
+                    && (strategy != Strategy.HASH || cached.fresh)) {
+                return cached.hash;
+            }
+
+            long hash = contentHash.getAsLong();
+            hashes.put(key, new CachedHash(size, lastModified, hash, true));
+            return hash;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    // ------------------------------------------ ReadStamps methods
+
+    @Override
+    public Stamp source(VirtualFile file) {
+        return stamp(file, strategy);
+    }
+
+    /**
+     * Class files are always stamped by content. The {@link UnchangedClassFileManager} restores the original
+     * modification time of regenerated class files only after Zinc stamped them, so with modification times
+     * the next compilation would find every such class file modified, and recompile its sources all over again.
+     */
+    @Override
+    public Stamp product(VirtualFileRef file) {
+        return stamp(file, strategy == Strategy.MTIME ? Strategy.MTIME_THEN_HASH : strategy);
+    }
+
+    @Override
+    public Stamp library(VirtualFileRef file) {
+        return stamp(file, strategy);
+    }
+
+    @Override
+    public Map<VirtualFileRef, Stamp> getAllSourceStamps() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public Map<VirtualFileRef, Stamp> getAllProductStamps() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public Map<VirtualFileRef, Stamp> getAllLibraryStamps() {
+        return Collections.emptyMap();
+    }
+
+    private Stamp stamp(VirtualFileRef file, Strategy strategy) {
+        Path path = converter.toPath(file);
+        try {
+            if (!Files.isRegularFile(path)) {
+                // Directories on the classpath, files that have been deleted, etc.
+                return Files.isDirectory(path)
+                    ? new LastModified(Files.getLastModifiedTime(path).toMillis())
+                    : EmptyStamp$.MODULE$;
+            }
+
+            if (strategy == Strategy.MTIME) {
+                return new LastModified(Files.getLastModifiedTime(path).toMillis());
+            } else {
+                // Sources of the compilation know their hash already, or at least share their content with the compiler
+                return FarmHash$.MODULE$.fromLong(file instanceof MappedSourceFile
+                    ? hash(path, ((MappedSourceFile) file)::contentHash)
+                    : hash(path));
+            }
+        } catch (NoSuchFileException ex) {
+            return EmptyStamp$.MODULE$;
+        } catch (IOException | UncheckedIOException ex) {
+            logger.debug("Cannot stamp '" + path + "'.", ex);
+            return EmptyStamp$.MODULE$;
+        }
+    }
+
+    // ------------------------------------------ Persistence
+
+    private void load() {
+        if (cacheFile == null || !cacheFile.isFile()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile.toPath())))) {
+            if (in.readInt() != CACHE_FORMAT_VERSION) {
+                return;
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                hashes.put(path, new CachedHash(in.readLong(), in.readLong(), in.readLong(), false));
+            }
+        } catch (IOException ex) {
+            logger.debug("Ignoring unreadable stamp cache '" + cacheFile + "'.", ex);
+            hashes.clear();
+        }
+    }
+
+    /**
+     * Persists the hashes that we know about, so that the next build doesn't need to compute them again. Hashes
+     * loaded from an earlier build are dropped if their files don't exist anymore, unless they were looked up in
+     * this one, so that the cache doesn't keep growing with every deleted or renamed file.
+     */
+    public void save() {
+        if (cacheFile == null) {
+            return;
+        }
+
+        Map<String, CachedHash> kept = new HashMap<>();
+        hashes.forEach((path, hash) -> {
+            if (lookedUp.contains(path) || new File(path).exists()) {
+                kept.put(path, hash);
+            }
+        });
+
+        try {
+            Files.createDirectories(cacheFile.getParentFile().toPath());
+            File tempFile = new File(cacheFile.getParentFile(), cacheFile.getName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile.toPath())))) {
+                out.writeInt(CACHE_FORMAT_VERSION);
+                out.writeInt(kept.size());
+                for (Map.Entry<String, CachedHash> entry : kept.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue().size);
+                    out.writeLong(entry.getValue().lastModified);
+                    out.writeLong(entry.getValue().hash);
+                }
+            }
+            Files.move(tempFile.toPath(), cacheFile.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            logger.warn("Cannot write stamp cache '" + cacheFile + "': " + ex.getMessage());
+        }
+    }
+
+    private static final class CachedHash {
+
+        private final long size;
+
+        private final long lastModified;
+
+        private final long hash;
+
+        /** Whether this hash was computed in this build, rather than loaded from the cache file */
+        private final boolean fresh;
+
+        private CachedHash(long size, long lastModified, long hash, boolean fresh) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.fresh = fresh;
+        }
+
+    }
+
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Remembers how long the compile tasks of a build usually take, and which of them should start first so that
+ * the longest chain of dependent tasks (the critical path) doesn't end up running on its own at the end of a
+ * parallel build. Tasks that aren't on the critical path should run after the ones on it that they don't depend
+ * on, i.e. whenever a worker is free and both are ready, the one on the critical path goes first.
+ */
+public final class TaskDurations {
+
+    /** The version of the file format, bump this whenever the format changes. */
+    private static final String FORMAT_VERSION = "# scala task durations v1";
+
+    /** The version of the format of the planned task order, bump this whenever the format changes. */
+    private static final String PLAN_FORMAT_VERSION = "# scala task order v1";
+
+    /** How much weight the latest duration of a task gets, compared to all the earlier ones */
+    private static final double SMOOTHING = 0.5;
+
+    /** The (smoothed) duration of each task in milliseconds, keyed by task path */
+    private final Map<String, Long> durations;
+
+    /** The tasks that each task should run after, keyed by task path */
+    private final Map<String, Set<String>> runAfter;
+
+    private TaskDurations(Map<String, Long> durations, Map<String, Set<String>> runAfter) {
+        this.durations = durations;
+        this.runAfter = runAfter;
+    }
+
+    public static TaskDurations empty() {
+        return new TaskDurations(new TreeMap<>(), new TreeMap<>());
+    }
+
+    /**
+     * Reads the durations persisted by {@link #write(File)}. They're empty if there are none (or none that we can read).
+     */
+    public static TaskDurations read(File file) throws IOException {
+        if (!file.isFile()) {
+            return empty();
+        }
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !FORMAT_VERSION.equals(lines.get(0))) {
+            return empty();
+        }
+
+        TaskDurations result = empty();
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length != 3) {
+                continue;
+            }
+
+            try {
+                result.durations.put(fields[0], Long.parseLong(fields[1]));
+            } catch (NumberFormatException ex) {
+                // Skip the entry, it's only a hint after all
+                continue;
+            }
+            if (!fields[2].isEmpty()) {
+                Set<String> tasks = new TreeSet<>();
+                Collections.addAll(tasks, fields[2].split(","));
+                result.runAfter.put(fields[0], tasks);
+            }
+        }
+        return result;
+    }
+
+    public void write(File file) throws IOException {
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+            out.println(FORMAT_VERSION);
+            for (Map.Entry<String, Long> entry : durations.entrySet()) {
+                out.printf("%s\t%d\t%s%n", entry.getKey(), entry.getValue(),
+                    String.join(",", runAfter.getOrDefault(entry.getKey(), Collections.emptySet())));
+            }
+        }
+    }
+
+    /**
+     * Writes the planned task order (see {@link #runAfter(String)}) to the given file, unless it contains the same
+     * plan already. Builds read this file while they build their task graph, i.e. it's an input of the configuration
+     * cache, which is why it's kept apart from the durations that change with every compilation.
+     *
+     * @return whether the file has been written
+     */
+    public boolean writePlan(File file) throws IOException {
+        StringBuilder plan = new StringBuilder(PLAN_FORMAT_VERSION).append('\n');
+        for (Map.Entry<String, Set<String>> entry : new TreeMap<>(runAfter).entrySet()) {
+            plan.append(entry.getKey()).append('\t').append(String.join(",", entry.getValue())).append('\n');
+        }
+
+        byte[] content = plan.toString().getBytes(StandardCharsets.UTF_8);
+        if (file.isFile() && Arrays.equals(content, Files.readAllBytes(file.toPath()))) {
+            return false;
+        }
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        Files.write(file.toPath(), content);
+        return true;
+    }
+
+    /**
+     * Parses the planned task order written by {@link #writePlan(File)}, i.e. the tasks that each task should run
+     * after, keyed by task path. It's empty if the plan uses a different format.
+     */
+    public static Map<String, Set<String>> parsePlan(String plan) {
+        String[] lines = plan.split("\n");
+        if (!PLAN_FORMAT_VERSION.equals(lines[0])) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, Set<String>> result = new HashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            String[] fields = lines[i].split("\t", -1);
+            if (fields.length == 2 && !fields[1].isEmpty()) {
+                result.put(fields[0], new TreeSet<>(Arrays.asList(fields[1].split(","))));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Records that the given task took the given number of milliseconds to run.
+     */
+    public void record(String task, long millis) {
+        if (millis < 0) {
+            return;
+        }
+
+        Long previous = durations.get(task);
+        durations.put(task, previous == null ? millis : Math.round(SMOOTHING * millis + (1 - SMOOTHING) * previous));
+    }
+
+    /**
+     * Returns how long the given task usually takes in milliseconds, if it has ever run before.
+     */
+    public OptionalLong get(String task) {
+        Long duration = durations.get(task);
+        return duration == null ? OptionalLong.empty() : OptionalLong.of(duration);
+    }
+
+    /**
+     * Returns the paths of the tasks that the given task should run after, as planned by {@link #plan(Map)}.
+     */
+    public Set<String> runAfter(String task) {
+        return Collections.unmodifiableSet(runAfter.getOrDefault(task, Collections.emptySet()));
+    }
+
+    /**
+     * Works out the critical path through the given tasks based on their recorded durations, and which tasks
+     * should run after which ones to start it as early as possible. Tasks that haven't run before are assumed to
+     * take as long as the average task. Nothing is planned until at least one of the tasks has run before.
+     *
+     * @param dependencies The tasks that each task depends on, directly or transitively, keyed by task path
+     * @return the critical path, i.e. the chain of dependent tasks that takes the longest, in execution order
+     */
+    public List<String> plan(Map<String, Set<String>> dependencies) {
+        dependencies.keySet().forEach(runAfter::remove);
+
+        long averageDuration = Math.round(dependencies.keySet().stream()
+            .filter(durations::containsKey)
+            .mapToLong(durations::get)
+            .average()
+            .orElse(-1));
+        if (averageDuration < 0) {
+            return Collections.emptyList();
+        }
+
+        Map<String, Set<String>> dependents = new HashMap<>();
+        dependencies.forEach((task, taskDependencies) -> taskDependencies.forEach(dependency ->
+            dependents.computeIfAbsent(dependency, ignored -> new HashSet<>()).add(task)));
+
+        // The rank of a task is the time it takes to finish it and everything that depends on it
+        Map<String, Long> ranks = new HashMap<>();
+        for (String task : dependencies.keySet()) {
+            rank(task, dependents, averageDuration, ranks, new HashSet<>());
+        }
+
+        List<String> criticalPath = new ArrayList<>();
+        String next = highestRank(dependencies.keySet(), ranks);
+        while (next != null) {
+            criticalPath.add(next);
+            next = highestRank(dependents.getOrDefault(next, Collections.emptySet()), ranks);
+        }
+
+        for (String task : dependencies.keySet()) {
+            if (criticalPath.contains(task)) {
+                continue;
+            }
+
+            Set<String> tasks = new TreeSet<>();
+            for (String criticalTask : criticalPath) {
+                if (ranks.get(criticalTask) > ranks.get(task)
+                        && !dependencies.get(task).contains(criticalTask)
+                        && !dependencies.getOrDefault(criticalTask, Collections.emptySet()).contains(task)) {
+                    tasks.add(criticalTask);
+                }
+            }
+            if (!tasks.isEmpty()) {
+                runAfter.put(task, tasks);
+            }
+        }
+        return criticalPath;
+    }
+
+    private long rank(String task, Map<String, Set<String>> dependents, long averageDuration,
+                      Map<String, Long> ranks, Set<String> visiting) {
+        Long rank = ranks.get(task);
+        if (rank != null) {
+            return rank;
+        }
+        if (!visiting.add(task)) {
+            // A dependency cycle, Gradle wouldn't run that anyway
+            return 0;
+        }
+
+        long longestDependent = 0;
+        for (String dependent : dependents.getOrDefault(task, Collections.emptySet())) {
+            longestDependent = Math.max(longestDependent, rank(dependent, dependents, averageDuration, ranks, visiting));
+        }
+        long result = durations.getOrDefault(task, averageDuration) + longestDependent;
+        ranks.put(task, result);
+        return result;
+    }
+
+    private static String highestRank(Set<String> tasks, Map<String, Long> ranks) {
+        String result = null;
+        for (String task : new TreeSet<>(tasks)) {
+            if (result == null || ranks.get(task) > ranks.get(result)) {
+                result = task;
+            }
+        }
+        return result;
+    }
+
+}
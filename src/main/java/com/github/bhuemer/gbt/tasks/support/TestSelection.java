@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The test classes that need to run for a change, or all of them if that cannot be determined reliably.
+ *
+ * Selections are persisted as plain-text files with one test class per line, prefixed by a comment line that
+ * explains the selection. A line with just `*` stands for all test classes.
+ */
+public final class TestSelection {
+
+    /** The line that stands for all test classes in persisted selections */
+    private static final String ALL = "*";
+
+    private static final String COMMENT = "# ";
+
+    /** The selected test classes, or `null` if all of them are selected */
+    private final Set<String> testClasses;
+
+    /** Why the test classes were selected, e.g. `no changes` */
+    private final String reason;
+
+    private TestSelection(Set<String> testClasses, String reason) {
+        this.testClasses = testClasses == null ? null : Collections.unmodifiableSet(new TreeSet<>(testClasses));
+        this.reason = Objects.requireNonNull(reason, "The given reason must not be null.");
+    }
+
+    /**
+     * Selects all test classes, e.g. because the dependencies between sources are not known.
+     */
+    public static TestSelection all(String reason) {
+        return new TestSelection(null, reason);
+    }
+
+    /**
+     * Selects only the given test classes, i.e. the ones that are affected by a change.
+     */
+    public static TestSelection of(Set<String> testClasses, String reason) {
+        return new TestSelection(Objects.requireNonNull(testClasses, "The given test classes must not be null."), reason);
+    }
+
+    public boolean isAll() {
+        return testClasses == null;
+    }
+
+    /**
+     * Returns the selected test classes, which is only meaningful if not all of them are selected.
+     */
+    public Set<String> getTestClasses() {
+        return testClasses == null ? Collections.emptySet() : testClasses;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * Reads a selection written by {@link #write(File)}. Missing files select all test classes.
+     */
+    public static TestSelection read(File file) throws IOException {
+        if (!file.isFile()) {
+            return all("no selection");
+        }
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        String reason = "";
+        Set<String> testClasses = new TreeSet<>();
+        for (String line : lines) {
+            if (line.startsWith(COMMENT)) {
+                reason = line.substring(COMMENT.length());
+            } else if (line.equals(ALL)) {
+                return all(reason);
+            } else if (!line.isEmpty()) {
+                testClasses.add(line);
+            }
+        }
+        return of(testClasses, reason);
+    }
+
+    public void write(File file) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+            out.println(COMMENT + reason);
+            if (isAll()) {
+                out.println(ALL);
+            } else {
+                testClasses.forEach(out::println);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return (isAll() ? "all test classes" : testClasses.size() + " test class(es)") + " (" + reason + ")";
+    }
+
+}
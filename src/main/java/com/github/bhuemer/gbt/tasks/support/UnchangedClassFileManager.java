@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import org.gradle.api.logging.Logger;
+import sbt.internal.inc.PlainVirtualFileConverter;
+import xsbti.VirtualFile;
+import xsbti.compile.ClassFileManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Makes sure that class files which the compiler regenerated with exactly the same content are left untouched,
+ * i.e. they keep their original file and modification time. Otherwise every recompiled class would look like a
+ * change to Gradle and to anything downstream (JAR files, up-to-date checks of test tasks, etc.).
+ *
+ * Zinc calls external class file managers before its own one, so by the time a class file is about to be
+ * deleted (and then moved to the backup by the transactional class file manager) we keep a link to it. Once
+ * compilation succeeded, regenerated files with identical content are replaced by the originals again.
+ */
+public class UnchangedClassFileManager implements ClassFileManager {
+
+    /** The directory where we keep links to (or copies of) the class files before they are regenerated */
+    private final Path stagingDirectory;
+
+    /** The path of the task that compiles, only used to label JFR events */
+    private final String taskPath;
+
+    private final Logger logger;
+
+    /** The original class files that were deleted, and where we kept them, in order of deletion */
+    private final Map<Path, Path> originals = new LinkedHashMap<>();
+
+    /** The class files generated by the compiler in any of its cycles */
+    private final Set<Path> generated = new LinkedHashSet<>();
+
+    public UnchangedClassFileManager(File stagingDirectory, String taskPath, Logger logger) {
+        this.stagingDirectory = Objects.requireNonNull(stagingDirectory, "The given directory must not be null.").toPath();
+        this.taskPath = Objects.requireNonNull(taskPath, "The given task path must not be null.");
+        this.logger = Objects.requireNonNull(logger, "The given logger instance must not be null.");
+        deleteStagingDirectory();
+    }
+
+    @Override
+    public void delete(VirtualFile[] classes) {
+        for (VirtualFile file : classes) {
+            keepOriginal(PlainVirtualFileConverter.converter().toPath(file));
+        }
+    }
+
+    @Override
+    public void delete(File[] classes) {
+        for (File file : classes) {
+            keepOriginal(file.toPath());
+        }
+    }
+
+    @Override
+    public void generated(VirtualFile[] classes) {
+        for (VirtualFile file : classes) {
+            generated.add(PlainVirtualFileConverter.converter().toPath(file));
+        }
+    }
+
+    @Override
+    public void generated(File[] classes) {
+        for (File file : classes) {
+            generated.add(file.toPath());
+        }
+    }
+
+    @Override
+    public void complete(boolean success) {
+        try (CompilerEvents.Span span = CompilerEvents.outputs(taskPath, generated.size())) {
+            if (success) {
+                restoreUnchanged();
+            }
+            span.setBytes(() -> generated.stream().mapToLong(file -> file.toFile().length()).sum());
+        } finally {
+            originals.clear();
+            generated.clear();
+            deleteStagingDirectory();
+        }
+    }
+
+    private void keepOriginal(Path file) {
+        // Later compiler cycles may delete files that an earlier cycle generated, we only care about the originals
+        if (originals.containsKey(file) || generated.contains(file) || !Files.isRegularFile(file)) {
+            return;
+        }
+
+        try {
+            Files.createDirectories(stagingDirectory);
+            Path original = stagingDirectory.resolve(originals.size() + ".class");
+            try {
+                // A hard link is the cheapest way to keep it, as the file itself will be moved or deleted anyway
+                Files.createLink(original, file);
+            } catch (IOException | UnsupportedOperationException ex) {
+                Files.copy(file, original, StandardCopyOption.COPY_ATTRIBUTES);
+            }
+            originals.put(file, original);
+        } catch (IOException ex) {
+            // Not fatal, the file will simply be rewritten
+            logger.debug("Cannot keep the original of '" + file + "'.", ex);
+        }
+    }
+
+    private void restoreUnchanged() {
+        int restored = 0;
+        for (Path file : generated) {
+            Path original = originals.get(file);
+            if (original == null || !Files.isRegularFile(file)) {
+                continue;
+            }
+
+            try {
+                if (sameContent(original, file)) {
+                    move(original, file);
+                    restored++;
+                }
+            } catch (IOException ex) {
+                logger.debug("Cannot restore the original of '" + file + "'.", ex);
+            }
+        }
+
+        if (restored > 0) {
+            logger.info("Kept " + restored + " of " + generated.size() + " generated class files unchanged.");
+        }
+    }
+
+    private static boolean sameContent(Path a, Path b) throws IOException {
+        return Files.size(a) == Files.size(b) && Arrays.equals(Files.readAllBytes(a), Files.readAllBytes(b));
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void deleteStagingDirectory() {
+        if (!Files.exists(stagingDirectory)) {
+            return;
+        }
+
+        try (Stream<Path> files = Files.walk(stagingDirectory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (IOException | UncheckedIOException ex) {
+            logger.debug("Cannot delete '" + stagingDirectory + "'.", ex);
+        }
+    }
+
+}
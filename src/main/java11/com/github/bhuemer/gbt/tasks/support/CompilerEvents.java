@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Marks what the plugin is doing (creating compilers, compiling, loading and storing analyses, writing class
+ * files) as Java Flight Recorder events, so that it shows up as more than stack samples in a recording.
+ *
+ * This is the Java 11 version of this class, see `src/main/java` for the (no-op) Java 8 version. Both need to
+ * declare exactly the same public methods.
+ */
+public final class CompilerEvents {
+
+    /**
+     * An event that is in progress, closing it ends (and commits) the event.
+     */
+    public interface Span extends AutoCloseable {
+
+        /** Records the number of bytes read or written, if the event is enabled and has a field for it */
+        default void setBytes(LongSupplier bytes) { }
+
+        @Override
+        void close();
+
+    }
+
+    private static final Span NO_OP = () -> { };
+
+    // do not instantiate this class
+    private CompilerEvents() { }
+
+    /**
+     * Creating the class loader for the compiler with the given number of JAR files. The task path is the task that
+     * the compiler was created for, empty if it was created by a warm-up. Compilers can be shared with compilations of
+     * other tasks later on, so that task is the only one that can be attributed with creating it.
+     */
+    public static Span classLoader(String taskPath, String scalaVersion, int jarCount) {
+        ClassLoaderEvent event = new ClassLoaderEvent();
+        if (!event.isEnabled()) {
+            return NO_OP;
+        }
+
+        event.taskPath = taskPath;
+        event.scalaVersion = scalaVersion;
+        event.jarCount = jarCount;
+        event.begin();
+        return event::commit;
+    }
+
+    /**
+     * Creating the Scala instance, i.e. the compiler and library for a particular Scala version, see
+     * {@link #classLoader} for which task path this is.
+     */
+    public static Span scalaInstance(String taskPath, String scalaVersion) {
+        ScalaInstanceEvent event = new ScalaInstanceEvent();
+        if (!event.isEnabled()) {
+            return NO_OP;
+        }
+
+        event.taskPath = taskPath;
+        event.scalaVersion = scalaVersion;
+        event.begin();
+        return event::commit;
+    }
+
+    /** A single invocation of the incremental compiler */
+    public static Span compile(String taskPath, String scalaVersion, int sourceCount, int classpathCount) {
+        CompileEvent event = new CompileEvent();
+        if (!event.isEnabled()) {
+            return NO_OP;
+        }
+
+        event.taskPath = taskPath;
+        event.scalaVersion = scalaVersion;
+        event.sourceCount = sourceCount;
+        event.classpathCount = classpathCount;
+        event.begin();
+        return event::commit;
+    }
+
+    /** Loading (`load`) or storing (`store`) the analysis of the incremental compiler */
+    public static Span analysis(String taskPath, String operation) {
+        AnalysisEvent event = new AnalysisEvent();
+        if (!event.isEnabled()) {
+            return NO_OP;
+        }
+
+        event.taskPath = taskPath;
+        event.operation = operation;
+        event.begin();
+        return new Span() {
+            @Override
+            public void setBytes(LongSupplier bytes) {
+                event.bytes = bytes.getAsLong();
+            }
+
+            @Override
+            public void close() {
+                event.commit();
+            }
+        };
+    }
+
+    /** Finalising the class files that the compiler wrote */
+    public static Span outputs(String taskPath, int fileCount) {
+        OutputEvent event = new OutputEvent();
+        if (!event.isEnabled()) {
+            return NO_OP;
+        }
+
+        event.taskPath = taskPath;
+        event.fileCount = fileCount;
+        event.begin();
+        return new Span() {
+            @Override
+            public void setBytes(LongSupplier bytes) {
+                event.bytes = bytes.getAsLong();
+            }
+
+            @Override
+            public void close() {
+                event.commit();
+            }
+        };
+    }
+
+    // ------------------------------------------ Event types
+
+    @Name("com.github.bhuemer.gbt.ClassLoader")
+    @Label("Scala Compiler Class Loader")
+    @Category({ "Gradle", "Scala" })
+    static final class ClassLoaderEvent extends Event {
+
+        @Label("Task Path")
+        @Description("The task that the compiler was created for, empty if it was created by a warm-up")
+        String taskPath;
+
+        @Label("Scala Version")
+        String scalaVersion;
+
+        @Label("JAR Files")
+        int jarCount;
+
+    }
+
+    @Name("com.github.bhuemer.gbt.ScalaInstance")
+    @Label("Scala Instance")
+    @Category({ "Gradle", "Scala" })
+    static final class ScalaInstanceEvent extends Event {
+
+        @Label("Task Path")
+        @Description("The task that the compiler was created for, empty if it was created by a warm-up")
+        String taskPath;
+
+        @Label("Scala Version")
+        String scalaVersion;
+
+    }
+
+    @Name("com.github.bhuemer.gbt.Compile")
+    @Label("Scala Compilation")
+    @Description("A single invocation of the incremental Scala compiler")
+    @Category({ "Gradle", "Scala" })
+    static final class CompileEvent extends Event {
+
+        @Label("Task Path")
+        String taskPath;
+
+        @Label("Scala Version")
+        String scalaVersion;
+
+        @Label("Source Files")
+        int sourceCount;
+
+        @Label("Classpath Entries")
+        int classpathCount;
+
+    }
+
+    @Name("com.github.bhuemer.gbt.Analysis")
+    @Label("Scala Analysis I/O")
+    @Description("Loading or storing the analysis of the incremental Scala compiler")
+    @Category({ "Gradle", "Scala" })
+    static final class AnalysisEvent extends Event {
+
+        @Label("Task Path")
+        String taskPath;
+
+        @Label("Operation")
+        String operation;
+
+        @Label("Size")
+        @DataAmount
+        long bytes;
+
+    }
+
+    @Name("com.github.bhuemer.gbt.Outputs")
+    @Label("Scala Class File Output")
+    @Description("Finalising the class files written by the Scala compiler")
+    @Category({ "Gradle", "Scala" })
+    static final class OutputEvent extends Event {
+
+        @Label("Task Path")
+        String taskPath;
+
+        @Label("Class Files")
+        int fileCount;
+
+        @Label("Size")
+        @DataAmount
+        long bytes;
+
+    }
+
+}
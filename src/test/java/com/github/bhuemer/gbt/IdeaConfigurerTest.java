@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt;
+
+import org.gradle.api.Project;
+import org.gradle.api.internal.project.ProjectInternal;
+import org.gradle.plugins.ide.idea.model.IdeaModel;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasItem;
+
+public class IdeaConfigurerTest {
+
+    /**
+     * Makes sure that Scala sources end up in the IDEA model itself, which is what IntelliJ IDEA reads when it
+     * imports a project, without ever configuring the `ideaModule` task.
+     */
+    @Test
+    public void scalaSourcesAreIncludedInIdeaModel() {
+        Project project = ProjectBuilder.builder().build();
+        project.getPluginManager().apply("idea");
+        project.getPluginManager().apply(ScalaPlugin.class);
+        ((ProjectInternal) project).evaluate();
+
+        IdeaModel model = project.getExtensions().getByType(IdeaModel.class);
+        assertThat(model.getModule().getSourceDirs(), hasItem(project.file("src/main/scala")));
+        assertThat(model.getModule().getTestSources().getFiles(), hasItem(project.file("src/test/scala")));
+    }
+
+}
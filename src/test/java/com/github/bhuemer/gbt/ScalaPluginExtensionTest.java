@@ -21,6 +21,8 @@
  */
 package com.github.bhuemer.gbt;
 
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.testfixtures.ProjectBuilder;
 import org.junit.Test;
 
 import java.util.function.Function;
@@ -35,9 +37,10 @@ public class ScalaPluginExtensionTest {
      */
     @Test
     public void majorScalaVersion() {
+        ObjectFactory objects = ProjectBuilder.builder().build().getObjects();
         Function<String, String> test = given -> {
-            ScalaPluginExtension extension = new ScalaPluginExtension();
-            extension.setScalaVersion(given);
+            ScalaPluginExtension extension = objects.newInstance(ScalaPluginExtension.class);
+            extension.getScalaVersion().set(given);
             return extension.getScalaMajorVersion();
         };
 
@@ -55,4 +58,15 @@ public class ScalaPluginExtensionTest {
         } catch (IllegalStateException expected) { }
     }
 
+    /**
+     * Makes sure that the binary Scala version, i.e. the suffix of cross-built libraries, is determined correctly.
+     */
+    @Test
+    public void binaryScalaVersion() {
+        assertEquals("2.12", ScalaPluginExtension.getScalaBinaryVersion("2.12.15"));
+        assertEquals("2.13", ScalaPluginExtension.getScalaBinaryVersion("2.13.8"));
+        assertEquals("3", ScalaPluginExtension.getScalaBinaryVersion("3.0.1"));
+        assertEquals("3", ScalaPluginExtension.getScalaBinaryVersion("3.1.2"));
+    }
+
 }
@@ -41,12 +41,14 @@ import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
+import static junit.framework.TestCase.assertFalse;
 import static junit.framework.TestCase.assertTrue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.arrayWithSize;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.not;
 
 public class ScalaPluginTest {
 
@@ -78,6 +80,55 @@ public class ScalaPluginTest {
         }
     }
 
+    /**
+     * Makes sure that the `checkScala` task type checks the sources, but doesn't produce any .class files.
+     */
+    @Test
+    public void checkScalaProducesNoClassFiles() throws Exception {
+        try (GradleRunner runner = GradleRunner.forProject("testSimple")) {
+            BuildResult result = runner.withArguments("checkScala", "--warning-mode", "all").build();
+
+            assertThat(result.getTasks().get(0), was(":compileJava", TaskOutcome.NO_SOURCE));
+            assertThat(result.getTasks().get(1), was(":checkScala", TaskOutcome.SUCCESS));
+
+            assertFalse(new File(runner.getProjectDir(), "build/classes/scala/main/App.class").exists());
+            assertFalse(new File(runner.getProjectDir(), "build/tmp/scala/typecheck/main/App.class").exists());
+        }
+    }
+
+    /**
+     * Makes sure that `scalafmtCheck` fails for sources that are not formatted, and passes once `scalafmt` formatted
+     * them (App.scala is missing the final newline).
+     */
+    @Test
+    public void scalafmtFormatsSourcesThatFailTheCheck() throws Exception {
+        try (GradleRunner runner = GradleRunner.forProject("testSimple")) {
+            BuildResult result = runner.withArguments("scalafmtCheck").buildAndFail();
+            assertThat(result.getTasks(), hasItem(was(":scalafmtCheck", TaskOutcome.FAILED)));
+            assertThat(result.getOutput(), containsString("App.scala"));
+
+            result = runner.withArguments("scalafmt", "scalafmtCheck").build();
+            assertThat(result.getTasks(), hasItem(was(":scalafmt", TaskOutcome.SUCCESS)));
+            assertThat(result.getTasks(), hasItem(was(":scalafmtCheck", TaskOutcome.SUCCESS)));
+            assertTrue(new String(Files.readAllBytes(new File(runner.getProjectDir(), "src/main/scala/App.scala").toPath()))
+                .endsWith("}\n"));
+        }
+    }
+
+    /**
+     * Makes sure that the compile tasks compile the formatted sources if `scalafmt` runs in the same build, no
+     * matter in which order the tasks are requested.
+     */
+    @Test
+    public void compileScalaRunsAfterScalafmt() throws Exception {
+        try (GradleRunner runner = GradleRunner.forProject("testSimple")) {
+            String output = runner.withArguments("compileScala", "checkScala", "scalafmt", "--dry-run").build().getOutput();
+
+            assertTrue(output.indexOf(":scalafmt ") < output.indexOf(":compileScala "));
+            assertTrue(output.indexOf(":scalafmt ") < output.indexOf(":checkScala "));
+        }
+    }
+
     /**
      */
     @Test
@@ -122,6 +173,159 @@ public class ScalaPluginTest {
         }
     }
 
+    /**
+     * Makes sure that the `checkTestScala` task type checks the main sources itself, rather than waiting for them
+     * to be compiled.
+     */
+    @Test
+    public void checkTestScalaDoesNotDependOnCompileScala() throws Exception {
+        try (GradleRunner runner = GradleRunner.forProject("testSimple")) {
+            BuildResult result = runner.withArguments("checkTestScala", "--dry-run").build();
+            assertThat(result.getOutput(), containsString(":checkTestScala"));
+            assertThat(result.getOutput(), not(containsString(":compileScala")));
+        }
+    }
+
+    /**
+     * Makes sure that `test` only selects the affected tests (and therefore depends on `scalaTestImpact`) if there
+     * is a revision to compare with.
+     */
+    @Test
+    public void testDependsOnTestImpactOnlyWithRevision() throws Exception {
+        try (GradleRunner runner = GradleRunner.forProject("testSimple")) {
+            BuildResult result = runner.withArguments("test", "--dry-run").build();
+            assertThat(result.getOutput(), not(containsString(":scalaTestImpact")));
+
+            result = runner.withArguments("test", "--dry-run", "-PtestImpactSince=HEAD").build();
+            assertThat(result.getOutput(), containsString(":scalaTestImpact"));
+        }
+    }
+
+    /**
+     * Makes sure that the compiler is only warmed up for compile tasks that run in the Gradle daemon.
+     */
+    @Test
+    public void testWarmsUpOnlyForCompilersInDaemon() throws Exception {
+        try (GradleRunner runner = GradleRunner
+                .forProject("testSimple")
+                .withBuildFile(
+                    "plugins {                      ",
+                    "   id 'com.github.bhuemer.gbt' ",
+                    "}                              ",
+                    "                               ",
+                    "scalac {                       ",
+                    "   scalaVersion = '2.12.8'     ",
+                    "   warmUp = true               ",
+                    "   fork = providers.gradleProperty('fork').map { it.toBoolean() }.orElse(false)",
+                    "}                              ",
+                    "                               ",
+                    "repositories {                 ",
+                    "   mavenCentral()              ",
+                    "}                              ",
+                    "                               ",
+                    "dependencies {                 ",
+                    "   implementation 'org.scala-lang:scala-library:2.12.8'",
+                    "}"
+                )) {
+            BuildResult result = runner.withArguments("compileScala", "--dry-run").build();
+            assertThat(result.getOutput(), containsString(":warmUpScala"));
+
+            result = runner.withArguments("compileScala", "--dry-run", "-Pfork=true").build();
+            assertThat(result.getOutput(), not(containsString(":warmUpScala")));
+        }
+    }
+
+    /**
+     * Makes sure that the plugin doesn't prevent the configuration cache from being stored and reused.
+     */
+    @Test
+    public void compileScalaReusesConfigurationCache() throws Exception {
+        try (GradleRunner runner = GradleRunner.forProject("testSimple")) {
+            runner.withArguments("compileScala", "--configuration-cache").build();
+            BuildResult result = runner.withArguments("compileScala", "--configuration-cache").build();
+
+            assertThat(result.getOutput(), containsString("Reusing configuration cache."));
+            assertThat(result.getTasks(), hasItem(was(":compileScala", TaskOutcome.UP_TO_DATE)));
+        }
+    }
+
+    /**
+     * Makes sure that compile tasks stay up-to-date if only comments change, as long as sources are normalized.
+     */
+    @Test
+    public void compileScalaIgnoresCommentOnlyChanges() throws Exception {
+        try (GradleRunner runner = GradleRunner
+                .forProject("testSimple")
+                .withBuildFile(
+                    "plugins {                      ",
+                    "   id 'com.github.bhuemer.gbt' ",
+                    "}                              ",
+                    "                               ",
+                    "scalac {                       ",
+                    "   scalaVersion = '2.12.8'     ",
+                    "   normalizeSource = true      ",
+                    "   scalacOptions = ['-g:source']",
+                    "}                              ",
+                    "                               ",
+                    "repositories {                 ",
+                    "   mavenCentral()              ",
+                    "}                              ",
+                    "                               ",
+                    "dependencies {                 ",
+                    "   implementation 'org.scala-lang:scala-library:2.12.8'",
+                    "}"
+                )) {
+            BuildResult result = runner.withArguments("compileScala").build();
+            assertThat(result.getTasks(), hasItem(was(":compileScala", TaskOutcome.SUCCESS)));
+
+            File source = new File(runner.getProjectDir(), "src/main/scala/App.scala");
+            Files.write(source.toPath(), ("/** Greets the world. */\n" +
+                "object App {\n  println(\"Hello world!\") // says hello\n}").getBytes("UTF-8"));
+
+            result = runner.withArguments("compileScala").build();
+            assertThat(result.getTasks(), hasItem(was(":fingerprintScala", TaskOutcome.SUCCESS)));
+            assertThat(result.getTasks(), hasItem(was(":compileScala", TaskOutcome.UP_TO_DATE)));
+        }
+    }
+
+    /**
+     * Makes sure that each of the `crossScalaVersions` gets its own compile tasks and output directories.
+     */
+    @Test
+    public void crossCompileScalaCompilesForAllVersions() throws Exception {
+        try (GradleRunner runner = GradleRunner
+                .forProject("testSimple")
+                .withBuildFile(
+                    "plugins {                      ",
+                    "   id 'com.github.bhuemer.gbt' ",
+                    "}                              ",
+                    "                               ",
+                    "scalac {                       ",
+                    "   scalaVersion = '2.12.8'     ",
+                    "   crossScalaVersions = ['2.12.8', '2.13.8']",
+                    "}                              ",
+                    "                               ",
+                    "repositories {                 ",
+                    "   mavenCentral()              ",
+                    "}                              ",
+                    "                               ",
+                    "dependencies {                 ",
+                    "   implementation 'org.scala-lang:scala-library:2.12.8'",
+                    "}"
+                )) {
+            BuildResult result = runner.withArguments("crossCompileScala").build();
+
+            assertThat(result.getTasks(), hasItem(was(":compileScala_2.12", TaskOutcome.SUCCESS)));
+            assertThat(result.getTasks(), hasItem(was(":compileScala_2.13", TaskOutcome.SUCCESS)));
+            assertThat(result.getTasks(), hasItem(was(":compileTestScala_2.12", TaskOutcome.SUCCESS)));
+            assertThat(result.getTasks(), hasItem(was(":compileTestScala_2.13", TaskOutcome.SUCCESS)));
+
+            assertTrue(new File(runner.getProjectDir(), "build/classes/scala_2.12/main/App.class").exists());
+            assertTrue(new File(runner.getProjectDir(), "build/classes/scala_2.13/main/App.class").exists());
+            assertTrue(new File(runner.getProjectDir(), "build/classes/scala_2.13/test/AppSpec.class").exists());
+        }
+    }
+
     /**
      * Makes sure that Scala 2.13 projects can be compiled successfully as well.
      */
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks;
+
+import org.gradle.api.GradleException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HeapSizingTest {
+
+    private static final long MB = 1024 * 1024;
+
+    private static final long LIMIT = 8192 * MB;
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Makes sure that heap sizes grow with the size of the task, but are rounded to buckets and stay within limits.
+     */
+    @Test
+    public void estimatesAreRoundedAndClamped() {
+        assertEquals(512 * MB, HeapSizing.estimate(10, 0, Collections.<HeapSizing.Peak>emptyList(), LIMIT));
+        assertEquals(768 * MB, HeapSizing.estimate(600, 0, Collections.<HeapSizing.Peak>emptyList(), LIMIT));
+        assertEquals(768 * MB, HeapSizing.estimate(10, 600 * MB, Collections.<HeapSizing.Peak>emptyList(), LIMIT));
+        assertEquals(2048 * MB, HeapSizing.estimate(100_000, 0, Collections.<HeapSizing.Peak>emptyList(), 2048 * MB));
+    }
+
+    /**
+     * Makes sure that recorded peaks raise the estimate, but that small incremental compilations never lower it.
+     */
+    @Test
+    public void largerOfRecordedPeaksAndEstimate() {
+        List<HeapSizing.Peak> incrementalPeaks = Collections.singletonList(new HeapSizing.Peak(100 * MB, 1));
+        assertEquals(768 * MB, HeapSizing.estimate(600, 0, incrementalPeaks, LIMIT));
+
+        List<HeapSizing.Peak> fullPeaks = Collections.singletonList(new HeapSizing.Peak(1000 * MB, 600));
+        assertEquals(1536 * MB, HeapSizing.estimate(600, 0, fullPeaks, LIMIT));
+    }
+
+    /**
+     * Makes sure that the peak of a full compilation is kept, no matter how many incremental ones follow it.
+     */
+    @Test
+    public void peakOfLargestCompilationIsKept() {
+        File stateDirectory = temporaryFolder.getRoot();
+        assertTrue(HeapSizing.readPeaks(stateDirectory).isEmpty());
+
+        HeapSizing.record(stateDirectory, new HeapSizing.Peak(1000 * MB, 600), 2048 * MB, 0.1);
+        for (int i = 0; i < 20; i++) {
+            HeapSizing.record(stateDirectory, new HeapSizing.Peak(100 * MB, 1), 512 * MB, 0.1);
+        }
+
+        List<HeapSizing.Peak> peaks = HeapSizing.readPeaks(stateDirectory);
+        assertEquals(11, peaks.size());
+        assertEquals(1536 * MB, HeapSizing.estimate(600, 0, peaks, LIMIT));
+    }
+
+    /**
+     * Makes sure that shared compilers get the same heap regardless of the task, within limits.
+     */
+    @Test
+    public void sharedHeapIsFixedAndClamped() {
+        assertEquals(1024 * MB, HeapSizing.shared(LIMIT));
+        assertEquals(512 * MB, HeapSizing.shared(512 * MB));
+    }
+
+    /**
+     * Makes sure that we only retry with a larger heap if there's room to grow and memory was the problem.
+     */
+    @Test
+    public void retriesOnlyMemoryFailures() {
+        assertEquals(1024 * MB, HeapSizing.retry(512 * MB, LIMIT));
+        assertEquals(LIMIT, HeapSizing.retry(LIMIT, LIMIT));
+
+        assertTrue(HeapSizing.isMemoryFailure(new GradleException("Worker failed", new OutOfMemoryError("Java heap space"))));
+        assertTrue(HeapSizing.isMemoryFailure(new ScalaCompileAction.MemoryPressureException("GC overhead", null)));
+        assertFalse(HeapSizing.isMemoryFailure(new GradleException("Compilation failed.")));
+    }
+
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks;
+
+import com.github.bhuemer.gbt.tasks.support.Json;
+import com.github.bhuemer.gbt.tasks.support.SourceStamper;
+import org.gradle.api.logging.Logging;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import sbt.internal.inc.APIs;
+import sbt.internal.inc.Analysis;
+import sbt.internal.inc.PlainVirtualFileConverter;
+import sbt.internal.inc.Relations;
+import sbt.internal.inc.Relations$;
+import scala.Tuple2;
+import scala.Tuple3;
+import scala.collection.JavaConverters;
+import xsbti.FileConverter;
+import xsbti.VirtualFileRef;
+import xsbti.api.AnalyzedClass;
+import xsbti.api.ExternalDependency;
+import xsbti.api.InternalDependency;
+import xsbti.api.NameHash;
+import xsbti.api.UseScope;
+import xsbti.compile.PreviousResult;
+import xsbti.compile.analysis.Compilation;
+import xsbti.compile.analysis.ReadCompilations;
+import xsbti.compile.analysis.ReadStamps;
+import xsbti.compile.analysis.Stamp;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InvalidationReportTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final FileConverter converter = PlainVirtualFileConverter.converter();
+
+    private final SourceStamper stamper = new SourceStamper(SourceStamper.Strategy.HASH, converter, null,
+        Logging.getLogger(InvalidationReportTest.class));
+
+    private Path a;
+
+    private Path b;
+
+    private Path c;
+
+    private Path d;
+
+    /** The analysis of a compilation of `A.scala`, `B.scala` (which uses `A`) and `C.scala` at time 1000 */
+    private Analysis previousAnalysis;
+
+    /**
+     * Writes the sources of the previous compilation and records their stamps, then changes `A.scala`, adds
+     * `D.scala` and removes `C.scala`.
+     */
+    @Before
+    public void setUp() throws Exception {
+        Path sources = temporaryFolder.getRoot().toPath();
+        a = write(sources.resolve("A.scala"), "class A { def foo = 1 }");
+        b = write(sources.resolve("B.scala"), "class B { def bar = new A().foo }");
+        c = write(sources.resolve("C.scala"), "class C");
+
+        Map<VirtualFileRef, Stamp> stamps = new HashMap<>();
+        for (Path source : Arrays.asList(a, b, c)) {
+            stamps.put(converter.toVirtualFile(source), stamper.source(converter.toVirtualFile(source)));
+        }
+
+        Relations relations = Relations$.MODULE$.empty();
+        relations = addSource(relations, a, "a.A");
+        relations = addSource(relations, b, "a.B");
+        relations = addSource(relations, c, "a.C");
+
+        Map<String, AnalyzedClass> apis = new HashMap<>();
+        apis.put("a.A", analyzedClass("a.A", 1000, 1, nameHash("foo", 1)));
+        apis.put("a.B", analyzedClass("a.B", 1000, 2, nameHash("bar", 2)));
+        apis.put("a.C", analyzedClass("a.C", 1000, 3));
+        previousAnalysis = analysis(relations, apis, stamps, 1000);
+
+        write(a, "class A { def foo = \"1\" }");
+        d = write(sources.resolve("D.scala"), "class D");
+        Files.delete(c);
+    }
+
+    /**
+     * Makes sure that the report tells the changed sources, the classes whose API changed (and the names that
+     * changed in them) and the sources that each invalidation cycle recompiled apart.
+     */
+    @Test
+    public void reportsChangesApiChangesAndCycles() throws Exception {
+        InvalidationReport report = before();
+
+        // `A.scala` and `D.scala` in the first cycle, then `B.scala` as it uses the API of `A` that changed
+        Relations relations = Relations$.MODULE$.empty();
+        relations = addSource(relations, a, "a.A");
+        relations = addSource(relations, b, "a.B");
+        relations = addSource(relations, d, "a.D");
+        Map<String, AnalyzedClass> apis = new HashMap<>();
+        apis.put("a.A", analyzedClass("a.A", 2000, 10, nameHash("foo", 10)));
+        apis.put("a.B", analyzedClass("a.B", 3000, 2, nameHash("bar", 2)));
+        apis.put("a.D", analyzedClass("a.D", 2000, 4));
+        Analysis analysis = analysis(relations, apis, Collections.emptyMap(), 2000, 3000);
+        report.after(analysis);
+
+        Map<String, Object> json = write(report);
+        Map<?, ?> initialChanges = (Map<?, ?>) json.get("initialChanges");
+        assertEquals(paths(d), initialChanges.get("addedSources"));
+        assertEquals(paths(c), initialChanges.get("removedSources"));
+        assertEquals(paths(a), initialChanges.get("modifiedSources"));
+
+        Map<?, ?> apiChanges = (Map<?, ?>) json.get("apiChanges");
+        assertEquals(Collections.singletonMap("a.A", Collections.singletonList("foo")), apiChanges.get("modified"));
+        assertEquals(Collections.singletonList("a.D"), apiChanges.get("added"));
+        assertEquals(Collections.singletonList("a.C"), apiChanges.get("removed"));
+
+        List<?> cycles = (List<?>) json.get("cycles");
+        assertEquals(2, cycles.size());
+        assertEquals(paths(a, d), ((Map<?, ?>) cycles.get(0)).get("addedSources"));
+        assertEquals(paths(b), ((Map<?, ?>) cycles.get(1)).get("addedSources"));
+
+        assertNull(json.get("fullCompileReason"));
+        assertEquals(3, InvalidationReport.recompiledSourceCount(previousAnalysis, analysis));
+    }
+
+    /**
+     * Makes sure that the report explains why all sources were recompiled, if the first cycle invalidated all of
+     * them for fewer changed ones.
+     */
+    @Test
+    public void reportsWhyAllSourcesWereRecompiled() throws Exception {
+        InvalidationReport report = before();
+
+        Relations relations = Relations$.MODULE$.empty();
+        relations = addSource(relations, a, "a.A");
+        relations = addSource(relations, b, "a.B");
+        relations = addSource(relations, d, "a.D");
+        Map<String, AnalyzedClass> apis = new HashMap<>();
+        apis.put("a.A", analyzedClass("a.A", 2000, 10, nameHash("foo", 10)));
+        apis.put("a.B", analyzedClass("a.B", 2000, 2, nameHash("bar", 2)));
+        apis.put("a.D", analyzedClass("a.D", 2000, 4));
+        report.after(analysis(relations, apis, Collections.emptyMap(), 2000));
+
+        Object reason = write(report).get("fullCompileReason");
+        assertTrue(String.valueOf(reason), String.valueOf(reason).startsWith("The first cycle invalidated 3 sources for 2 changed ones"));
+    }
+
+    private InvalidationReport before() {
+        Set<File> sources = new LinkedHashSet<>(Arrays.asList(a.toFile(), b.toFile(), d.toFile()));
+        PreviousResult previousResult = PreviousResult.of(Optional.of(previousAnalysis), Optional.empty());
+        return InvalidationReport.before(
+            ":compileScala", previousResult, sources, Collections.emptyList(), "2.13.8", stamper, converter);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> write(InvalidationReport report) throws Exception {
+        File reportFile = new File(temporaryFolder.getRoot(), "invalidation.json");
+        report.write(reportFile);
+        return (Map<String, Object>) Json.parse(new String(Files.readAllBytes(reportFile.toPath()), StandardCharsets.UTF_8));
+    }
+
+    private static List<String> paths(Path... files) {
+        String[] result = new String[files.length];
+        for (int i = 0; i < files.length; i++) {
+            result[i] = files[i].toAbsolutePath().toString();
+        }
+        return Arrays.asList(result);
+    }
+
+    private static Path write(Path file, String content) throws Exception {
+        return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Relations addSource(Relations relations, Path source, String className) {
+        return relations.addSource(
+            converter.toVirtualFile(source),
+            JavaConverters.collectionAsScalaIterable(Collections.<VirtualFileRef>emptyList()),
+            JavaConverters.collectionAsScalaIterable(Collections.singletonList(new Tuple2<>(className, className))),
+            JavaConverters.collectionAsScalaIterable(Collections.<InternalDependency>emptyList()),
+            JavaConverters.collectionAsScalaIterable(Collections.<ExternalDependency>emptyList()),
+            JavaConverters.collectionAsScalaIterable(Collections.<Tuple3<VirtualFileRef, String, Stamp>>emptyList()));
+    }
+
+    private static AnalyzedClass analyzedClass(String name, long compilationTimestamp, int apiHash, NameHash... nameHashes) {
+        return AnalyzedClass.of(compilationTimestamp, name, null, apiHash, nameHashes, false);
+    }
+
+    private static NameHash nameHash(String name, int hash) {
+        return NameHash.of(name, UseScope.Default, hash);
+    }
+
+    /**
+     * Returns an analysis with the given relations, APIs and source stamps, and a compilation (i.e. invalidation
+     * cycle) for each of the given start times. The report doesn't look at anything else.
+     */
+    private static Analysis analysis(Relations relations, Map<String, AnalyzedClass> apis,
+            Map<VirtualFileRef, Stamp> sourceStamps, long... startTimes) {
+        scala.collection.immutable.Map<String, AnalyzedClass> internalApis = scala.collection.immutable.Map$.MODULE$.empty();
+        for (Map.Entry<String, AnalyzedClass> api : apis.entrySet()) {
+            internalApis = internalApis.$plus(new Tuple2<>(api.getKey(), api.getValue()));
+        }
+
+        Compilation[] compilations = new Compilation[startTimes.length];
+        for (int i = 0; i < startTimes.length; i++) {
+            compilations[i] = stub(Compilation.class, Collections.singletonMap("getStartTime", startTimes[i]));
+        }
+
+        Map<String, Object> stamps = new HashMap<>();
+        stamps.put("getAllSourceStamps", sourceStamps);
+        stamps.put("getAllLibraryStamps", Collections.emptyMap());
+
+        Map<String, Object> analysis = new HashMap<>();
+        analysis.put("relations", relations);
+        analysis.put("apis", stub(APIs.class, Collections.singletonMap("internal", internalApis)));
+        analysis.put("readStamps", stub(ReadStamps.class, stamps));
+        analysis.put("readCompilations", stub(ReadCompilations.class, Collections.singletonMap("getAllCompilations", compilations)));
+        return stub(Analysis.class, analysis);
+    }
+
+    /**
+     * Returns an implementation of the given interface that only answers the given methods, with fixed results.
+     */
+    private static <T> T stub(Class<T> type, Map<String, ?> results) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            if (!results.containsKey(method.getName())) {
+                throw new UnsupportedOperationException(type.getSimpleName() + "." + method.getName());
+            }
+            return results.get(method.getName());
+        }));
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks;
+
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScalaCompileTest {
+
+    private File source;
+
+    private File fingerprint;
+
+    private ScalaCompile scalaCompile;
+
+    @Before
+    public void setUp() {
+        Project project = ProjectBuilder.builder().build();
+        source = project.file("src/main/scala/App.scala");
+        fingerprint = project.file("build/fingerprints/main.txt");
+
+        scalaCompile = project.getTasks().create("compileScala", ScalaCompile.class);
+        scalaCompile.getSource().from(source);
+        scalaCompile.getSourceFingerprint().set(fingerprint);
+        scalaCompile.getScalaVersion().set("2.13.8");
+        scalaCompile.getScalacOptions().set(Collections.singletonList("-g:source"));
+    }
+
+    /**
+     * Makes sure that the fingerprint replaces the sources for Scala 2, if the compiler doesn't emit line numbers.
+     */
+    @Test
+    public void fingerprintReplacesSourcesWithoutLineNumbers() {
+        assertEquals(Collections.singleton(fingerprint), scalaCompile.getSourceInput().getFiles());
+
+        scalaCompile.getScalacOptions().set(Collections.singletonList("-g:none"));
+        assertEquals(Collections.singleton(fingerprint), scalaCompile.getSourceInput().getFiles());
+    }
+
+    /**
+     * Makes sure that the sources themselves are the inputs if the compiler emits line numbers.
+     */
+    @Test
+    public void sourcesAreUsedWithLineNumbers() {
+        scalaCompile.getScalacOptions().set(Collections.singletonList("-g:vars"));
+        assertEquals(Collections.singleton(source), scalaCompile.getSourceInput().getFiles());
+
+        scalaCompile.getScalacOptions().set(Collections.<String>emptyList());
+        assertEquals(Collections.singleton(source), scalaCompile.getSourceInput().getFiles());
+    }
+
+    /**
+     * Makes sure that the sources themselves are the inputs for Scala 3, which keeps positions in TASTy files.
+     */
+    @Test
+    public void sourcesAreUsedForScala3() {
+        scalaCompile.getScalaVersion().set("3.1.2");
+        assertEquals(Collections.singleton(source), scalaCompile.getSourceInput().getFiles());
+    }
+
+    /**
+     * Makes sure that the sources themselves are the inputs if no fingerprint is configured.
+     */
+    @Test
+    public void sourcesAreUsedWithoutFingerprint() {
+        scalaCompile.getSourceFingerprint().unset();
+        assertEquals(Collections.singleton(source), scalaCompile.getSourceInput().getFiles());
+    }
+
+    /**
+     * Makes sure that line numbers are emitted by default, and that the last `-g` option wins.
+     */
+    @Test
+    public void lastDebugOptionDeterminesLineNumbers() {
+        assertTrue(ScalaCompile.emitsLineNumbers(Collections.<String>emptyList()));
+        assertFalse(ScalaCompile.emitsLineNumbers(Arrays.asList("-deprecation", "-g:none")));
+        assertTrue(ScalaCompile.emitsLineNumbers(Arrays.asList("-g:source", "-g:line")));
+        assertFalse(ScalaCompile.emitsLineNumbers(Arrays.asList("-g:vars", "-g:source")));
+    }
+
+}
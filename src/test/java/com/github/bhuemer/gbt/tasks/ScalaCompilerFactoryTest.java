@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class ScalaCompilerFactoryTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File compilerJar;
+
+    private File bridgeJar;
+
+    @Before
+    public void setUp() throws IOException {
+        compilerJar = temporaryFolder.newFile("scala-compiler-2.13.8.jar");
+        bridgeJar = temporaryFolder.newFile("compiler-bridge_2.13-1.6.1.jar");
+        Files.write(compilerJar.toPath(), new byte[] { 1, 2, 3 });
+        Files.write(bridgeJar.toPath(), new byte[] { 4, 5 });
+    }
+
+    /**
+     * Makes sure that the same Scala version and compiler JAR files share a key, no matter in which order.
+     */
+    @Test
+    public void sameToolchainHasSameKey() {
+        assertEquals(
+            ScalaCompilerFactory.toolchainKey("2.13.8", jars(compilerJar, bridgeJar)),
+            ScalaCompilerFactory.toolchainKey("2.13.8", jars(bridgeJar, compilerJar)));
+    }
+
+    /**
+     * Makes sure that a different Scala version, different JAR files or a rebuilt JAR file change the key.
+     */
+    @Test
+    public void differentToolchainsHaveDifferentKeys() throws IOException {
+        String key = ScalaCompilerFactory.toolchainKey("2.13.8", jars(compilerJar, bridgeJar));
+        assertNotEquals(key, ScalaCompilerFactory.toolchainKey("2.13.7", jars(compilerJar, bridgeJar)));
+        assertNotEquals(key, ScalaCompilerFactory.toolchainKey("2.13.8", jars(compilerJar)));
+
+        Files.write(bridgeJar.toPath(), new byte[] { 4, 5, 6 });
+        assertNotEquals(key, ScalaCompilerFactory.toolchainKey("2.13.8", jars(compilerJar, bridgeJar)));
+    }
+
+    /**
+     * Makes sure that the shared compilers are limited, and that the least recently used ones are evicted first.
+     */
+    @Test
+    public void leastRecentlyUsedCompilersAreEvicted() {
+        Map<String, String> compilers = ScalaCompilerFactory.leastRecentlyUsed(ScalaCompilerFactory.MAX_SHARED_COMPILERS);
+        for (String version : Arrays.asList("2.11", "2.12", "2.13", "3.1")) {
+            compilers.put(version, "compiler " + version);
+        }
+        assertEquals(Arrays.asList("2.11", "2.12", "2.13", "3.1"), new ArrayList<>(compilers.keySet()));
+
+        compilers.get("2.11");
+        compilers.put("3.2", "compiler 3.2");
+        assertEquals(Arrays.asList("2.13", "3.1", "2.11", "3.2"), new ArrayList<>(compilers.keySet()));
+    }
+
+    private static Set<File> jars(File... files) {
+        return new LinkedHashSet<>(Arrays.asList(files));
+    }
+
+}
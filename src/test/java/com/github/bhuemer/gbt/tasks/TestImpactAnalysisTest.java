@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks;
+
+import com.github.bhuemer.gbt.tasks.support.TestSelection;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import sbt.internal.inc.EmptyStamp$;
+import sbt.internal.inc.PlainVirtualFileConverter;
+import sbt.internal.inc.Relations;
+import sbt.internal.inc.Relations$;
+import scala.Tuple2;
+import scala.Tuple3;
+import scala.collection.JavaConverters;
+import xsbti.VirtualFileRef;
+import xsbti.api.DependencyContext;
+import xsbti.api.ExternalDependency;
+import xsbti.api.InternalDependency;
+import xsbti.compile.analysis.Stamp;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestImpactAnalysisTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path mainSources;
+
+    private Path testSources;
+
+    private Path mainClasses;
+
+    private List<Path> sourceDirectories;
+
+    private TestImpactAnalysis analysis;
+
+    /**
+     * Sets up main classes `a.Foo`, `a.Bar` (which uses `a.Foo`), `a.Baz` and `a.Outer.Inner`, and test classes
+     * that use one of them each, as well as `a.HelperSpec`, which uses the test class `a.Helper`.
+     */
+    @Before
+    public void setUp() {
+        Path projectDirectory = temporaryFolder.getRoot().toPath();
+        mainSources = projectDirectory.resolve("src/main/scala");
+        testSources = projectDirectory.resolve("src/test/scala");
+        mainClasses = projectDirectory.resolve("build/classes/scala/main");
+        sourceDirectories = Arrays.asList(
+            mainSources, projectDirectory.resolve("src/main/resources"), testSources);
+
+        Relations main = Relations$.MODULE$.empty();
+        main = addSource(main, mainSources.resolve("Foo.scala"), "a.Foo", "a.Foo");
+        main = addSource(main, mainSources.resolve("Bar.scala"), "a.Bar", "a.Bar", "a.Foo");
+        main = addSource(main, mainSources.resolve("Baz.scala"), "a.Baz", "a.Baz");
+        main = addSource(main, mainSources.resolve("Outer.scala"), "a.Outer.Inner", "a.Outer$Inner");
+
+        Relations test = Relations$.MODULE$.empty();
+        test = addTestSource(test, testSources.resolve("FooSpec.scala"), "a.FooSpec", "a.Foo");
+        test = addTestSource(test, testSources.resolve("BarSpec.scala"), "a.BarSpec", "a.Bar");
+        test = addTestSource(test, testSources.resolve("BazSpec.scala"), "a.BazSpec", "a.Baz");
+        test = addTestSource(test, testSources.resolve("InnerSpec.scala"), "a.InnerSpec", "a.Outer$Inner");
+        test = addSource(test, testSources.resolve("Helper.scala"), "a.Helper", "a.Helper");
+        test = addSource(test, testSources.resolve("HelperSpec.scala"), "a.HelperSpec", "a.HelperSpec", "a.Helper");
+
+        analysis = new TestImpactAnalysis(main, test);
+    }
+
+    /**
+     * Makes sure that changing a main source only selects the test classes that use it.
+     */
+    @Test
+    public void mainSourceChangeSelectsDependentTests() {
+        TestSelection selection = analysis.select(
+            Collections.singletonList(mainSources.resolve("Baz.scala")), sourceDirectories);
+        assertFalse(selection.isAll());
+        assertEquals(Collections.singletonList("a.BazSpec"), new ArrayList<>(selection.getTestClasses()));
+    }
+
+    /**
+     * Makes sure that test classes are selected if they only depend on the change through other classes.
+     */
+    @Test
+    public void transitiveDependentsAreSelected() {
+        assertEquals(Arrays.asList("a.BarSpec", "a.FooSpec"), new ArrayList<>(analysis.select(
+            Collections.singletonList(mainSources.resolve("Foo.scala")), sourceDirectories).getTestClasses()));
+        assertEquals(Arrays.asList("a.Helper", "a.HelperSpec"), new ArrayList<>(analysis.select(
+            Collections.singletonList(testSources.resolve("Helper.scala")), sourceDirectories).getTestClasses()));
+    }
+
+    /**
+     * Makes sure that main classes are found among the library classes of the tests by their binary name, even
+     * if that differs from their class name.
+     */
+    @Test
+    public void mainClassesAreMatchedByBinaryName() {
+        TestSelection selection = analysis.select(
+            Collections.singletonList(mainSources.resolve("Outer.scala")), sourceDirectories);
+        assertEquals(Collections.singletonList("a.InnerSpec"), new ArrayList<>(selection.getTestClasses()));
+    }
+
+    /**
+     * Makes sure that all test classes are selected if anything else in the source directories changed, but
+     * that changes outside of them are ignored.
+     */
+    @Test
+    public void unknownChangesInSourceDirectoriesSelectAllTests() {
+        Path projectDirectory = temporaryFolder.getRoot().toPath();
+        assertTrue(analysis.select(Arrays.asList(mainSources.resolve("Baz.scala"),
+            projectDirectory.resolve("src/main/resources/application.conf")), sourceDirectories).isAll());
+        assertTrue(analysis.select(Collections.singletonList(
+            mainSources.resolve("Deleted.scala")), sourceDirectories).isAll());
+
+        TestSelection selection = analysis.select(Arrays.asList(mainSources.resolve("Baz.scala"),
+            projectDirectory.resolve("README.md"), projectDirectory.resolve("../other/src/main/scala/Foo.scala")),
+            sourceDirectories);
+        assertFalse(selection.isAll());
+        assertEquals(Collections.singletonList("a.BazSpec"), new ArrayList<>(selection.getTestClasses()));
+    }
+
+    private static Relations addSource(
+            Relations relations, Path source, String className, String binaryName, String... usedClasses) {
+        List<InternalDependency> dependencies = new ArrayList<>();
+        for (String usedClass : usedClasses) {
+            dependencies.add(InternalDependency.of(className, usedClass, DependencyContext.DependencyByMemberRef));
+        }
+        return relations.addSource(
+            ref(source),
+            iterable(Collections.<VirtualFileRef>emptyList()),
+            iterable(Collections.singletonList(new Tuple2<>(className, binaryName))),
+            iterable(dependencies),
+            iterable(Collections.<ExternalDependency>emptyList()),
+            iterable(Collections.<Tuple3<VirtualFileRef, String, Stamp>>emptyList()));
+    }
+
+    /**
+     * Adds a test source whose class uses the given main class, i.e. a library class in the test analysis.
+     */
+    private Relations addTestSource(Relations relations, Path source, String className, String mainBinaryName) {
+        VirtualFileRef classFile = ref(mainClasses.resolve(mainBinaryName.replace('.', '/') + ".class"));
+        Stamp stamp = EmptyStamp$.MODULE$;
+        return relations.addSource(
+            ref(source),
+            iterable(Collections.<VirtualFileRef>emptyList()),
+            iterable(Collections.singletonList(new Tuple2<>(className, className))),
+            iterable(Collections.<InternalDependency>emptyList()),
+            iterable(Collections.<ExternalDependency>emptyList()),
+            iterable(Collections.singletonList(new Tuple3<>(classFile, mainBinaryName, stamp))));
+    }
+
+    private static VirtualFileRef ref(Path path) {
+        return PlainVirtualFileConverter.converter().toVirtualFile(path.toAbsolutePath().normalize());
+    }
+
+    private static <T> scala.collection.Iterable<T> iterable(List<T> list) {
+        return JavaConverters.collectionAsScalaIterable(list);
+    }
+
+}
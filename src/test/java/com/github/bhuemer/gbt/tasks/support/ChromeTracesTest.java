@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasSize;
+
+public class ChromeTracesTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Makes sure that complete events and begin/end pairs are both attributed to the right category and name,
+     * including implicit searches and macro expansions, which the compiler reports as part of `typer`.
+     */
+    @Test
+    public void hotspotsAggregateCompleteAndNestedEvents() throws Exception {
+        File traceFile = temporaryFolder.newFile("trace.json");
+        write(traceFile,
+            "[",
+            "{\"cat\":\"file\",\"name\":\"A.scala\",\"ph\":\"X\",\"ts\":0,\"dur\":5000,\"pid\":1,\"tid\":1},",
+            "{\"cat\":\"file\",\"name\":\"B.scala\",\"ph\":\"X\",\"ts\":0,\"dur\":9000,\"pid\":1,\"tid\":1},",
+            "{\"cat\":\"typer\",\"name\":\"\u21afOrdering[Foo]\",\"ph\":\"B\",\"ts\":100,\"pid\":1,\"tid\":2},",
+            "{\"cat\":\"typer\",\"name\":\"\u21afOrdering[Bar]\",\"ph\":\"B\",\"ts\":200,\"pid\":1,\"tid\":2},",
+            "{\"ph\":\"E\",\"ts\":300,\"pid\":1,\"tid\":2},",
+            "{\"ph\":\"E\",\"ts\":4100,\"pid\":1,\"tid\":2},",
+            "{\"cat\":\"typer\",\"name\":\"\u00abassert\u00bb\",\"ph\":\"X\",\"ts\":5000,\"dur\":700,\"pid\":1,\"tid\":2},",
+            "{\"cat\":\"typer\",\"name\":\"typedApply\",\"ph\":\"X\",\"ts\":6000,\"dur\":900,\"pid\":1,\"tid\":2},"
+            // the compiler didn't get a chance to terminate the array here
+        );
+
+        List<Map<String, Object>> events = ChromeTraces.readEvents(traceFile);
+        assertThat(events, hasSize(8));
+
+        ChromeTraces.Hotspots hotspots = new ChromeTraces.Hotspots();
+        hotspots.add(":compileScala", events);
+        assertThat(hotspots.slowest("file", 50), contains(":compileScala B.scala", ":compileScala A.scala"));
+        assertThat(hotspots.slowest("implicit", 1), contains(":compileScala \u21afOrdering[Foo]"));
+        assertThat(hotspots.slowest("macro", 50), contains(":compileScala \u00abassert\u00bb"));
+    }
+
+    /**
+     * Makes sure that the same file in different tasks isn't lumped together, and that the report names the task.
+     */
+    @Test
+    public void hotspotsAreKeptApartPerTask() throws Exception {
+        Map<String, Object> event = new HashMap<>();
+        event.put("cat", "file");
+        event.put("name", "A.scala");
+        event.put("ph", "X");
+        event.put("dur", 5000);
+
+        ChromeTraces.Hotspots hotspots = new ChromeTraces.Hotspots();
+        hotspots.add(":compileScala", Collections.singletonList(event));
+        hotspots.add(":compileScala_2.12", Arrays.asList(event, event));
+        assertThat(hotspots.slowest("file", 50), contains(":compileScala_2.12 A.scala", ":compileScala A.scala"));
+
+        File reportFile = new File(temporaryFolder.getRoot(), "hotspots.txt");
+        hotspots.writeReport(reportFile, 50);
+        String report = new String(Files.readAllBytes(reportFile.toPath()), StandardCharsets.UTF_8);
+        assertThat(report, containsString("2x  :compileScala_2.12 A.scala"));
+        assertThat(report, containsString("1x  :compileScala A.scala"));
+    }
+
+    /**
+     * Makes sure that merged traces can be read again and that each trace is labelled by its own process.
+     */
+    @Test
+    public void mergedTracesAreLabelledPerTask() throws Exception {
+        File mergedFile = temporaryFolder.newFile("merged.json");
+        Map<String, Object> event = Collections.singletonMap("name", "typer");
+        ChromeTraces.writeMerged(Collections.singletonMap(":compileScala", Arrays.asList(event, event)), mergedFile);
+
+        List<Map<String, Object>> events = ChromeTraces.readEvents(mergedFile);
+        assertThat(events, hasSize(3));
+        assertThat(Json.toString(events.get(0)), containsString("\":compileScala\""));
+    }
+
+    private static void write(File file, String... lines) throws Exception {
+        Files.write(file.toPath(), String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import org.gradle.api.logging.Logging;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ClassDataSharingTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Makes sure that archives are keyed by the content of the compiler classpath, not by where it is.
+     */
+    @Test
+    public void keysDependOnContent() throws Exception {
+        List<File> first = Collections.singletonList(createJar("scala/tools/nsc/2.13.8.class"));
+        List<File> second = Collections.singletonList(createJar("scala/tools/nsc/2.13.8.class"));
+        List<File> changed = Collections.singletonList(createJar("scala/tools/nsc/2.13.9.class"));
+
+        assertEquals(ClassDataSharing.key(first), ClassDataSharing.key(second));
+        assertNotEquals(ClassDataSharing.key(first), ClassDataSharing.key(changed));
+    }
+
+    /**
+     * Makes sure that the first forked compiler creates the archive, and later ones use it.
+     */
+    @Test
+    public void archivesAreCreatedOnceAndUsedAfterwards() throws Exception {
+        int javaVersion = ClassDataSharing.javaVersion();
+        File archiveDirectory = temporaryFolder.newFolder("cds");
+        List<File> classpath = Collections.singletonList(createJar("scala/tools/nsc/2.13.8.class"));
+
+        List<String> options = ClassDataSharing.jvmOptions(
+            archiveDirectory, classpath, Logging.getLogger(ClassDataSharingTest.class));
+        if (javaVersion < 13) {
+            assertTrue(options.isEmpty());
+        } else if (javaVersion < 19) {
+            assertEquals(1, options.size());
+            assertTrue(options.get(0).startsWith("-XX:ArchiveClassesAtExit="));
+
+            // Pretend that the JVM is still writing the archive, i.e. the compiler is just exiting
+            Path tempArchive = Paths.get(options.get(0).substring(options.get(0).indexOf('=') + 1));
+            Files.createFile(tempArchive);
+            options = ClassDataSharing.jvmOptions(
+                archiveDirectory, classpath, Logging.getLogger(ClassDataSharingTest.class));
+            assertTrue(options.get(0).startsWith("-XX:ArchiveClassesAtExit="));
+
+            // Pretend that the JVM finished writing the archive a while ago
+            Files.setLastModifiedTime(tempArchive, FileTime.fromMillis(System.currentTimeMillis() - 120_000));
+            options = ClassDataSharing.jvmOptions(
+                archiveDirectory, classpath, Logging.getLogger(ClassDataSharingTest.class));
+            assertTrue(options.get(0).startsWith("-XX:SharedArchiveFile="));
+            assertFalse(Files.exists(tempArchive));
+        } else {
+            assertEquals("-XX:+AutoCreateSharedArchive", options.get(0));
+        }
+    }
+
+    /**
+     * Creates a compiler JAR file with the given entries, each in a directory of its own.
+     */
+    private File createJar(String... entries) throws Exception {
+        Path jarFile = temporaryFolder.newFolder().toPath().resolve("scala-compiler.jar");
+        return TestFixtures.createJar(jarFile, entries).toFile();
+    }
+
+}
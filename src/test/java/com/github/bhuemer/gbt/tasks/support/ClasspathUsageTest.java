@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ClasspathUsageTest {
+
+    private static final File SCALA_LIBRARY = new File("/libs/scala-library-2.13.8.jar");
+
+    private static final File CATS = new File("/libs/cats-core_2.13-2.7.0.jar");
+
+    private static final File SHAPELESS = new File("/libs/shapeless_2.13-2.3.9.jar");
+
+    private static final File JAVA_CLASSES = new File("/project/build/classes/java/main");
+
+    private static final List<File> CLASSPATH = Arrays.asList(SCALA_LIBRARY, CATS, SHAPELESS, JAVA_CLASSES);
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Makes sure that dependencies on JAR files and on class files in directories are attributed to the right
+     * entries, and that the Scala library is never considered unused.
+     */
+    @Test
+    public void unusedEntriesAreDetected() {
+        ClasspathUsage usage = ClasspathUsage.of(CLASSPATH, Arrays.asList(
+            CATS.toPath(),
+            new File(JAVA_CLASSES, "com/example/Util.class").toPath()
+        ));
+
+        assertEquals(Collections.singleton(SHAPELESS), usage.getUnused());
+    }
+
+    /**
+     * Makes sure that unused entries are only pruned as long as the classpath stays exactly the same.
+     */
+    @Test
+    public void pruningOnlyAppliesToTheSameClasspath() throws Exception {
+        ClasspathUsage usage = ClasspathUsage.of(CLASSPATH, Collections.singletonList(CATS.toPath()));
+        assertEquals(
+            new LinkedHashSet<>(Arrays.asList(SCALA_LIBRARY, CATS)),
+            usage.prune(new LinkedHashSet<>(CLASSPATH)));
+
+        List<File> changedClasspath = Arrays.asList(SCALA_LIBRARY, CATS, SHAPELESS);
+        assertEquals(new LinkedHashSet<>(changedClasspath), usage.prune(changedClasspath));
+
+        // The same applies to usages that we read back again
+        File usageFile = new File(temporaryFolder.getRoot(), "classpath-usage.txt");
+        usage.write(usageFile);
+        ClasspathUsage persisted = ClasspathUsage.read(usageFile).orElseThrow(AssertionError::new);
+        assertEquals(new HashSet<>(Arrays.asList(SHAPELESS, JAVA_CLASSES)), persisted.getUnused());
+        assertEquals(
+            new LinkedHashSet<>(Arrays.asList(SCALA_LIBRARY, CATS)),
+            persisted.prune(new LinkedHashSet<>(CLASSPATH)));
+    }
+
+}
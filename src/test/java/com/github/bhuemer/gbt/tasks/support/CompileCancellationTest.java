@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompileCancellationTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Makes sure that a cancellation requested by one instance (i.e. by the task) is noticed by another one
+     * (i.e. by the compiler in a worker process) that only shares the marker file with it.
+     */
+    @Test
+    public void cancellationIsNoticedAcrossInstances() throws Exception {
+        File markerFile = new File(temporaryFolder.getRoot(), "cancelled");
+        CompileCancellation task = new CompileCancellation(markerFile);
+        CompileCancellation compiler = new CompileCancellation(markerFile);
+
+        task.reset();
+        assertFalse(compiler.isRequested());
+
+        task.request();
+        Thread.sleep(150);
+        assertTrue(compiler.isRequested());
+    }
+
+    /**
+     * Makes sure that a cancellation of an earlier build doesn't carry over to the next one.
+     */
+    @Test
+    public void resetForgetsEarlierCancellations() throws Exception {
+        File markerFile = new File(temporaryFolder.getRoot(), "cancelled");
+        new CompileCancellation(markerFile).request();
+
+        CompileCancellation cancellation = new CompileCancellation(markerFile);
+        cancellation.reset();
+        assertFalse(cancellation.isRequested());
+        assertFalse(markerFile.exists());
+    }
+
+}
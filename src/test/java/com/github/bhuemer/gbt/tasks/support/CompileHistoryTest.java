@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class CompileHistoryTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Makes sure that nothing is predicted before both full and incremental compilations have been recorded.
+     */
+    @Test
+    public void noPredictionWithoutHistory() {
+        CompileHistory history = CompileHistory.empty();
+        assertFalse(history.recompileAllFraction(1000).isPresent());
+
+        history.record(1000, 1000, 60000);
+        history.record(1000, 10, 5000);
+        assertFalse(history.recompileAllFraction(1000).isPresent());
+    }
+
+    /**
+     * Makes sure that everything is recompiled sooner if incremental cycles are expensive, and later if not.
+     */
+    @Test
+    public void predictsBreakEvenFraction() {
+        CompileHistory expensiveCycles = CompileHistory.empty();
+        expensiveCycles.record(1000, 1000, 60000);
+        expensiveCycles.record(1000, 10, 5000);
+        expensiveCycles.record(1000, 100, 50000);
+        assertEquals(0.12, expensiveCycles.recompileAllFraction(1000).getAsDouble(), 0.001);
+
+        CompileHistory cheapCycles = CompileHistory.empty();
+        cheapCycles.record(1000, 1000, 60000);
+        cheapCycles.record(1000, 2, 3000);
+        cheapCycles.record(1000, 40, 5000);
+        assertEquals(1.0, cheapCycles.recompileAllFraction(1000).getAsDouble(), 0.001);
+    }
+
+    /**
+     * Makes sure that the history survives being written and read again.
+     */
+    @Test
+    public void historyIsRestored() throws Exception {
+        CompileHistory history = CompileHistory.empty();
+        history.record(1000, 1000, 60000);
+        history.record(1000, 10, 5000);
+        history.record(1000, 100, 50000);
+
+        File file = new File(temporaryFolder.getRoot(), "compile-history.txt");
+        history.write(file);
+        assertEquals(0.12, CompileHistory.read(file).recompileAllFraction(1000).getAsDouble(), 0.001);
+        assertFalse(CompileHistory.read(new File(file.getParentFile(), "missing.txt")).recompileAllFraction(1000).isPresent());
+    }
+
+}
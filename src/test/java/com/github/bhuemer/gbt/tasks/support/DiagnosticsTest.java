@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import xsbti.Position;
+import xsbti.Problem;
+import xsbti.Severity;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DiagnosticsTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Makes sure that diagnostics survive being written and read again, i.e. that they can be replayed later.
+     */
+    @Test
+    public void diagnosticsAreRestored() throws Exception {
+        Map<String, Problem[]> problems = new LinkedHashMap<>();
+        problems.put("/src/B.scala", new Problem[] { problem(Severity.Error, "B.scala:3: error: not found: value x") });
+        problems.put("/src/A.scala", new Problem[] {
+            problem(Severity.Warn, "A.scala:1: warning: \"quoted\"\n  val a = 1"),
+            problem(Severity.Info, "A.scala:2: info")
+        });
+        problems.put("/src/C.scala", new Problem[0]);
+
+        File directory = temporaryFolder.getRoot();
+        File file = new File(directory, "compileScala.json");
+        Diagnostics diagnostics = Diagnostics.of(problems);
+        diagnostics.write(file);
+        assertFalse(diagnostics.isEmpty());
+
+        File copy = new File(directory, "copy.json");
+        Diagnostics.read(file).write(copy);
+        assertArrayEquals(Files.readAllBytes(file.toPath()), Files.readAllBytes(copy.toPath()));
+    }
+
+    /**
+     * Makes sure that there are no diagnostics for a task that never wrote any, rather than an error.
+     */
+    @Test
+    public void missingFileHasNoDiagnostics() throws Exception {
+        File directory = temporaryFolder.getRoot();
+        assertTrue(Diagnostics.read(new File(directory, "missing.json")).isEmpty());
+    }
+
+    /**
+     * Makes sure that diagnostics written in a different format are not misinterpreted.
+     */
+    @Test
+    public void unsupportedFormatIsRejected() throws Exception {
+        File file = new File(temporaryFolder.getRoot(), "compileScala.json");
+        Files.write(file.toPath(), "{\"version\":0,\"sources\":{}}".getBytes(StandardCharsets.UTF_8));
+        try {
+            Diagnostics.read(file);
+            fail("Should not have been possible to read diagnostics in an unknown format.");
+        } catch (IOException expected) { }
+    }
+
+    private static Problem problem(Severity severity, String rendered) {
+        return new Problem() {
+
+            @Override
+            public String category() {
+                return "";
+            }
+
+            @Override
+            public Severity severity() {
+                return severity;
+            }
+
+            @Override
+            public String message() {
+                return rendered;
+            }
+
+            @Override
+            public Position position() {
+                return null;
+            }
+
+            @Override
+            public Optional<String> rendered() {
+                return Optional.of(rendered);
+            }
+
+        };
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import net.openhft.hashing.LongHashFunction;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import xsbti.PathBasedFile;
+import xsbti.VirtualFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static com.github.bhuemer.gbt.tasks.support.TestFixtures.write;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MappedSourceFileTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Makes sure that both small (i.e. heap) and large (i.e. memory-mapped) files can be read any number of
+     * times, and that their hashes match the hashes Zinc computes for plain files.
+     */
+    @Test
+    public void contentIsSharedBetweenHashingAndReading() throws Exception {
+        for (int size : new int[] { 0, 1024, (int) MappedSourceFile.MAPPING_THRESHOLD + 1 }) {
+            byte[] content = new byte[size];
+            Arrays.fill(content, (byte) 'x');
+            Path path = temporaryFolder.newFile("Source" + size + ".scala").toPath();
+            Files.write(path, content);
+
+            MappedSourceFile sourceFile = new MappedSourceFile(path);
+            assertEquals(LongHashFunction.farmNa().hashBytes(content), sourceFile.contentHash());
+            assertArrayEquals(content, readAll(sourceFile.input()));
+            assertArrayEquals(content, readAll(sourceFile.input()));
+        }
+    }
+
+    /**
+     * Makes sure that sources expose their paths, e.g. to compiler plugins, while their content is still read only
+     * once for everything that goes through the converter.
+     */
+    @Test
+    public void sourcesArePathBasedAndShareContent() throws Exception {
+        Path path = write(temporaryFolder.getRoot().toPath().resolve("App.scala"), "object App");
+        SourceFileConverter converter = new SourceFileConverter(Collections.singleton(path.toFile()));
+        VirtualFile sourceFile = converter.toVirtualFile(path);
+        assertTrue(sourceFile instanceof PathBasedFile);
+        assertEquals(path, ((PathBasedFile) sourceFile).toPath());
+        assertEquals(path, converter.toPath(sourceFile));
+        assertSame(sourceFile, converter.toVirtualFile(converter.toVirtualFile(path)));
+
+        // Stamping reads the content, after that the file on disk doesn't matter anymore
+        sourceFile.contentHash();
+        Files.delete(path);
+        assertEquals("object App", new String(readAll(sourceFile.input()), StandardCharsets.UTF_8));
+    }
+
+    private static byte[] readAll(InputStream in) throws Exception {
+        try (InputStream input = in) {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int count = input.read(buffer); count != -1; count = input.read(buffer)) {
+                result.write(buffer, 0, count);
+            }
+            return result.toByteArray();
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class ScalaSourceNormalizerTest {
+
+    /**
+     * Makes sure that Scaladoc, line comments and (nested) block comments don't matter.
+     */
+    @Test
+    public void commentsAreIgnored() {
+        assertSameAfterNormalization(
+            "object A {\n  def f = 1\n}\n",
+            "/** Docs for A */\nobject A { // the object\n  /** Docs for f, /* nested */ */\n  def f = /* one */ 1\n}\n");
+    }
+
+    /**
+     * Makes sure that runs of whitespace, trailing whitespace and additional blank lines don't matter.
+     */
+    @Test
+    public void insignificantWhitespaceIsIgnored() {
+        assertSameAfterNormalization(
+            "object A {\n  def f = 1\n\n  def g = 2\n}\n",
+            "object A {   \n  def f   =\t1\n\n\n\n  def g = 2  \n}");
+    }
+
+    /**
+     * Makes sure that whitespace that the compiler cares about is kept, i.e. line breaks (semicolon inference),
+     * blank lines (e.g. whether a block is an argument) and indentation (significant in Scala 3).
+     */
+    @Test
+    public void significantWhitespaceIsKept() {
+        assertDifferentAfterNormalization("val a = b\n+ c\n", "val a = b + c\n");
+        assertDifferentAfterNormalization("f\n{ 1 }\n", "f\n\n{ 1 }\n");
+        assertDifferentAfterNormalization("if x then\n  a\n  b\n", "if x then\n  a\nb\n");
+    }
+
+    /**
+     * Makes sure that a line break in a block comment still separates the code before and after it.
+     */
+    @Test
+    public void lineBreaksInCommentsAreKept() {
+        assertSameAfterNormalization("val a = b /* x\n y */ + c\n", "val a = b\n+ c\n");
+        assertDifferentAfterNormalization("val a = b /* x\n y */ + c\n", "val a = b + c\n");
+    }
+
+    /**
+     * Makes sure that anything that looks like comments or whitespace in literals is left as it is.
+     */
+    @Test
+    public void literalsAreKeptVerbatim() {
+        assertDifferentAfterNormalization("val a = \"x // y\"\n", "val a = \"x \"\n");
+        assertDifferentAfterNormalization("val a = \"x  y\"\n", "val a = \"x y\"\n");
+        assertDifferentAfterNormalization("val a = \"\"\"x\n  /* y */\"\"\"\n", "val a = \"\"\"x\n\"\"\"\n");
+        assertDifferentAfterNormalization("val a = s\"${b + \"//\"} // c\"\n", "val a = s\"${b + \"//\"}\"\n");
+        assertDifferentAfterNormalization("val `a // b` = 1\n", "val `a` = 1\n");
+        assertSameAfterNormalization("val a = '\"' // \"\n", "val a = '\"'\n");
+        assertSameAfterNormalization("val a = '\\'' // x\n", "val a = '\\''\n");
+    }
+
+    /**
+     * Makes sure that sources are left alone if they cannot be normalized safely.
+     */
+    @Test
+    public void unsupportedSourcesAreNotNormalized() {
+        String xml = "val a = <a>// not a comment</a>\n";
+        assertEquals(xml, ScalaSourceNormalizer.normalize(xml));
+
+        String unterminated = "val a = \"x // y\n";
+        assertEquals(unterminated, ScalaSourceNormalizer.normalize(unterminated));
+    }
+
+    private static void assertSameAfterNormalization(String expected, String actual) {
+        assertEquals(ScalaSourceNormalizer.normalize(expected), ScalaSourceNormalizer.normalize(actual));
+    }
+
+    private static void assertDifferentAfterNormalization(String unexpected, String actual) {
+        assertNotEquals(ScalaSourceNormalizer.normalize(unexpected), ScalaSourceNormalizer.normalize(actual));
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScalafmtCacheTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Makes sure that a source only counts as formatted as long as its content doesn't change.
+     */
+    @Test
+    public void sourcesAreFormattedUntilTheyChange() {
+        File source = new File("src/main/scala/App.scala");
+        ScalafmtCache cache = ScalafmtCache.empty("3.5.9");
+        assertFalse(cache.isFormatted(source, 42L));
+
+        cache.markFormatted(source, 42L);
+        assertTrue(cache.isFormatted(source, 42L));
+        assertFalse(cache.isFormatted(source, 43L));
+
+        cache.forget(source);
+        assertFalse(cache.isFormatted(source, 42L));
+    }
+
+    /**
+     * Makes sure that the cache survives being written and read again, but only for the same formatter and configuration.
+     */
+    @Test
+    public void cacheIsRestoredForSameKey() throws Exception {
+        File source = new File("src/main/scala/App.scala");
+        ScalafmtCache cache = ScalafmtCache.empty("3.5.9");
+        cache.markFormatted(source, -1L);
+
+        File file = new File(temporaryFolder.getRoot(), "main.txt");
+        cache.write(file);
+        assertTrue(ScalafmtCache.read(file, "3.5.9").isFormatted(source, -1L));
+        assertFalse(ScalafmtCache.read(file, "3.6.0").isFormatted(source, -1L));
+        assertFalse(ScalafmtCache.read(new File(file.getParentFile(), "missing.txt"), "3.5.9").isFormatted(source, -1L));
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import org.gradle.api.logging.Logging;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.github.bhuemer.gbt.tasks.support.TestFixtures.newStamper;
+import static com.github.bhuemer.gbt.tasks.support.TestFixtures.write;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+public class SeedStoreTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Makes sure that two checkouts of the same build in different directories end up with the same keys, so
+     * that they can seed each other, but that different classpath contents lead to different keys.
+     */
+    @Test
+    public void keysAreIndependentOfTheCheckoutDirectory() throws Exception {
+        Path store = temporaryFolder.newFolder("seeds").toPath();
+        Path first = createCheckout("class Util");
+        Path second = createCheckout("class Util");
+        Path changed = createCheckout("class Util2");
+
+        assertEquals(key(store, first), key(store, second));
+        assertNotEquals(key(store, first), key(store, changed));
+    }
+
+    /**
+     * Makes sure that there's nothing to restore from an empty store.
+     */
+    @Test
+    public void emptyStoresDoNotSeed() throws Exception {
+        Path store = temporaryFolder.newFolder("seeds").toPath();
+        Path checkout = createCheckout("class Util");
+        SeedStore seedStore = newSeedStore(store, checkout);
+
+        assertFalse(seedStore.restore(key(store, checkout),
+            Collections.singletonList(checkout.resolve("src/main/scala/App.scala").toFile()),
+            checkout.resolve("build/tmp/scala/compileScala/analysis.bin").toFile(),
+            checkout.resolve("build/classes/scala/main").toFile()));
+    }
+
+    private static String key(Path store, Path checkout) {
+        List<String> options = Arrays.asList("-deprecation", "-Xplugin:" + checkout.resolve("plugin.jar"));
+        List<File> classpath = Collections.singletonList(checkout.resolve("build/classes/java/main").toFile());
+        return newSeedStore(store, checkout).key(":compileScala", "2.13.8", options, classpath);
+    }
+
+    private static SeedStore newSeedStore(Path store, Path checkout) {
+        return new SeedStore(store.toFile(), checkout.toFile(),
+            newStamper(SourceStamper.Strategy.MTIME_THEN_HASH, null), Logging.getLogger(SeedStoreTest.class));
+    }
+
+    /**
+     * Creates a checkout with a single source and a single class file on the classpath.
+     */
+    private Path createCheckout(String classFileContent) throws Exception {
+        Path checkout = temporaryFolder.newFolder().toPath();
+        write(checkout.resolve("src/main/scala/App.scala"), "object App");
+        write(checkout.resolve("build/classes/java/main/Util.class"), classFileContent);
+        return checkout;
+    }
+
+}
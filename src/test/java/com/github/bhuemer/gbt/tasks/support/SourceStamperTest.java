@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import sbt.internal.inc.PlainVirtualFileConverter;
+import xsbti.VirtualFile;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+
+import static com.github.bhuemer.gbt.tasks.support.TestFixtures.newStamper;
+import static com.github.bhuemer.gbt.tasks.support.TestFixtures.write;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+public class SourceStamperTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Makes sure that stamping strategies can be configured with their IDs, e.g. `mtime-then-hash`.
+     */
+    @Test
+    public void strategiesAreResolvedById() {
+        assertEquals(SourceStamper.Strategy.MTIME, SourceStamper.Strategy.fromId("mtime"));
+        assertEquals(SourceStamper.Strategy.HASH, SourceStamper.Strategy.fromId("hash"));
+        assertEquals(SourceStamper.Strategy.MTIME_THEN_HASH, SourceStamper.Strategy.fromId("mtime-then-hash"));
+
+        try {
+            SourceStamper.Strategy.fromId("sha1");
+            fail("Should not have been possible to resolve the unknown strategy 'sha1'.");
+        } catch (IllegalArgumentException expected) { }
+    }
+
+    /**
+     * Makes sure that hashes persisted by one build are reused by the next one, as long as neither the size
+     * nor the modification time of the file changed.
+     */
+    @Test
+    public void mtimeThenHashReusesPersistedHashes() throws Exception {
+        Path source = write(temporaryFolder.getRoot().toPath().resolve("App.scala"), "object App");
+        File cacheFile = new File(temporaryFolder.getRoot(), "stamps.bin");
+        FileTime lastModified = Files.getLastModifiedTime(source);
+
+        SourceStamper first = newStamper(SourceStamper.Strategy.MTIME_THEN_HASH, cacheFile);
+        first.prepare(Collections.singletonList(source));
+        long originalHash = first.hash(source);
+        first.save();
+
+        // Same size and modification time, so the next build shouldn't notice the change
+        write(source, "object Bpp");
+        Files.setLastModifiedTime(source, lastModified);
+        assertEquals(originalHash, newStamper(SourceStamper.Strategy.MTIME_THEN_HASH, cacheFile).hash(source));
+
+        // .. whereas a build that always hashes contents will
+        assertNotEquals(originalHash, newStamper(SourceStamper.Strategy.HASH, cacheFile).hash(source));
+    }
+
+    /**
+     * Makes sure that the hashes of deleted files are dropped from the cache, whereas those of files that still
+     * exist are kept, even if a build didn't look them up.
+     */
+    @Test
+    public void saveDropsHashesOfDeletedFiles() throws Exception {
+        Path kept = write(temporaryFolder.getRoot().toPath().resolve("Kept.scala"), "object Kept");
+        Path deleted = write(temporaryFolder.getRoot().toPath().resolve("Deleted.scala"), "object Deleted");
+        File cacheFile = new File(temporaryFolder.getRoot(), "stamps.bin");
+        FileTime keptLastModified = Files.getLastModifiedTime(kept);
+        FileTime deletedLastModified = Files.getLastModifiedTime(deleted);
+
+        SourceStamper first = newStamper(SourceStamper.Strategy.MTIME_THEN_HASH, cacheFile);
+        long keptHash = first.hash(kept);
+        long deletedHash = first.hash(deleted);
+        first.save();
+
+        Files.delete(deleted);
+        newStamper(SourceStamper.Strategy.MTIME_THEN_HASH, cacheFile).save();
+
+        // Same sizes and modification times, so only hashes that were dropped get computed again
+        write(kept, "object Kxpt");
+        Files.setLastModifiedTime(kept, keptLastModified);
+        write(deleted, "object Dxleted");
+        Files.setLastModifiedTime(deleted, deletedLastModified);
+
+        SourceStamper third = newStamper(SourceStamper.Strategy.MTIME_THEN_HASH, cacheFile);
+        assertEquals(keptHash, third.hash(kept));
+        assertNotEquals(deletedHash, third.hash(deleted));
+    }
+
+    /**
+     * Makes sure that the stamps of the same content are equal, independent of the stamping instance.
+     */
+    @Test
+    public void equalContentHasEqualStamps() throws Exception {
+        Path source = write(temporaryFolder.getRoot().toPath().resolve("App.scala"), "object App");
+        VirtualFile file = PlainVirtualFileConverter.converter().toVirtualFile(source);
+
+        assertEquals(
+            newStamper(SourceStamper.Strategy.HASH, null).source(file).writeStamp(),
+            newStamper(SourceStamper.Strategy.MTIME_THEN_HASH, null).source(file).writeStamp());
+    }
+
+}
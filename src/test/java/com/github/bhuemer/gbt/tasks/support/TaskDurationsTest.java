@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TaskDurationsTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Makes sure that a single slow (or fast) build doesn't throw off the durations completely.
+     */
+    @Test
+    public void durationsAreSmoothed() {
+        TaskDurations durations = TaskDurations.empty();
+        assertFalse(durations.get(":core:compileScala").isPresent());
+
+        durations.record(":core:compileScala", 10000);
+        assertEquals(10000, durations.get(":core:compileScala").getAsLong());
+
+        durations.record(":core:compileScala", 20000);
+        assertEquals(15000, durations.get(":core:compileScala").getAsLong());
+    }
+
+    /**
+     * Makes sure that the longest chain of dependent tasks comes first, and that all the other tasks only run after
+     * the tasks on it that they neither depend on nor are a dependency of.
+     */
+    @Test
+    public void plansCriticalPath() {
+        TaskDurations durations = TaskDurations.empty();
+        durations.record(":core:compileScala", 30000);
+        durations.record(":domain:compileScala", 30000);
+        durations.record(":api:compileScala", 30000);
+        durations.record(":util:compileScala", 10000);
+        durations.record(":core:compileTestScala", 20000);
+
+        Map<String, Set<String>> dependencies = new LinkedHashMap<>();
+        dependencies.put(":util:compileScala", Collections.emptySet());
+        dependencies.put(":core:compileScala", Collections.emptySet());
+        dependencies.put(":core:compileTestScala", set(":core:compileScala"));
+        dependencies.put(":domain:compileScala", set(":core:compileScala"));
+        dependencies.put(":api:compileScala", set(":core:compileScala", ":domain:compileScala"));
+
+        assertEquals(Arrays.asList(":core:compileScala", ":domain:compileScala", ":api:compileScala"),
+            durations.plan(dependencies));
+        assertEquals(set(":core:compileScala", ":domain:compileScala", ":api:compileScala"),
+            durations.runAfter(":util:compileScala"));
+        assertEquals(set(":domain:compileScala", ":api:compileScala"), durations.runAfter(":core:compileTestScala"));
+        assertTrue(durations.runAfter(":core:compileScala").isEmpty());
+    }
+
+    /**
+     * Makes sure that nothing is planned before any of the tasks has run.
+     */
+    @Test
+    public void noPlanWithoutDurations() {
+        Map<String, Set<String>> dependencies = new LinkedHashMap<>();
+        dependencies.put(":core:compileScala", Collections.emptySet());
+        dependencies.put(":util:compileScala", Collections.emptySet());
+
+        assertTrue(TaskDurations.empty().plan(dependencies).isEmpty());
+    }
+
+    /**
+     * Makes sure that durations and plans survive being written and read again.
+     */
+    @Test
+    public void durationsAreRestored() throws Exception {
+        TaskDurations durations = TaskDurations.empty();
+        durations.record(":core:compileScala", 30000);
+        durations.record(":util:compileScala", 10000);
+
+        Map<String, Set<String>> dependencies = new LinkedHashMap<>();
+        dependencies.put(":core:compileScala", Collections.emptySet());
+        dependencies.put(":util:compileScala", Collections.emptySet());
+        durations.plan(dependencies);
+
+        File file = new File(temporaryFolder.getRoot(), "task-durations.txt");
+        durations.write(file);
+        TaskDurations restored = TaskDurations.read(file);
+        assertEquals(30000, restored.get(":core:compileScala").getAsLong());
+        assertEquals(set(":core:compileScala"), restored.runAfter(":util:compileScala"));
+        assertTrue(restored.runAfter(":core:compileScala").isEmpty());
+        assertFalse(TaskDurations.read(new File(file.getParentFile(), "missing.txt")).get(":core:compileScala").isPresent());
+    }
+
+    /**
+     * Makes sure that the plan is only rewritten if it changes, as builds with the configuration cache read it.
+     */
+    @Test
+    public void planIsOnlyWrittenIfItChanges() throws Exception {
+        TaskDurations durations = TaskDurations.empty();
+        durations.record(":core:compileScala", 30000);
+        durations.record(":util:compileScala", 10000);
+
+        Map<String, Set<String>> dependencies = new LinkedHashMap<>();
+        dependencies.put(":core:compileScala", Collections.emptySet());
+        dependencies.put(":util:compileScala", Collections.emptySet());
+        durations.plan(dependencies);
+
+        File file = new File(temporaryFolder.getRoot(), "task-order.txt");
+        assertTrue(durations.writePlan(file));
+        assertEquals(set(":core:compileScala"),
+            TaskDurations.parsePlan(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8))
+                .get(":util:compileScala"));
+
+        durations.record(":util:compileScala", 12000);
+        durations.plan(dependencies);
+        assertFalse(durations.writePlan(file));
+        assertTrue(TaskDurations.parsePlan("# some other format\n:util:compileScala\t:core:compileScala").isEmpty());
+    }
+
+    /**
+     * Makes sure that the order changes (and is written again) once a task turns out to take longer than the others.
+     */
+    @Test
+    public void orderFollowsDurations() throws Exception {
+        TaskDurations durations = TaskDurations.empty();
+        durations.record(":core:compileScala", 30000);
+        durations.record(":util:compileScala", 10000);
+
+        Map<String, Set<String>> dependencies = new LinkedHashMap<>();
+        dependencies.put(":core:compileScala", Collections.emptySet());
+        dependencies.put(":util:compileScala", Collections.emptySet());
+        assertEquals(Collections.singletonList(":core:compileScala"), durations.plan(dependencies));
+
+        File file = new File(temporaryFolder.getRoot(), "task-order.txt");
+        assertTrue(durations.writePlan(file));
+
+        durations.record(":util:compileScala", 90000);
+        assertEquals(Collections.singletonList(":util:compileScala"), durations.plan(dependencies));
+        assertEquals(set(":util:compileScala"), durations.runAfter(":core:compileScala"));
+        assertTrue(durations.runAfter(":util:compileScala").isEmpty());
+
+        assertTrue(durations.writePlan(file));
+        Map<String, Set<String>> plan =
+            TaskDurations.parsePlan(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        assertEquals(set(":util:compileScala"), plan.get(":core:compileScala"));
+        assertFalse(plan.containsKey(":util:compileScala"));
+    }
+
+    private static Set<String> set(String... tasks) {
+        return new HashSet<>(Arrays.asList(tasks));
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import org.gradle.api.logging.Logging;
+import sbt.internal.inc.PlainVirtualFileConverter;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Fixtures shared between the tests in this package, e.g. to create stampers, sources and JAR files.
+ */
+final class TestFixtures {
+
+    // do not instantiate this class
+    private TestFixtures() { }
+
+    static SourceStamper newStamper(SourceStamper.Strategy strategy, File cacheFile) {
+        return new SourceStamper(
+            strategy, PlainVirtualFileConverter.converter(), cacheFile, Logging.getLogger(TestFixtures.class));
+    }
+
+    /**
+     * Writes the given content to the given file, creating its parent directories if necessary.
+     */
+    static Path write(Path file, String content) throws Exception {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    static String read(Path file) throws Exception {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Creates a JAR file with the given (empty) entries. The entries have fixed timestamps, so that JAR files with
+     * the same entries also have the same content.
+     */
+    static Path createJar(Path jarFile, String... entries) throws Exception {
+        Files.createDirectories(jarFile.toAbsolutePath().getParent());
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jarFile))) {
+            for (String entry : entries) {
+                ZipEntry zipEntry = new ZipEntry(entry);
+                zipEntry.setTime(0L);
+                out.putNextEntry(zipEntry);
+                out.closeEntry();
+            }
+        }
+        return jarFile;
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestSelectionTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Makes sure that selections of individual test classes survive being written and read again.
+     */
+    @Test
+    public void selectedTestClassesAreRestored() throws Exception {
+        File file = new File(temporaryFolder.getRoot(), "selection.txt");
+        TestSelection.of(new HashSet<>(Arrays.asList("b.FooSpec", "a.BarSpec")), "2 changed file(s)").write(file);
+
+        TestSelection selection = TestSelection.read(file);
+        assertFalse(selection.isAll());
+        assertEquals(Arrays.asList("a.BarSpec", "b.FooSpec"), Arrays.asList(selection.getTestClasses().toArray()));
+        assertEquals("2 changed file(s)", selection.getReason());
+    }
+
+    /**
+     * Makes sure that selecting all test classes isn't confused with selecting none of them.
+     */
+    @Test
+    public void allAndNoneAreDistinct() throws Exception {
+        File directory = temporaryFolder.getRoot();
+        File all = new File(directory, "all.txt");
+        File none = new File(directory, "none.txt");
+        TestSelection.all("unknown changes").write(all);
+        TestSelection.of(Collections.emptySet(), "no changes").write(none);
+
+        assertTrue(TestSelection.read(all).isAll());
+        assertFalse(TestSelection.read(none).isAll());
+        assertTrue(TestSelection.read(none).getTestClasses().isEmpty());
+        assertTrue(TestSelection.read(new File(directory, "missing.txt")).isAll());
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2019 Bernhard Huemer (bernhard.huemer@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bhuemer.gbt.tasks.support;
+
+import org.gradle.api.logging.Logging;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import sbt.internal.inc.PlainVirtualFileConverter;
+import xsbti.VirtualFile;
+import xsbti.compile.analysis.Stamp;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static com.github.bhuemer.gbt.tasks.support.TestFixtures.newStamper;
+import static com.github.bhuemer.gbt.tasks.support.TestFixtures.read;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+public class UnchangedClassFileManagerTest {
+
+    private static final FileTime ORIGINAL_TIME = FileTime.fromMillis(1_000_000_000_000L);
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Makes sure that class files regenerated with identical content keep their original modification time,
+     * whereas the ones that actually changed are left as the compiler wrote them.
+     */
+    @Test
+    public void identicalClassFilesAreRestored() throws Exception {
+        Path outputDir = temporaryFolder.newFolder("classes").toPath();
+        Path same = write(outputDir.resolve("Same.class"), "same", ORIGINAL_TIME);
+        Path changed = write(outputDir.resolve("Changed.class"), "before", ORIGINAL_TIME);
+
+        UnchangedClassFileManager manager = newManager(outputDir);
+        recompile(manager, same, changed);
+        manager.complete(true);
+
+        assertEquals(ORIGINAL_TIME, Files.getLastModifiedTime(same));
+        assertEquals("same", read(same));
+        assertNotEquals(ORIGINAL_TIME, Files.getLastModifiedTime(changed));
+        assertEquals("after", read(changed));
+        assertFalse(Files.exists(outputDir.resolve("originals")));
+    }
+
+    /**
+     * Makes sure that nothing is restored if compilation failed, that's up to the transactional class file manager.
+     */
+    @Test
+    public void nothingIsRestoredOnFailure() throws Exception {
+        Path outputDir = temporaryFolder.newFolder("classes").toPath();
+        Path same = write(outputDir.resolve("Same.class"), "same", ORIGINAL_TIME);
+
+        UnchangedClassFileManager manager = newManager(outputDir);
+        recompile(manager, same);
+        manager.complete(false);
+
+        assertNotEquals(ORIGINAL_TIME, Files.getLastModifiedTime(same));
+        assertFalse(Files.exists(outputDir.resolve("originals")));
+    }
+
+    /**
+     * Makes sure that restored class files don't look modified to the next compilation, even when sources are only
+     * stamped by modification time: Zinc stamps class files before their original modification time is restored.
+     */
+    @Test
+    public void restoredClassFilesAreUnchangedForNextCompilation() throws Exception {
+        Path outputDir = temporaryFolder.newFolder("classes").toPath();
+        Path same = write(outputDir.resolve("Same.class"), "same", ORIGINAL_TIME);
+        VirtualFile classFile = PlainVirtualFileConverter.converter().toVirtualFile(same);
+
+        for (int compilation = 0; compilation < 2; compilation++) {
+            UnchangedClassFileManager manager = newManager(outputDir);
+            recompile(manager, same);
+            Stamp recorded = newStamper(SourceStamper.Strategy.MTIME, null).product(classFile);
+            manager.complete(true);
+
+            // What the next compilation compares against the stamp in the analysis
+            assertEquals(recorded, newStamper(SourceStamper.Strategy.MTIME, null).product(classFile));
+        }
+    }
+
+    private static UnchangedClassFileManager newManager(Path outputDir) {
+        return new UnchangedClassFileManager(
+            outputDir.resolve("originals").toFile(), ":compileScala", Logging.getLogger(UnchangedClassFileManagerTest.class));
+    }
+
+    /**
+     * Simulates what the compiler does: Delete the class files, and then generate them again.
+     */
+    private static void recompile(UnchangedClassFileManager manager, Path... classFiles) throws Exception {
+        File[] files = new File[classFiles.length];
+        for (int i = 0; i < classFiles.length; i++) {
+            files[i] = classFiles[i].toFile();
+        }
+
+        manager.delete(files);
+        for (Path classFile : classFiles) {
+            String content = read(classFile);
+            Files.delete(classFile);
+            write(classFile, content.equals("before") ? "after" : content, FileTime.fromMillis(System.currentTimeMillis()));
+        }
+        manager.generated(files);
+    }
+
+    private static Path write(Path file, String content, FileTime lastModified) throws Exception {
+        Files.setLastModifiedTime(TestFixtures.write(file, content), lastModified);
+        return file;
+    }
+
+}